@@ -0,0 +1,92 @@
+package benchmark;
+
+import model.board.Board;
+import model.move.MoveList;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the board operations used by move generation and the game, on each position of the corpus.
+ * Each benchmark goes through the whole corpus, so the scores are per corpus, not per position.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BoardBenchmark {
+    @Param({"bitmap", "mailbox"})
+    public String boardType;
+
+    private Board[] boards;
+    // legalMoves[i] holds the legal moves of boards[i]
+    private MoveList[] legalMoves;
+    private MoveList scratch;
+
+    @Setup
+    public void setup() {
+        boards = Corpus.createBoards(boardType);
+        legalMoves = new MoveList[boards.length];
+        for (int i = 0; i < boards.length; i++) {
+            legalMoves[i] = new MoveList();
+            boards[i].generateLegalMoves(legalMoves[i]);
+        }
+        scratch = new MoveList();
+    }
+
+    @Benchmark
+    public void getLegalMoves(Blackhole bh) {
+        for (Board board : boards) {
+            bh.consume(board.getLegalMoves());
+        }
+    }
+
+    @Benchmark
+    public void generateLegalMoves(Blackhole bh) {
+        for (Board board : boards) {
+            board.generateLegalMoves(scratch);
+            bh.consume(scratch.size());
+        }
+    }
+
+    @Benchmark
+    public void moveUndo(Blackhole bh) {
+        for (int i = 0; i < boards.length; i++) {
+            for (int j = 0; j < legalMoves[i].size(); j++) {
+                bh.consume(boards[i].move(legalMoves[i].get(j)));
+                bh.consume(boards[i].undoLastMove());
+            }
+        }
+    }
+
+    @Benchmark
+    public void isInCheck(Blackhole bh) {
+        for (Board board : boards) {
+            bh.consume(board.isInCheck());
+        }
+    }
+
+    @Benchmark
+    public void toFEN(Blackhole bh) {
+        for (Board board : boards) {
+            bh.consume(board.toFEN());
+        }
+    }
+
+    @Benchmark
+    public void parseFen(Blackhole bh) {
+        for (String fen : Corpus.FENS) {
+            bh.consume(Corpus.createBoard(boardType, fen));
+        }
+    }
+
+    @Benchmark
+    public void cloneBoard(Blackhole bh) {
+        for (Board board : boards) {
+            bh.consume(board.clone());
+        }
+    }
+}
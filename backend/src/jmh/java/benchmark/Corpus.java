@@ -0,0 +1,50 @@
+package benchmark;
+
+import model.Util;
+import model.board.BitmapBoard;
+import model.board.Board;
+import model.board.IllegalBoardException;
+import model.board.MailboxBoard;
+import model.board.MalformedFENException;
+
+/**
+ * The fixed positions that the benchmarks run over, so that the numbers are comparable across runs.
+ * They are the perft positions from src/test/perft.txt, which cover castling, en passant, promotions and checks.
+ */
+public class Corpus {
+    public static final String[] FENS = {
+            Util.START_POS,
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+            "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+            "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+            "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+            "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10"
+    };
+
+    /**
+     * @param boardType "bitmap" or "mailbox"
+     * @return a board of boardType loaded from fen
+     */
+    public static Board createBoard(String boardType, String fen) {
+        try {
+            return switch (boardType) {
+                case "bitmap" -> new BitmapBoard(fen);
+                case "mailbox" -> new MailboxBoard(fen);
+                default -> throw new IllegalArgumentException("Unknown board type: " + boardType);
+            };
+        } catch (MalformedFENException | IllegalBoardException e) {
+            throw new IllegalStateException("Invalid FEN in the corpus: " + fen, e);
+        }
+    }
+
+    /**
+     * @return a board of boardType for each position in the corpus
+     */
+    public static Board[] createBoards(String boardType) {
+        Board[] boards = new Board[FENS.length];
+        for (int i = 0; i < FENS.length; i++) {
+            boards[i] = createBoard(boardType, FENS[i]);
+        }
+        return boards;
+    }
+}
@@ -0,0 +1,74 @@
+package benchmark;
+
+import model.board.Board;
+import model.move.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of parsing moves in SAN and writing games in PGN.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MoveBenchmark {
+    // The number of plies in the game used by the PGN benchmark
+    private static final int GAME_LENGTH = 80;
+
+    @Param({"bitmap", "mailbox"})
+    public String boardType;
+
+    private Board[] boards;
+    // sanMoves[i] holds the legal moves of boards[i] in SAN
+    private String[][] sanMoves;
+    private PGN pgn;
+
+    @Setup
+    public void setup() {
+        boards = Corpus.createBoards(boardType);
+        sanMoves = new String[boards.length][];
+        MoveList legalMoves = new MoveList();
+        for (int i = 0; i < boards.length; i++) {
+            boards[i].generateLegalMoves(legalMoves);
+            sanMoves[i] = new String[legalMoves.size()];
+            for (int j = 0; j < legalMoves.size(); j++) {
+                sanMoves[i][j] = boards[i].toSAN(legalMoves.get(j));
+            }
+        }
+
+        // A random game with a fixed seed, so that the PGN is the same in every run
+        Board game = Corpus.createBoard(boardType, Corpus.FENS[0]);
+        Random random = new Random(0);
+        for (int ply = 0; ply < GAME_LENGTH && game.getResult().equals("*"); ply++) {
+            game.generateLegalMoves(legalMoves);
+            game.move(legalMoves.get(random.nextInt(legalMoves.size())));
+        }
+        pgn = new PGN(1, true, game.getResult());
+        List<String> gameMoves = game.getSANMoves();
+        for (String move : gameMoves) {
+            pgn.addMove(move);
+        }
+    }
+
+    @Benchmark
+    public void parse(Blackhole bh)
+            throws MalformedMoveException, IllegalMoveException, AmbiguousMoveException {
+        for (int i = 0; i < boards.length; i++) {
+            for (String san : sanMoves[i]) {
+                bh.consume(MoveParser.parse(san, boards[i]));
+            }
+        }
+    }
+
+    @Benchmark
+    public String pgnToString() {
+        return pgn.toString();
+    }
+}
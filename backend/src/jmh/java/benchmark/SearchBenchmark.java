@@ -0,0 +1,50 @@
+package benchmark;
+
+import model.board.Board;
+import model.engine.LazySmpSearch;
+import model.engine.Search;
+import model.engine.TranspositionTable;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to depth of the search on the corpus with different numbers of threads, to measure how Lazy SMP scales.
+ * The transposition table is cleared before every invocation, so that each search starts from scratch.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SearchBenchmark {
+    private static final int DEPTH = 5;
+    private static final int TABLE_SIZE_MB = 64;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private Board[] boards;
+    private TranspositionTable table;
+
+    @Setup
+    public void setup() {
+        boards = Corpus.createBoards("bitmap");
+        table = new TranspositionTable(TABLE_SIZE_MB);
+    }
+
+    @Setup(Level.Invocation)
+    public void clearTable() {
+        table.clear();
+    }
+
+    @Benchmark
+    public long timeToDepth() {
+        long nodes = 0;
+        for (Board board : boards) {
+            nodes += new LazySmpSearch(board, table, threads).search(TimeUnit.DAYS.toMillis(1), DEPTH).nodes();
+        }
+        return nodes;
+    }
+}
@@ -0,0 +1,32 @@
+package controller;
+
+import model.board.Bitbases;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Generates the KPK, KRK and KQK bitbases (see Bitbases) and writes them to a directory,
+ * from which they can be read with Bitbases.load.
+ */
+public class BitbaseGenerator {
+    public static final String DEFAULT_DIR = "bitbases";
+
+    /**
+     * Usage: BitbaseGenerator [dir]
+     */
+    public static void main(String[] args) {
+        Path dir = Path.of(args.length > 0 ? args[0] : DEFAULT_DIR);
+        long startTime = System.nanoTime();
+        Bitbases bitbases = Bitbases.generate();
+        long endTime = System.nanoTime();
+        try {
+            bitbases.write(dir);
+        } catch (IOException e) {
+            System.err.println("Could not write bitbases to " + dir + ": " + e.getMessage());
+            return;
+        }
+        System.out.println("Bitbases written to " + dir.toAbsolutePath());
+        System.out.printf("Time: %.3f s\n", (endTime - startTime) / 1.0e9);
+    }
+}
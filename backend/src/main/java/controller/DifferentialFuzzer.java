@@ -0,0 +1,285 @@
+package controller;
+
+import model.Util;
+import model.board.*;
+import model.move.MoveList;
+import model.move.PackedMove;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * Plays random games on two board implementations side by side, and checks after every ply that they agree on
+ * the legal moves, the FEN, whether the side to move is in check, and the winner.
+ * A divergence is shrunk to the latest starting position (as a FEN) and the fewest moves that still reproduce it.
+ * <p>
+ * Usage: DifferentialFuzzer [games] [seed]
+ * <p>
+ * Compares MailboxBoard against BitmapBoard. The games are played in parallel in the common ForkJoinPool,
+ * and each game has its own random seed derived from the seed, so a run can be repeated exactly.
+ */
+public class DifferentialFuzzer {
+    /**
+     * Creates a board of some implementation from a FEN
+     */
+    public interface BoardFactory {
+        Board create(String fen) throws MalformedFENException, IllegalBoardException;
+    }
+
+    /**
+     * Two boards that disagree after the moves are made from fen
+     *
+     * @param fen         the starting position
+     * @param moves       the moves made from fen, see PackedMove.toString
+     * @param description what the boards disagree on
+     */
+    public record Divergence(String fen, List<String> moves, String description) {
+        @Override
+        public String toString() {
+            return "FEN: " + fen + "\nMoves: " + String.join(" ", moves) + "\n" + description;
+        }
+    }
+
+    // The starting positions of the games, which cover castling, en passant, promotions and checks
+    public static final String[] START_FENS = {
+            Util.START_POS,
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+            "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+            "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+            "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+            "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10"
+    };
+    public static final int DEFAULT_MAX_PLIES = 200;
+
+    private final BoardFactory expected, actual;
+    private final int maxPlies;
+    private final AtomicLong pliesPlayed;
+
+    /**
+     * @param expected the reference implementation, whose legal moves are used to pick the random moves
+     * @param actual   the implementation under test
+     * @param maxPlies the maximum number of plies in each game
+     */
+    public DifferentialFuzzer(BoardFactory expected, BoardFactory actual, int maxPlies) {
+        this.expected = expected;
+        this.actual = actual;
+        this.maxPlies = maxPlies;
+        this.pliesPlayed = new AtomicLong();
+    }
+
+    /**
+     * Play the given number of random games in parallel, game i starting from START_FENS[i % START_FENS.length]
+     *
+     * @return the shrunk divergences, ordered by the game they were found in
+     */
+    public List<Divergence> run(int games, long seed) {
+        Queue<Map.Entry<Integer, Divergence>> found = new ConcurrentLinkedQueue<>();
+        IntStream.range(0, games).parallel().forEach(game -> {
+            Divergence divergence = playGame(START_FENS[game % START_FENS.length], gameSeed(seed, game));
+            if (divergence != null) {
+                found.add(Map.entry(game, divergence));
+            }
+        });
+        List<Map.Entry<Integer, Divergence>> sorted = new ArrayList<>(found);
+        sorted.sort(Map.Entry.comparingByKey());
+        List<Divergence> divergences = new ArrayList<>();
+        for (Map.Entry<Integer, Divergence> entry : sorted) {
+            divergences.add(entry.getValue());
+        }
+        return divergences;
+    }
+
+    /**
+     * Play one random game from fen
+     *
+     * @return the shrunk divergence, or null if the boards agree throughout the game
+     */
+    public Divergence playGame(String fen, long seed) {
+        Random random = new Random(seed);
+        Board expectedBoard = createOrThrow(expected, fen);
+        Board actualBoard = createOrThrow(actual, fen);
+        // fens.get(i) is the position before moves.get(i)
+        List<String> fens = new ArrayList<>();
+        List<Integer> moves = new ArrayList<>();
+        MoveList expectedMoves = new MoveList(), actualMoves = new MoveList();
+        for (int ply = 0; ; ply++) {
+            fens.add(expectedBoard.toFEN());
+            if (compare(expectedBoard, actualBoard, expectedMoves, actualMoves) != null) {
+                return shrink(fens, moves);
+            }
+            if (ply == maxPlies || expectedBoard.getWinner() != 'u') {
+                pliesPlayed.addAndGet(ply);
+                return null;
+            }
+            // Sorted by compare, so the choice doesn't depend on the order of move generation
+            int move = expectedMoves.get(random.nextInt(expectedMoves.size()));
+            moves.add(move);
+            boolean expectedMoved = expectedBoard.move(move);
+            boolean actualMoved = actualBoard.move(move);
+            if (expectedMoved != actualMoved) {
+                return shrink(fens, moves);
+            }
+        }
+    }
+
+    /**
+     * @return the number of plies played in the games that had no divergence
+     */
+    public long pliesPlayed() {
+        return pliesPlayed.get();
+    }
+
+    /**
+     * Find the latest position in the game from which the moves after it still reproduce the divergence
+     * at the end of the game. Starting from a FEN drops the history of the game, which may hide a divergence
+     * (e.g. in threefold repetition), so earlier positions are tried until one reproduces it.
+     * Starting from the initial FEN always reproduces it, since the games are deterministic.
+     *
+     * @param fens  fens.get(i) is the position before moves.get(i), and the last FEN is the position
+     *              where the boards disagree if they didn't disagree on making the last move
+     * @param moves the moves of the game up to the divergence
+     */
+    private Divergence shrink(List<String> fens, List<Integer> moves) {
+        for (int start = fens.size() - 1; start > 0; start--) {
+            Divergence divergence = replay(fens.get(start), moves.subList(start, moves.size()));
+            if (divergence != null) {
+                return divergence;
+            }
+        }
+        Divergence divergence = replay(fens.getFirst(), moves);
+        assert divergence != null;
+        return divergence;
+    }
+
+    /**
+     * Make the moves from fen on both boards, comparing them after every ply
+     *
+     * @return the divergence with the moves up to where the boards first disagree, or null if they always agree
+     */
+    private Divergence replay(String fen, List<Integer> moves) {
+        Board expectedBoard = createOrThrow(expected, fen);
+        Board actualBoard = createOrThrow(actual, fen);
+        MoveList expectedMoves = new MoveList(), actualMoves = new MoveList();
+        List<String> madeMoves = new ArrayList<>();
+        for (int i = 0; ; i++) {
+            String description = compare(expectedBoard, actualBoard, expectedMoves, actualMoves);
+            if (description != null) {
+                return new Divergence(fen, madeMoves, description);
+            }
+            if (i == moves.size()) {
+                return null;
+            }
+            int move = moves.get(i);
+            madeMoves.add(PackedMove.toString(move));
+            boolean expectedMoved = expectedBoard.move(move);
+            boolean actualMoved = actualBoard.move(move);
+            if (expectedMoved != actualMoved) {
+                return new Divergence(fen, madeMoves, "move returned " + expectedMoved + " (expected) vs "
+                        + actualMoved + " (actual)");
+            }
+        }
+    }
+
+    /**
+     * Generate and sort the legal moves of both boards, and compare the boards
+     *
+     * @return what the boards disagree on, or null if they agree
+     */
+    private static String compare(Board expectedBoard, Board actualBoard, MoveList expectedMoves,
+                                  MoveList actualMoves) {
+        expectedBoard.generateLegalMoves(expectedMoves);
+        actualBoard.generateLegalMoves(actualMoves);
+        sort(expectedMoves);
+        sort(actualMoves);
+        if (!sameMoves(expectedMoves, actualMoves)) {
+            return "Legal moves: " + expectedMoves + " (expected) vs " + actualMoves + " (actual)";
+        }
+        String expectedFen = expectedBoard.toFEN(), actualFen = actualBoard.toFEN();
+        if (!expectedFen.equals(actualFen)) {
+            return "FEN: " + expectedFen + " (expected) vs " + actualFen + " (actual)";
+        }
+        if (expectedBoard.isInCheck() != actualBoard.isInCheck()) {
+            return "In check: " + expectedBoard.isInCheck() + " (expected) vs " + actualBoard.isInCheck()
+                    + " (actual)";
+        }
+        if (expectedBoard.getWinner() != actualBoard.getWinner()) {
+            return "Winner: " + expectedBoard.getWinner() + " (expected) vs " + actualBoard.getWinner()
+                    + " (actual)";
+        }
+        return null;
+    }
+
+    private static boolean sameMoves(MoveList a, MoveList b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (a.get(i) != b.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Insertion sort, since there are only a few dozen moves and MoveList has no backing array to sort
+     */
+    private static void sort(MoveList moves) {
+        for (int i = 1; i < moves.size(); i++) {
+            int move = moves.get(i);
+            int j = i - 1;
+            while (j >= 0 && moves.get(j) > move) {
+                moves.set(j + 1, moves.get(j));
+                j--;
+            }
+            moves.set(j + 1, move);
+        }
+    }
+
+    private static Board createOrThrow(BoardFactory factory, String fen) {
+        try {
+            return factory.create(fen);
+        } catch (MalformedFENException | IllegalBoardException e) {
+            throw new IllegalStateException("Invalid FEN: " + fen, e);
+        }
+    }
+
+    /**
+     * Spread the seeds of the games so that games with adjacent indices don't get correlated random moves
+     */
+    private static long gameSeed(long seed, int game) {
+        return seed * 0x9E3779B97F4A7C15L + game;
+    }
+
+    public static void main(String[] args) {
+        int games = 10000;
+        long seed = 0;
+        try {
+            if (args.length > 0) {
+                games = Integer.parseInt(args[0]);
+            }
+            if (args.length > 1) {
+                seed = Long.parseLong(args[1]);
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Usage: DifferentialFuzzer [games] [seed]");
+            return;
+        }
+
+        DifferentialFuzzer fuzzer = new DifferentialFuzzer(BitmapBoard::new, MailboxBoard::new, DEFAULT_MAX_PLIES);
+        long startTime = System.nanoTime();
+        List<Divergence> divergences = fuzzer.run(games, seed);
+        long endTime = System.nanoTime();
+
+        for (Divergence divergence : divergences) {
+            System.out.println(divergence);
+            System.out.println();
+        }
+        double seconds = (endTime - startTime) / 1.0e9;
+        System.out.println("Games: " + games + ", divergences: " + divergences.size());
+        System.out.printf("Time: %.3f s\n", seconds);
+        System.out.printf("Plies per second: %.0f\n", fuzzer.pliesPlayed() / seconds);
+    }
+}
@@ -0,0 +1,317 @@
+package controller;
+
+import model.HashTable;
+import model.Util;
+import model.board.BitmapBoard;
+import model.board.Board;
+import model.board.IllegalBoardException;
+import model.board.MailboxBoard;
+import model.board.MalformedFENException;
+import model.move.MoveList;
+import model.move.PackedMove;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Counts the leaf nodes of the tree of legal moves to a fixed depth ("perft"),
+ * which is used to test the correctness and measure the speed of move generation.
+ * See <a href="https://www.chessprogramming.org/Perft">chess programming wiki</a> for more details.
+ * <p>
+ * Usage: Perft [-bitmap | -mailbox] [-cache] [-parallel] depth [FEN]
+ * <p>
+ * Prints the number of leaf nodes after each legal move in the position ("divide"),
+ * followed by the total number of leaf nodes and the number of leaf nodes per second.
+ * The board defaults to BitmapBoard and the FEN defaults to the starting position.
+ * With -cache, the counts of subtrees are cached by the hash of the position in a HashTable,
+ * so the nodes per second no longer measure the speed of move generation alone.
+ * With -parallel, the tree is split into tasks that run in the common ForkJoinPool.
+ */
+public class Perft {
+    private static final String USAGE = "Usage: Perft [-bitmap | -mailbox] [-cache] [-parallel] depth [FEN]";
+    // The number of plies at the top of the tree that are split into parallel tasks
+    private static final int SPLIT_PLIES = 2;
+    // 2^20 entries, which is 16 MB
+    public static final int DEFAULT_HASH_CAPACITY = 1 << 20;
+
+    private final Board board;
+    private final HashTable table;  // null if the counts are not cached
+    // moveLists[depth] is used for the nodes that are depth plies away from the leaves
+    private MoveList[] moveLists;
+    // The tables used by the tasks of parallelPerft, one for each thread that runs them
+    private final ThreadLocal<HashTable> workerTables;
+    private final Queue<HashTable> allWorkerTables;
+
+    /**
+     * Create a perft counter for the board. The board is put in perft mode (see Board.PERFT),
+     * and is unchanged after each count.
+     *
+     * @param useCache whether to cache the counts of subtrees by the hash of the position
+     *                 in a table of DEFAULT_HASH_CAPACITY entries
+     */
+    public Perft(Board board, boolean useCache) {
+        this(board, useCache ? new HashTable(DEFAULT_HASH_CAPACITY, HashTable.Replacement.DEPTH_PREFERRED) : null);
+    }
+
+    /**
+     * Create a perft counter for the board that caches the counts of subtrees in table,
+     * or doesn't cache them if table is null. parallelPerft gives each thread its own table
+     * with the same capacity and replacement policy.
+     */
+    public Perft(Board board, HashTable table) {
+        this.board = board;
+        this.table = table;
+        this.moveLists = new MoveList[0];
+        this.allWorkerTables = new ConcurrentLinkedQueue<>();
+        this.workerTables = ThreadLocal.withInitial(() -> {
+            HashTable workerTable = new HashTable(table.capacity(), table.replacement());
+            allWorkerTables.add(workerTable);
+            return workerTable;
+        });
+        board.PERFT = true;
+    }
+
+    /**
+     * @return the number of leaf nodes of the tree of legal moves of the given depth
+     */
+    public long perft(int depth) {
+        ensureDepth(depth);
+        return countLeaves(depth);
+    }
+
+    /**
+     * @return the number of cache hits since this counter was created, summed over all threads
+     */
+    public long hits() {
+        long hits = table == null ? 0 : table.hits();
+        for (HashTable workerTable : allWorkerTables) {
+            hits += workerTable.hits();
+        }
+        return hits;
+    }
+
+    /**
+     * @return the number of cache misses since this counter was created, summed over all threads
+     */
+    public long misses() {
+        long misses = table == null ? 0 : table.misses();
+        for (HashTable workerTable : allWorkerTables) {
+            misses += workerTable.misses();
+        }
+        return misses;
+    }
+
+    /**
+     * Requires: depth >= 1
+     *
+     * @return the number of leaf nodes after each legal move in the position, ordered by the move
+     */
+    public SortedMap<String, Long> divide(int depth) {
+        assert depth >= 1;
+        ensureDepth(depth);
+        SortedMap<String, Long> counts = new TreeMap<>();
+        MoveList legalMoves = new MoveList();
+        board.generateLegalMoves(legalMoves);
+        for (int i = 0; i < legalMoves.size(); i++) {
+            board.move(legalMoves.get(i));
+            counts.put(PackedMove.toString(legalMoves.get(i)), countLeaves(depth - 1));
+            board.undoLastMove();
+        }
+        return counts;
+    }
+
+    /**
+     * Same as perft, but the tree is split at the root and at the next ply into tasks
+     * that run in the common ForkJoinPool, each on its own clone of the board.
+     * The board itself is unchanged, and the result doesn't depend on how the tasks are scheduled.
+     *
+     * @return the number of leaf nodes of the tree of legal moves of the given depth
+     */
+    public long parallelPerft(int depth) {
+        if (depth == 0) {
+            return 1;
+        }
+        long count = 0;
+        for (long subCount : parallelDivide(depth).values()) {
+            count += subCount;
+        }
+        return count;
+    }
+
+    /**
+     * Same as divide, but the subtrees are counted in parallel (see parallelPerft).
+     * Requires: depth >= 1
+     *
+     * @return the number of leaf nodes after each legal move in the position, ordered by the move
+     */
+    public SortedMap<String, Long> parallelDivide(int depth) {
+        assert depth >= 1;
+        MoveList legalMoves = new MoveList();
+        board.generateLegalMoves(legalMoves);
+        List<PerftTask> tasks = new ArrayList<>();
+        for (int i = 0; i < legalMoves.size(); i++) {
+            board.move(legalMoves.get(i));
+            tasks.add(new PerftTask(board.clone(), depth - 1, SPLIT_PLIES - 1));
+            board.undoLastMove();
+        }
+        ForkJoinTask.invokeAll(tasks);
+        SortedMap<String, Long> counts = new TreeMap<>();
+        for (int i = 0; i < legalMoves.size(); i++) {
+            counts.put(PackedMove.toString(legalMoves.get(i)), tasks.get(i).join());
+        }
+        return counts;
+    }
+
+    /**
+     * A task that counts the leaf nodes of a subtree on a board that it owns.
+     * While splitPlies > 0, the task forks a subtask for each legal move instead of counting them itself.
+     */
+    private class PerftTask extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        // Tasks are never serialized
+        private final transient Board board;
+        private final int depth;
+        private final int splitPlies;
+
+        PerftTask(Board board, int depth, int splitPlies) {
+            this.board = board;
+            this.depth = depth;
+            this.splitPlies = splitPlies;
+            // Skip the legality checks and repetition detection that perft doesn't need
+            board.PERFT = true;
+        }
+
+        @Override
+        protected Long compute() {
+            if (splitPlies == 0 || depth <= 1) {
+                // Tasks that count by themselves never wait for other tasks,
+                // so a thread runs them one at a time and they can share the thread's table
+                return new Perft(board, table == null ? null : workerTables.get()).perft(depth);
+            }
+            MoveList legalMoves = new MoveList();
+            board.generateLegalMoves(legalMoves);
+            List<PerftTask> subtasks = new ArrayList<>();
+            for (int i = 0; i < legalMoves.size(); i++) {
+                board.move(legalMoves.get(i));
+                subtasks.add(new PerftTask(board.clone(), depth - 1, splitPlies - 1));
+                board.undoLastMove();
+            }
+            invokeAll(subtasks);
+            // Sum in move order so that the result is deterministic
+            long count = 0;
+            for (PerftTask subtask : subtasks) {
+                count += subtask.join();
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Allocate the move lists for the nodes up to depth plies away from the leaves
+     */
+    private void ensureDepth(int depth) {
+        if (moveLists.length > depth) {
+            return;
+        }
+        int oldLength = moveLists.length;
+        moveLists = Arrays.copyOf(moveLists, depth + 1);
+        for (int i = oldLength; i <= depth; i++) {
+            moveLists[i] = new MoveList();
+        }
+    }
+
+    /**
+     * Count the number of leaf nodes starting from board
+     * Postcondition: board is unchanged
+     */
+    private long countLeaves(int depth) {
+        if (depth == 0) {
+            return 1;
+        }
+        if (table != null) {
+            long cached = table.get(board.hash(), depth);
+            if (cached != HashTable.MISS) {
+                return cached;
+            }
+        }
+        MoveList legalMoves = moveLists[depth];
+        board.generateLegalMoves(legalMoves);
+        long count;
+        if (depth == 1) {
+            // Bulk-counting
+            count = legalMoves.size();
+        } else {
+            count = 0;
+            for (int i = 0; i < legalMoves.size(); i++) {
+                board.move(legalMoves.get(i));
+                count += countLeaves(depth - 1);
+                board.undoLastMove();
+            }
+        }
+        if (table != null) {
+            table.put(board.hash(), depth, count);
+        }
+        return count;
+    }
+
+    public static void main(String[] args) {
+        boolean mailbox = false;
+        boolean useCache = false;
+        boolean parallel = false;
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            switch (arg) {
+                case "-bitmap" -> mailbox = false;
+                case "-mailbox" -> mailbox = true;
+                case "-cache" -> useCache = true;
+                case "-parallel" -> parallel = true;
+                default -> positional.add(arg);
+            }
+        }
+        int depth;
+        try {
+            depth = Integer.parseInt(positional.getFirst());
+        } catch (NoSuchElementException | NumberFormatException e) {
+            System.err.println(USAGE);
+            return;
+        }
+        if (depth < 1) {
+            System.err.println("Depth must be positive");
+            return;
+        }
+        // The FEN contains spaces, so it may be split into several arguments
+        String fen = positional.size() > 1
+                ? String.join(" ", positional.subList(1, positional.size()))
+                : Util.START_POS;
+
+        Board board;
+        try {
+            board = mailbox ? new MailboxBoard(fen) : new BitmapBoard(fen);
+        } catch (MalformedFENException | IllegalBoardException e) {
+            System.err.println("Invalid FEN: " + e.getMessage());
+            return;
+        }
+
+        Perft perft = new Perft(board, useCache);
+        long startTime = System.nanoTime();
+        SortedMap<String, Long> counts = parallel ? perft.parallelDivide(depth) : perft.divide(depth);
+        long endTime = System.nanoTime();
+
+        long total = 0;
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            System.out.println(entry.getKey() + ": " + entry.getValue());
+            total += entry.getValue();
+        }
+        double seconds = (endTime - startTime) / 1.0e9;
+        System.out.println();
+        System.out.println("Nodes: " + total);
+        System.out.printf("Time: %.3f s\n", seconds);
+        System.out.printf("Nodes per second: %.0f\n", total / seconds);
+        if (useCache) {
+            System.out.println("Hash hits: " + perft.hits() + ", misses: " + perft.misses());
+        }
+    }
+}
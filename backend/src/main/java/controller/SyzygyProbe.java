@@ -0,0 +1,47 @@
+package controller;
+
+import model.board.BitmapBoard;
+import model.board.IllegalBoardException;
+import model.board.MalformedFENException;
+import model.engine.SyzygyTablebases;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Prints the WDL result and DTZ distance of a position from the Syzygy tablebases in a directory
+ * (see SyzygyTablebases).
+ */
+public class SyzygyProbe {
+    private static final String USAGE = "Usage: SyzygyProbe dir FEN";
+    private static final String[] RESULTS = {"loss", "blessed loss", "draw", "cursed win", "win"};
+
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println(USAGE);
+            return;
+        }
+        SyzygyTablebases tablebases;
+        BitmapBoard board;
+        try {
+            tablebases = new SyzygyTablebases(Path.of(args[0]));
+            board = new BitmapBoard(args[1]);
+        } catch (IOException e) {
+            System.err.println("Could not read tablebases from " + args[0] + ": " + e.getMessage());
+            return;
+        } catch (MalformedFENException | IllegalBoardException e) {
+            System.err.println("Invalid FEN: " + e.getMessage());
+            return;
+        }
+        System.out.println(tablebases.wdlCount() + " WDL and " + tablebases.dtzCount()
+                + " DTZ tables of up to " + tablebases.maxPieces() + " pieces");
+        int wdl = tablebases.probeWdl(board);
+        if (wdl == SyzygyTablebases.UNKNOWN) {
+            System.out.println("Position not in the tablebases");
+            return;
+        }
+        System.out.println("WDL: " + RESULTS[wdl + 2]);
+        int dtz = tablebases.probeDtz(board);
+        System.out.println("DTZ: " + (dtz == SyzygyTablebases.UNKNOWN ? "unknown" : dtz + " plies"));
+    }
+}
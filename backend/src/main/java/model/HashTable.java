@@ -0,0 +1,119 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-capacity hash table from 64-bit keys (usually Zobrist hashes) to non-negative values,
+ * each stored together with the depth of the search that produced it.
+ * The capacity is a power of two, so the slot of a key is its low bits. Each slot holds one entry,
+ * and when two keys map to the same slot, the replacement policy decides which entry is kept.
+ * The entries are stored in a primitive long array, so the memory used is fixed no matter how deep the run goes.
+ * <p>
+ * The table is not thread-safe: use one table per thread.
+ */
+public class HashTable {
+    /**
+     * Decides whether a new entry replaces the entry in its slot
+     */
+    public enum Replacement {
+        // The new entry always replaces the old one
+        ALWAYS,
+        // The new entry replaces the old one only if it's at least as deep, since deeper entries save more work
+        DEPTH_PREFERRED
+    }
+
+    // Returned by get if the table has no entry for the key and depth
+    public static final long MISS = -1;
+
+    public static final int MAX_DEPTH = 254;
+    public static final long MAX_VALUE = (1L << 56) - 1;
+
+    private final Replacement replacement;
+    private final int mask;
+    // entries[2 * i] is the key of slot i, and entries[2 * i + 1] is (depth + 1) << 56 | value,
+    // so that an empty slot is 0 in the second long
+    private final long[] entries;
+    private long hits, misses;
+
+    /**
+     * @param capacity the number of entries, which must be a power of two
+     * @throws IllegalArgumentException if capacity is not a positive power of two
+     */
+    public HashTable(int capacity, Replacement replacement) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        this.replacement = replacement;
+        this.mask = capacity - 1;
+        this.entries = new long[2 * capacity];
+    }
+
+    /**
+     * @return the value stored for key at depth, or MISS if there is none
+     */
+    public long get(long key, int depth) {
+        int slot = slot(key);
+        long data = entries[slot + 1];
+        if (entries[slot] == key && data != 0 && (int) (data >>> 56) - 1 == depth) {
+            hits++;
+            return data & MAX_VALUE;
+        }
+        misses++;
+        return MISS;
+    }
+
+    /**
+     * Store the value for key at depth, unless the replacement policy keeps the entry already in the slot.
+     * Requires: 0 <= depth <= MAX_DEPTH, 0 <= value <= MAX_VALUE
+     */
+    public void put(long key, int depth, long value) {
+        assert depth >= 0 && depth <= MAX_DEPTH;
+        assert value >= 0 && value <= MAX_VALUE;
+        int slot = slot(key);
+        long data = entries[slot + 1];
+        if (replacement == Replacement.DEPTH_PREFERRED && data != 0 && entries[slot] != key
+                && depth < (int) (data >>> 56) - 1) {
+            return;
+        }
+        entries[slot] = key;
+        entries[slot + 1] = (long) (depth + 1) << 56 | value;
+    }
+
+    /**
+     * Remove all entries and reset the hit and miss counters
+     */
+    public void clear() {
+        Arrays.fill(entries, 0);
+        hits = 0;
+        misses = 0;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    public Replacement replacement() {
+        return replacement;
+    }
+
+    /**
+     * @return the number of calls to get that found an entry since the table was created or cleared
+     */
+    public long hits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of calls to get that didn't find an entry since the table was created or cleared
+     */
+    public long misses() {
+        return misses;
+    }
+
+    /**
+     * @return the index in entries of the key of the slot for key
+     */
+    private int slot(long key) {
+        return ((int) key & mask) << 1;
+    }
+}
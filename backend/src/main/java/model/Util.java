@@ -2,6 +2,8 @@ package model;
 
 import model.move.Move;
 
+import java.util.Arrays;
+
 /**
  * A class for global constants and utilities.
  */
@@ -12,6 +14,16 @@ public class Util {
     public static final char[] WHITE_PIECE_NAMES = {'P', 'N', 'B', 'R', 'Q', 'K'};
     public static final char[] BLACK_PIECE_NAMES = {'p', 'n', 'b', 'r', 'q', 'k'};
 
+    // PIECE_INDEX[pieceType] is the index of pieceType in PIECE_NAMES, or -1 if pieceType is not a piece
+    private static final int[] PIECE_INDEX = new int['z' + 1];
+
+    static {
+        Arrays.fill(PIECE_INDEX, -1);
+        for (int i = 0; i < PIECE_NAMES.length; i++) {
+            PIECE_INDEX[PIECE_NAMES[i]] = i;
+        }
+    }
+
     public static final int[] DE_BRUIJN_LOOKUP = {
             0, 1, 48, 2, 57, 49, 28, 3,
             61, 58, 50, 42, 38, 29, 17, 4,
@@ -30,6 +42,21 @@ public class Util {
     public static final long H_FILE = 0x8080808080808080L;
 
 
+    /**
+     * Maps a piece type to a dense index, so that per-piece data can be stored in arrays of length 12
+     * instead of arrays indexed by char.
+     *
+     * @return the index of pieceType in PIECE_NAMES: 0 to 5 for black pieces, 6 to 11 for white pieces
+     * @throws IllegalArgumentException if pieceType is not in PIECE_NAMES
+     */
+    public static int pieceIndex(char pieceType) {
+        int index = pieceType < PIECE_INDEX.length ? PIECE_INDEX[pieceType] : -1;
+        if (index < 0) {
+            throw new IllegalArgumentException("Not a piece: " + pieceType);
+        }
+        return index;
+    }
+
     /**
      * @return true if input is in [0...7], false otherwise
      */
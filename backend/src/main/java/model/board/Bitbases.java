@@ -0,0 +1,279 @@
+package model.board;
+
+import model.Util;
+import model.move.MoveList;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Win/draw tables ("bitbases") of the endgames KPK, KRK and KQK, where one side has a king and a pawn, rook
+ * or queen and the other side has a lone king. Since the lone king can't win, one bit per position is enough:
+ * whether the strong side wins. See <a href="https://www.chessprogramming.org/Endgame_Bitbases">chess programming
+ * wiki</a> for more details.
+ * <p>
+ * The tables are generated by retrograde analysis: the successors of every position are found once with
+ * BitmapBoard, then positions are marked as won until nothing changes. The strong side to move wins if some
+ * move reaches a won position, and the lone king to move loses if it's checkmated or all its moves reach won
+ * positions. Each round reads the marks of the last round only, so the rounds run in parallel and the result
+ * doesn't depend on the number of threads. KPK is generated last, since a pawn that promotes reaches KQK or KRK.
+ * <p>
+ * Each table covers the positions with white as the strong side, indexed by the squares of the white king,
+ * the white piece and the black king, and the side to move; positions with black as the strong side
+ * are mirrored. Castling rights and the fifty-move rule are ignored.
+ */
+public class Bitbases {
+    // Results of probe, from the perspective of the side to move
+    public static final int WIN = 1;
+    public static final int DRAW = 0;
+    public static final int LOSS = -1;
+    // The board is not covered by the bitbases
+    public static final int UNKNOWN = 2;
+
+    // The pieces of the strong side other than the king, in the order of the tables
+    private static final char[] PIECES = {'P', 'R', 'Q'};
+    private static final String[] FILE_NAMES = {"kpk.bb", "krk.bb", "kqk.bb"};
+    // 64 * 64 * 64 squares times 2 sides to move
+    private static final int SIZE = 1 << 19;
+
+    // Successors of a position that end the game or leave the table
+    private static final int WIN_CHILD = -1;
+    private static final int DRAW_CHILD = -2;
+
+    // tables[i][index >>> 6] bit (index & 63) is set if white wins the position with index in the table of PIECES[i]
+    private final long[][] tables;
+
+    private Bitbases(long[][] tables) {
+        this.tables = tables;
+    }
+
+    /**
+     * Generate the tables in parallel, which takes a few seconds per table
+     */
+    public static Bitbases generate() {
+        long[] rook = generate('R', null, null);
+        long[] queen = generate('Q', null, null);
+        long[] pawn = generate('P', rook, queen);
+        return new Bitbases(new long[][]{pawn, rook, queen});
+    }
+
+    /**
+     * Read the tables written by write from dir
+     *
+     * @throws IOException if a file can't be read or has the wrong length
+     */
+    public static Bitbases load(Path dir) throws IOException {
+        long[][] tables = new long[PIECES.length][];
+        for (int i = 0; i < PIECES.length; i++) {
+            Path path = dir.resolve(FILE_NAMES[i]);
+            byte[] bytes = Files.readAllBytes(path);
+            if (bytes.length != SIZE / 8) {
+                throw new IOException("Expected " + SIZE / 8 + " bytes in bitbase: " + path);
+            }
+            tables[i] = new long[SIZE / 64];
+            ByteBuffer.wrap(bytes).asLongBuffer().get(tables[i]);
+        }
+        return new Bitbases(tables);
+    }
+
+    /**
+     * Write each table to a file of 64 KB in dir, as big-endian longs
+     */
+    public void write(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        for (int i = 0; i < PIECES.length; i++) {
+            ByteBuffer buffer = ByteBuffer.allocate(SIZE / 8);
+            buffer.asLongBuffer().put(tables[i]);
+            Files.write(dir.resolve(FILE_NAMES[i]), buffer.array());
+        }
+    }
+
+    /**
+     * @return WIN, DRAW or LOSS from the perspective of the side to move if the board is covered by the bitbases,
+     * UNKNOWN otherwise
+     */
+    public int probe(Board board) {
+        int others = 0;
+        for (int i = 0; i < PIECES.length; i++) {
+            others += board.getPieceCount(PIECES[i]) + board.getPieceCount(Character.toLowerCase(PIECES[i]));
+        }
+        if (others != 1 || board.getPieceCount('N') + board.getPieceCount('n')
+                + board.getPieceCount('B') + board.getPieceCount('b') != 0) {
+            return UNKNOWN;
+        }
+        for (int i = 0; i < PIECES.length; i++) {
+            boolean win;
+            boolean strongToMove;
+            if (board.getPieceCount(PIECES[i]) == 1) {
+                strongToMove = board.whiteToMove();
+                win = isWin(tables[i], Util.getLS1BIdx(board.getBitmap('K')),
+                        Util.getLS1BIdx(board.getBitmap(PIECES[i])), Util.getLS1BIdx(board.getBitmap('k')),
+                        strongToMove);
+            } else if (board.getPieceCount(Character.toLowerCase(PIECES[i])) == 1) {
+                // Mirror the board vertically and swap the colors
+                strongToMove = !board.whiteToMove();
+                win = isWin(tables[i], Util.getLS1BIdx(board.getBitmap('k')) ^ 56,
+                        Util.getLS1BIdx(board.getBitmap(Character.toLowerCase(PIECES[i]))) ^ 56,
+                        Util.getLS1BIdx(board.getBitmap('K')) ^ 56, strongToMove);
+            } else {
+                continue;
+            }
+            return !win ? DRAW : strongToMove ? WIN : LOSS;
+        }
+        throw new IllegalStateException("No piece found besides the kings");
+    }
+
+    private static boolean isWin(long[] table, int whiteKing, int piece, int blackKing, boolean whiteToMove) {
+        int index = index(whiteKing, piece, blackKing, whiteToMove);
+        return (table[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private static int index(int whiteKing, int piece, int blackKing, boolean whiteToMove) {
+        return ((whiteKing * 64 + piece) * 64 + blackKing) * 2 + (whiteToMove ? 0 : 1);
+    }
+
+    /**
+     * @param piece the white piece besides the king
+     * @param rook  the table of KRK if pawns can promote, null otherwise
+     * @param queen the table of KQK if pawns can promote, null otherwise
+     * @return the table of the endgame
+     */
+    private static long[] generate(char piece, long[] rook, long[] queen) {
+        // children[index] lists the indices of the successors of the position (or WIN_CHILD and DRAW_CHILD),
+        // and is null if the position is illegal
+        int[][] children = new int[SIZE][];
+        boolean[] initialWins = new boolean[SIZE];
+        IntStream.range(0, 64).parallel().forEach(whiteKing -> {
+            MoveList moves = new MoveList();
+            for (int pieceSquare = 0; pieceSquare < 64; pieceSquare++) {
+                for (int blackKing = 0; blackKing < 64; blackKing++) {
+                    for (boolean whiteToMove : new boolean[]{true, false}) {
+                        int index = index(whiteKing, pieceSquare, blackKing, whiteToMove);
+                        Board board = createBoard(piece, whiteKing, pieceSquare, blackKing, whiteToMove);
+                        if (board != null) {
+                            // A checkmate is won, and a stalemate is drawn
+                            initialWins[index] = board.getWinner() == 'w';
+                            children[index] = board.getWinner() == 'u'
+                                    ? successors(board, piece, rook, queen, moves) : new int[0];
+                        }
+                    }
+                }
+            }
+        });
+
+        boolean[] wins = initialWins;
+        while (true) {
+            boolean[] last = wins;
+            boolean[] next = new boolean[SIZE];
+            IntStream.range(0, SIZE).parallel().forEach(index ->
+                    next[index] = last[index] || isWon(children[index], last, (index & 1) == 0));
+            if (Arrays.equals(last, next)) {
+                break;
+            }
+            wins = next;
+        }
+
+        long[] table = new long[SIZE / 64];
+        for (int index = 0; index < SIZE; index++) {
+            if (wins[index]) {
+                table[index >>> 6] |= 1L << index;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * @return whether white wins a position with successors children, given the positions won so far
+     */
+    private static boolean isWon(int[] children, boolean[] wins, boolean whiteToMove) {
+        if (children == null || children.length == 0) {
+            // Illegal, or the game is over
+            return false;
+        }
+        for (int child : children) {
+            boolean childWon = child == WIN_CHILD || child >= 0 && wins[child];
+            if (whiteToMove && childWon) {
+                return true;
+            } else if (!whiteToMove && !childWon) {
+                return false;
+            }
+        }
+        return !whiteToMove;
+    }
+
+    /**
+     * @return the board with white pieces K and piece and a black king on the squares, or null if it's illegal
+     */
+    private static Board createBoard(char piece, int whiteKing, int pieceSquare, int blackKing, boolean whiteToMove) {
+        if (whiteKing == pieceSquare || whiteKing == blackKing || pieceSquare == blackKing) {
+            return null;
+        }
+        char[] squares = new char[64];
+        squares[whiteKing] = 'K';
+        squares[pieceSquare] = piece;
+        squares[blackKing] = 'k';
+        StringBuilder fen = new StringBuilder();
+        for (int row = 7; row >= 0; row--) {
+            int blanks = 0;
+            for (int col = 0; col < 8; col++) {
+                char c = squares[row * 8 + col];
+                if (c == 0) {
+                    blanks++;
+                } else {
+                    if (blanks > 0) {
+                        fen.append(blanks);
+                        blanks = 0;
+                    }
+                    fen.append(c);
+                }
+            }
+            if (blanks > 0) {
+                fen.append(blanks);
+            }
+            if (row > 0) {
+                fen.append('/');
+            }
+        }
+        fen.append(whiteToMove ? " w - - 0 1" : " b - - 0 1");
+        try {
+            Board board = new BitmapBoard(fen.toString());
+            board.PERFT = true;
+            return board;
+        } catch (IllegalBoardException | MalformedFENException e) {
+            // Pawns on the first or last rank, or the side not to move is in check
+            return null;
+        }
+    }
+
+    /**
+     * @return the successors of the board, which must not be over
+     */
+    private static int[] successors(Board board, char piece, long[] rook, long[] queen, MoveList moves) {
+        board.generateLegalMoves(moves);
+        int[] children = new int[moves.size()];
+        for (int i = 0; i < moves.size(); i++) {
+            board.move(moves.get(i));
+            if (board.getWinner() == 'w') {
+                children[i] = WIN_CHILD;
+            } else if (board.getWinner() == 'd') {
+                // Stalemate, or the piece was captured or promoted to a knight or bishop
+                children[i] = DRAW_CHILD;
+            } else if (board.getPieceCount(piece) == 0) {
+                // The pawn promoted to a rook or queen, and black is to move
+                boolean toQueen = board.getPieceCount('Q') == 1;
+                children[i] = isWin(toQueen ? queen : rook, Util.getLS1BIdx(board.getBitmap('K')),
+                        Util.getLS1BIdx(board.getBitmap(toQueen ? 'Q' : 'R')),
+                        Util.getLS1BIdx(board.getBitmap('k')), false) ? WIN_CHILD : DRAW_CHILD;
+            } else {
+                children[i] = index(Util.getLS1BIdx(board.getBitmap('K')), Util.getLS1BIdx(board.getBitmap(piece)),
+                        Util.getLS1BIdx(board.getBitmap('k')), board.whiteToMove());
+            }
+            board.undoLastMove();
+        }
+        return children;
+    }
+}
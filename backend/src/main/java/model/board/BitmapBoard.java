@@ -1,12 +1,9 @@
 package model.board;
 
-import model.move.Move;
+import model.move.MoveList;
+import model.move.PackedMove;
 import model.Util;
 
-import java.util.HashSet;
-import java.util.Set;
-import java.util.function.Predicate;
-
 /**
  * Represents a legal board state using the bitmap (or bitboard) representation.
  * The pieces are represented by bitmaps, with one 64-bit integer for each (color, pieceType) pair.
@@ -18,7 +15,14 @@ public class BitmapBoard extends Board {
     // Bitmaps
     // Least significant bit represents a1, second least significant bit represents b1, and so on,
     // Most significant bit represents h8
-    long[] bitmaps;  // for example, bitmaps['P'] is the bitmap for the white pawn
+    // Indexed by Util.pieceIndex: for example, bitmaps[Util.pieceIndex('P')] is the bitmap for the white pawn
+    long[] bitmaps;
+
+    // Occupancy bitmaps, kept up to date by setPiece and removePiece
+    private long whiteOccupancy, blackOccupancy, occupancy;
+
+    // Reused by hasLegalMoves, so that checking for the end of the game after every move doesn't allocate
+    private MoveList probeMoves;
 
     /**
      * Create board from FEN
@@ -41,6 +45,24 @@ public class BitmapBoard extends Board {
      */
     public BitmapBoard(Board other) {
         super(other);
+        if (other instanceof BitmapBoard otherBitmap) {
+            bitmaps = otherBitmap.bitmaps.clone();
+            whiteOccupancy = otherBitmap.whiteOccupancy;
+            blackOccupancy = otherBitmap.blackOccupancy;
+            occupancy = otherBitmap.occupancy;
+        } else {
+            bitmaps = new long[Util.PIECE_NAMES.length];
+            char[][] pieces = other.getPieces();
+            for (int row = 0; row < 8; row++) {
+                for (int col = 0; col < 8; col++) {
+                    if (pieces[row][col] != 0) {
+                        int pieceIdx = Util.pieceIndex(pieces[row][col]);
+                        bitmaps[pieceIdx] = Util.setBit(bitmaps[pieceIdx], row, col);
+                    }
+                }
+            }
+            computeOccupancy();
+        }
     }
 
     @Override
@@ -61,7 +83,7 @@ public class BitmapBoard extends Board {
      * Put all pieces of pieceType to the right locations in pieces
      */
     private void populatePieces(char[][] pieces, char pieceType) {
-        long bitmap = bitmaps[pieceType];
+        long bitmap = getBitmap(pieceType);
         while (bitmap != 0) {
             int idx = Util.getLS1BIdx(bitmap);
             pieces[idx / 8][idx % 8] = pieceType;
@@ -75,7 +97,7 @@ public class BitmapBoard extends Board {
      * @throws MalformedFENException if the FEN is malformed. In this case, the board state can be illegal.
      */
     protected void parsePiecePlacement(String[] placement) throws MalformedFENException {
-        bitmaps = new long['z' + 1];
+        bitmaps = new long[Util.PIECE_NAMES.length];
         if (placement.length != 8) {
             throw new MalformedFENException("Number of rows in piece placement field is not 8");
         }
@@ -98,7 +120,8 @@ public class BitmapBoard extends Board {
                     boolean found = false;
                     for (char valid : Util.PIECE_NAMES) {
                         if (curChar == valid) {
-                            bitmaps[curChar] = Util.setBit(bitmaps[curChar], row, col);
+                            int pieceIdx = Util.pieceIndex(curChar);
+                            bitmaps[pieceIdx] = Util.setBit(bitmaps[pieceIdx], row, col);
                             found = true;
                             col++;
                             break;
@@ -114,6 +137,42 @@ public class BitmapBoard extends Board {
                         + (8 - row) + " is less than 8");
             }
         }
+        computeOccupancy();
+    }
+
+    /**
+     * Recompute the occupancy bitmaps from the piece bitmaps.
+     * Reads bitmaps directly, since the copy constructor calls it before subclasses are initialized.
+     */
+    private void computeOccupancy() {
+        whiteOccupancy = 0;
+        blackOccupancy = 0;
+        for (char pieceType : Util.WHITE_PIECE_NAMES) {
+            whiteOccupancy |= bitmaps[Util.pieceIndex(pieceType)];
+        }
+        for (char pieceType : Util.BLACK_PIECE_NAMES) {
+            blackOccupancy |= bitmaps[Util.pieceIndex(pieceType)];
+        }
+        occupancy = whiteOccupancy | blackOccupancy;
+    }
+
+    /**
+     * Debugging check, used in assertions: recompute the occupancy bitmaps from the piece bitmaps
+     * and compare them with the incrementally maintained ones.
+     *
+     * @return true if the occupancy bitmaps are consistent with the piece bitmaps, false otherwise
+     */
+    boolean checkOccupancy() {
+        long white = 0;
+        long black = 0;
+        for (char pieceType : Util.WHITE_PIECE_NAMES) {
+            white |= getBitmap(pieceType);
+        }
+        for (char pieceType : Util.BLACK_PIECE_NAMES) {
+            black |= getBitmap(pieceType);
+        }
+        return white == whiteOccupancy && black == blackOccupancy && (white | black) == occupancy
+                && (white & black) == 0;
     }
 
     @Override
@@ -121,11 +180,11 @@ public class BitmapBoard extends Board {
         // Also checks that there is a pawn on the board for the enPassant state to be possible
         super.parseEnPassant(enPassant);
         if (enPassant.length() == 2) {
-            if (enPassant.charAt(1) == '3' && !Util.getBit(bitmaps['P'], 3, enPassantWhite - 'a')) {
+            if (enPassant.charAt(1) == '3' && !Util.getBit(getBitmap('P'), 3, enPassantWhite - 'a')) {
                 throw new MalformedFENException("Impossible en passant state: " + enPassant +
                         " (No white pawn was found at " + enPassantWhite + "4)");
             }
-            if (enPassant.charAt(1) == '6' && !Util.getBit(bitmaps['p'], 4, enPassantBlack - 'a')) {
+            if (enPassant.charAt(1) == '6' && !Util.getBit(getBitmap('p'), 4, enPassantBlack - 'a')) {
                 throw new MalformedFENException("Impossible en passant state: " + enPassant +
                         " (No black pawn was found at " + enPassantBlack + "5)");
             }
@@ -135,30 +194,30 @@ public class BitmapBoard extends Board {
     @Override
     protected void checkBoardLegality() throws IllegalBoardException {
         // Check number of kings
-        if (Util.popCount(bitmaps['K']) > 1) {
+        if (Util.popCount(getBitmap('K')) > 1) {
             throw new IllegalBoardException("More than one white kings on the board");
         }
-        if (Util.popCount(bitmaps['k']) > 1) {
+        if (Util.popCount(getBitmap('k')) > 1) {
             throw new IllegalBoardException("More than one black kings on the board");
         }
-        if (Util.popCount(bitmaps['K']) == 0) {
+        if (Util.popCount(getBitmap('K')) == 0) {
             throw new IllegalBoardException("No white kings on the board");
         }
-        if (Util.popCount(bitmaps['k']) == 0) {
+        if (Util.popCount(getBitmap('k')) == 0) {
             throw new IllegalBoardException("No black kings on the board");
         }
 
         // Check pawns on first or last rank
-        if ((bitmaps['P'] & Util.RANK_1) != 0) {
+        if ((getBitmap('P') & Util.RANK_1) != 0) {
             throw new IllegalBoardException("There is a white pawn on rank 1");
         }
-        if ((bitmaps['p'] & Util.RANK_1) != 0) {
+        if ((getBitmap('p') & Util.RANK_1) != 0) {
             throw new IllegalBoardException("There is a black pawn on rank 1");
         }
-        if ((bitmaps['P'] & Util.RANK_8) != 0) {
+        if ((getBitmap('P') & Util.RANK_8) != 0) {
             throw new IllegalBoardException("There is a white pawn on rank 8");
         }
-        if ((bitmaps['p'] & Util.RANK_8) != 0) {
+        if ((getBitmap('p') & Util.RANK_8) != 0) {
             throw new IllegalBoardException("There is a black pawn on rank 8");
         }
 
@@ -171,23 +230,23 @@ public class BitmapBoard extends Board {
         // Check whether the bitmap representation is conflicting (i.e. if there are two pieces on the same square)
         long bitmap = 0;
         for (char pieceType : Util.PIECE_NAMES) {
-            if ((bitmap & bitmaps[pieceType]) != 0) {
+            if ((bitmap & getBitmap(pieceType)) != 0) {
                 throw new IllegalBoardException("Two pieces are on the same square");
             }
-            bitmap = bitmap | bitmaps[pieceType];
+            bitmap = bitmap | getBitmap(pieceType);
         }
     }
 
     /**
+     * @param allPieces the bitmap for all pieces on the board
      * @return the bitmap of squares that white or black attacks.
      * A square is said to be "attacked" by white if putting a black king there would result in
      * the black king being in check.
      */
-    private long attacks(boolean white) {
-        long allPieces = getAllPieces();
+    private long attacks(boolean white, long allPieces) {
         long attacked = 0;
         for (char pieceType: (white ? Util.WHITE_PIECE_NAMES : Util.BLACK_PIECE_NAMES)) {
-            attacked |= attacks(bitmaps[pieceType], pieceType, allPieces);
+            attacked |= attacks(getBitmap(pieceType), pieceType, allPieces);
         }
         return attacked;
     }
@@ -215,7 +274,6 @@ public class BitmapBoard extends Board {
      * @return the bitmap of squares that is attacked by the piece at idx
      */
     private long attacks(int idx, char pieceType, long allPieces) {
-        long attacked = 0;
         switch (pieceType) {
             case 'p':
                 return Lookup.BLACK_PAWN_ATTACK[idx];
@@ -225,362 +283,311 @@ public class BitmapBoard extends Board {
                 return Lookup.KNIGHT_ATTACK[idx];
             case 'K', 'k':
                 return Lookup.KING_ATTACK[idx];
-            case 'R', 'r', 'Q', 'q':
-                // north
-                attacked |= getAttackInDir(idx, 8, i -> i / 8 <= 7, allPieces);
-                // south
-                attacked |= getAttackInDir(idx, -8, i -> i >= 0, allPieces);
-                // east
-                // i % 8 == 0 means that we have wrapped around and reached the a file a rank higher
-                attacked |= getAttackInDir(idx, 1, i -> i % 8 != 0, allPieces);
-                // west
-                // Note that (-1) % 8 == -1 so +8 is necessary
-                attacked |= getAttackInDir(idx, -1, i -> (i + 8) % 8 != 7, allPieces);
-                if (pieceType == 'R' || pieceType == 'r') {
-                    return attacked;
-                }
-                // Queen falls through to the bishop branch
+            case 'R', 'r':
+                return Magic.rookAttacks(idx, allPieces);
             case 'B', 'b':
-                // northeast
-                attacked |= getAttackInDir(idx, 9, i -> (i % 8 != 0) && (i / 8 <= 7), allPieces);
-                // southeast
-                attacked |= getAttackInDir(idx, -7, i -> (i % 8 != 0) && (i >= 0), allPieces);
-                // southwest
-                // Here (i + 8) % 8 is unnecessary since we also check that i is non-negative
-                attacked |= getAttackInDir(idx, -9, i -> (i % 8 != 7) && (i >= 0), allPieces);
-                // northwest
-                attacked |= getAttackInDir(idx, 7, i -> (i % 8 != 7) && (i / 8 <= 7), allPieces);
-                return attacked;
+                return Magic.bishopAttacks(idx, allPieces);
+            case 'Q', 'q':
+                return Magic.queenAttacks(idx, allPieces);
             default:
                 assert false;
         }
         return 0;
     }
 
-    /**
-     * Get attacks in a specific direction
-     * @param idx index of piece to generate attacks for
-     * @param step the amount to add in each loop iteration; represents the direction
-     * @param condition condition on the index to stay in the loop
-     * @param allPieces the bitmap of all pieces on the board
-     * @return the bitmap of attacks of the piece at idx in the direction indicated by step
-     */
-    private long getAttackInDir(int idx, int step, Predicate<Integer> condition, long allPieces) {
-        long attacked = 0;
-        // Note that the square that the piece is on is not considered attacked by the piece
-        for (int i = idx + step; condition.test(i); i += step) {
-            assert i >= 0 : i;
-            attacked |= (1L << i);
-            if (Util.getBit(allPieces, i)) {
-                // found blocking piece
-                return attacked;
-            }
-        }
-        return attacked;
-    }
-
     /**
      * @param white if true, then we have the white pieces. Otherwise, we have the black pieces.
      * @return the bitmap for friendly pieces
      */
     private long getFriendlyPieces(boolean white) {
-        long friendlyPieces = 0;
-        for (char pieceType : (white ? Util.WHITE_PIECE_NAMES : Util.BLACK_PIECE_NAMES)) {
-            friendlyPieces |= bitmaps[pieceType];
-        }
-        return friendlyPieces;
+        return white ? whiteOccupancy : blackOccupancy;
     }
 
     /**
      * @param white if true, then we have the white pieces. Otherwise, we have the black pieces.
-     * @return the bitmap for friendly pieces
+     * @return the bitmap for enemy pieces
      */
     private long getEnemyPieces(boolean white) {
-        return getFriendlyPieces(!white);
+        return white ? blackOccupancy : whiteOccupancy;
     }
 
     /**
      * @return the bitmap for all pieces
      */
     private long getAllPieces() {
-        long pieces = 0;
-        for (char pieceType : Util.PIECE_NAMES) {
-            pieces |= bitmaps[pieceType];
-        }
-        return pieces;
+        return occupancy;
     }
 
     @Override
-    public Set<Move> getLegalMoves() {
+    public void generateLegalMoves(MoveList legalMoves) {
+        legalMoves.clear();
         if (winner != 'u') {
-            return new HashSet<>();
+            return;
         }
-        long friendly = getFriendlyPieces(whiteToMove);
-        long enemy = getEnemyPieces(whiteToMove);
-        long enemyAttacks = attacks(!whiteToMove);
-        Set<Move> legalMoves = new HashSet<>();
-        for (char pieceType : whiteToMove ? Util.WHITE_PIECE_NAMES : Util.BLACK_PIECE_NAMES) {
-            accLegalMoves(bitmaps[pieceType], pieceType, friendly, enemy, enemyAttacks, legalMoves);
-        }
-        return legalMoves;
+        accLegalMoves(-1L, legalMoves, false, false);
     }
 
-    /**
-     * Add the set of legal moves of a certain piece type to legalMoves
-     * @param bitmap the bitmap of the pieceType
-     * @param pieceType the type of piece (case-sensitive to represent white or black)
-     * @param friendly the bitmap of friendly pieces
-     * @param enemy the bitmap of enemy pieces
-     * @param enemyAttacks the bitmap of enemy attacks
-     * @param legalMoves accumulator
-     */
-    private void accLegalMoves(long bitmap, char pieceType, long friendly, long enemy, long enemyAttacks,
-                               Set<Move> legalMoves) {
-        while (bitmap != 0) {
-            int ls1b = Util.getLS1BIdx(bitmap);
-            accLegalMoves(ls1b, pieceType, friendly, enemy, enemyAttacks, legalMoves);
-            bitmap = Util.resetLS1B(bitmap);
+    @Override
+    public void generateCaptures(MoveList captures) {
+        captures.clear();
+        if (winner != 'u') {
+            return;
         }
+        accLegalMoves(-1L, captures, false, true);
+    }
+
+    @Override
+    public void generateLegalMoves(int row, int col, MoveList legalMoves) {
+        legalMoves.clear();
+        assert getPieceAt(row, col) != 0 && (getPieceAt(row, col) <= 'Z') == whiteToMove;
+        accLegalMoves(1L << (row * 8 + col), legalMoves, false, false);
     }
 
     /**
-     * Add the set of legal moves for the piece at idx to legalMoves.
-     * @param idx the index of the piece
-     * @param pieceType the type of piece (case-sensitive to represent white or black)
-     * @param friendly the bitmap of friendly pieces
-     * @param enemy the bitmap of enemy pieces
-     * @param enemyAttacks the bitmap of enemy attacks
-     * @param legalMoves accumulator
+     * Add the legal moves of the pieces in fromMask to legalMoves.
      * <p>
-     * Requires: There is a piece at idx and the color of the piece is the same
-     * as the current player
+     * Instead of trying every move and checking whether the king is left in check,
+     * we work out the checkers and the pinned pieces once per position:
+     * - If the king is in double check, only king moves are legal.
+     * - If the king is in single check, other pieces must capture the checker or block the check.
+     * - A pinned piece can only move along the line through the king and itself.
+     * - The king can't move to a square attacked by the enemy (computed with the king removed,
+     *   so that the king can't step back along the line of a checking slider).
+     * En passant is the only move that removes two pieces from a line, so it is checked separately.
+     *
+     * @param fromMask the bitmap of the squares whose pieces we generate moves for
+     * @param legalMoves accumulator
+     * @param stopEarly if true, stop after the first piece that has legal moves
+     * @param capturesOnly if true, only add captures and promotions (see generateCaptures)
      */
-    private void accLegalMoves(int idx, char pieceType, long friendly, long enemy, long enemyAttacks,
-                               Set<Move> legalMoves) {
-        assert Util.getBit(bitmaps[pieceType], idx) && (pieceType <= 'Z') == whiteToMove;
+    private void accLegalMoves(long fromMask, MoveList legalMoves, boolean stopEarly, boolean capturesOnly) {
+        assert checkOccupancy();
+        char kingType = whiteToMove ? 'K' : 'k';
+        int kingIdx = Util.getLS1BIdx(getBitmap(kingType));
+        long friendly = getFriendlyPieces(whiteToMove);
+        long enemy = getEnemyPieces(whiteToMove);
         long allPieces = friendly | enemy;
-        long attacks = attacks(idx, pieceType, allPieces);  // candidate target squares
-        int row = idx / 8;
-        int col = idx % 8;
+        long enemyAttacks = attacks(!whiteToMove, allPieces & ~getBitmap(kingType));
+        long checkers = attackersTo(kingIdx, allPieces, !whiteToMove);
+
+        // Squares that non-king pieces may move to
+        long checkMask;
+        if (checkers == 0) {
+            checkMask = -1L;
+        } else if (Util.resetLS1B(checkers) == 0) {
+            // Capture the checker or block the check
+            checkMask = checkers | Magic.between(kingIdx, Util.getLS1BIdx(checkers));
+        } else {
+            // Double check
+            checkMask = 0;
+        }
+        long pinned = getPinned(kingIdx, friendly, allPieces);
+        // Squares that pieces other than pawns may move to, which are only the enemy pieces for captures
+        long captureMask = capturesOnly ? enemy : -1L;
 
-        while (attacks != 0) {
-            int ls1b = Util.getLS1BIdx(attacks);
-            attacks = Util.resetLS1B(attacks);
-            if (Util.getBit(friendly, ls1b)) {
-                // Can't capture your own piece
-                continue;
-            }
-            int endRow = ls1b / 8;
-            int endCol = ls1b % 8;
-            if (pieceType == 'P' || pieceType == 'p') {
-                // Pawns can only capture diagonally (which is what they attack)
-                // so if there isn't a piece diagonal to the pawn, it's not a legal move
-                if (!Util.getBit(allPieces, ls1b) || endRow == 0 || endRow == 7) {
-                    // Will handle pawn capture promotions separately below
-                    continue;
+        for (char pieceType : whiteToMove ? Util.WHITE_PIECE_NAMES : Util.BLACK_PIECE_NAMES) {
+            long bitmap = getBitmap(pieceType) & fromMask;
+            while (bitmap != 0) {
+                int idx = Util.getLS1BIdx(bitmap);
+                bitmap = Util.resetLS1B(bitmap);
+                long targetMask = checkMask;
+                if (Util.getBit(pinned, idx)) {
+                    targetMask &= Magic.line(kingIdx, idx);
+                }
+                if (pieceType == kingType) {
+                    accKingMoves(idx, friendly, enemy, enemyAttacks, checkers == 0 && !capturesOnly, captureMask,
+                            legalMoves);
+                } else if (pieceType == 'P' || pieceType == 'p') {
+                    // En passant is checked separately, so pawns are handled even if targetMask is 0
+                    accPawnMoves(idx, kingIdx, enemy, allPieces, targetMask, capturesOnly, legalMoves);
+                } else {
+                    long targets = attacks(idx, pieceType, allPieces) & ~friendly & targetMask & captureMask;
+                    while (targets != 0) {
+                        int end = Util.getLS1BIdx(targets);
+                        targets = Util.resetLS1B(targets);
+                        legalMoves.add(PackedMove.regular(idx, end, Util.getBit(enemy, end)));
+                    }
+                }
+                if (stopEarly && !legalMoves.isEmpty()) {
+                    return;
                 }
             }
-            tryRegularMove(row, col, pieceType, endRow, endCol, legalMoves);
         }
+    }
 
-        // Special rules for pawn
-        // Pawns move differently from capturing
-        if (pieceType == 'P' || pieceType == 'p') {
-            int startRow = whiteToMove ? 1 : 6;
-            int promRow = whiteToMove ? 7 : 0;
-            int advance = whiteToMove ? 1 : -1;
-            int enPassantRow = whiteToMove ? 4 : 3;
-
-            if (row != promRow - advance && !Util.getBit(allPieces, row + advance, col)) {
-                tryRegularMove(row, col, pieceType, row + advance, col, legalMoves);
+    /**
+     * Add the legal moves of the king at idx (including castling) to legalMoves.
+     *
+     * @param enemyAttacks the bitmap of enemy attacks, computed without the king on the board
+     * @param canCastle false if the king is in check
+     * @param captureMask the squares that the king may move to, apart from castling
+     */
+    private void accKingMoves(int idx, long friendly, long enemy, long enemyAttacks, boolean canCastle,
+                              long captureMask, MoveList legalMoves) {
+        long targets = Lookup.KING_ATTACK[idx] & ~friendly & ~enemyAttacks & captureMask;
+        while (targets != 0) {
+            int end = Util.getLS1BIdx(targets);
+            targets = Util.resetLS1B(targets);
+            legalMoves.add(PackedMove.regular(idx, end, Util.getBit(enemy, end)));
+        }
+        if (!canCastle) {
+            return;
+        }
+        long allPieces = friendly | enemy;
+        if (whiteToMove && whiteCastleK) {
+            // White's king and kingside rook must not have moved
+            assert idx == 4;
+            assert Util.getBit(getBitmap('R'), 0, 7);
+            // 0x60: f1, g1; 0x70: e1, f1, g1
+            if ((allPieces & 0x60L) == 0 && (enemyAttacks & 0x70L) == 0) {
+                legalMoves.add(PackedMove.castling('K'));
             }
-            // Pawns on starting position can move two squares
-            if (row == startRow && !Util.getBit(allPieces, row + advance, col)
-                    && !Util.getBit(allPieces, row + 2 * advance, col)) {
-                tryRegularMove(row, col, pieceType, row + 2 * advance, col, legalMoves);
+        }
+        if (whiteToMove && whiteCastleQ) {
+            // White's king and queenside rook must not have moved
+            assert idx == 4;
+            assert Util.getBit(getBitmap('R'), 0, 0);
+            // 0xE: b1, c1, d1; 0x1C: c1, d1, e1
+            if ((allPieces & 0xEL) == 0 && (enemyAttacks & 0x1CL) == 0) {
+                legalMoves.add(PackedMove.castling('Q'));
             }
-            // Promotion - Note that we don't need to specify which piece to promote to
-            // because if one of the promotions is legal, then so are all others.
-            if (row == promRow - advance) {
-                if (!Util.getBit(allPieces, promRow, col)) {
-                    tryPromotion(row, col, pieceType, row + advance, col, legalMoves);
-                }
-                if (col != 0 && Util.getBit(enemy, promRow, col - 1)) {
-                    tryPromotion(row, col, pieceType, row + advance, col - 1, legalMoves);
-                }
-                if (col != 7 && Util.getBit(enemy, promRow, col + 1)) {
-                    tryPromotion(row, col, pieceType, row + advance, col + 1, legalMoves);
-                }
+        }
+        if (!whiteToMove && blackCastleK) {
+            // Black's king and kingside rook must not have moved
+            assert idx == 60;
+            assert Util.getBit(getBitmap('r'), 7, 7);
+            // 0x60 << 56: f8, g8; 0x70 << 56: e8, f8, g8
+            if ((allPieces & (0x60L << 56)) == 0 && (enemyAttacks & (0x70L << 56)) == 0) {
+                legalMoves.add(PackedMove.castling('k'));
             }
-            // En passant
-            if (row == enPassantRow) {
-                int targetCol = -999;
-                if (whiteToMove && enPassantBlack != '-') {
-                    targetCol = enPassantBlack - 'a';
-                } else if (!whiteToMove && enPassantWhite != '-') {
-                    targetCol = enPassantWhite - 'a';
-                }
-                if (Util.inRange(targetCol)) {
-                    // Make sure that the square contains an enemy pawn
-                    assert Util.getBit(bitmaps[whiteToMove ? 'p' : 'P'], enPassantRow, targetCol);
-                    // Target square must be empty since the enemy pawn just moved through it
-                    assert !Util.getBit(allPieces, enPassantRow + advance, targetCol);
-                    if (col - targetCol == 1 || col - targetCol == -1) {
-                        tryEnPassant(row, col, pieceType, row + advance, targetCol, legalMoves);
-                    }
-                }
+        }
+        if (!whiteToMove && blackCastleQ) {
+            // Black's king and queenside rook must not have moved
+            assert idx == 60;
+            assert Util.getBit(getBitmap('r'), 7, 0);
+            // 0xE << 56: b8, c8, d8; 0x1C << 56: c8, d8, e8
+            if ((allPieces & (0xEL << 56)) == 0 && (enemyAttacks & (0x1CL << 56)) == 0) {
+                legalMoves.add(PackedMove.castling('q'));
             }
         }
+    }
 
-        // Special rules for king
-        if (pieceType == 'K' || pieceType == 'k') {
-            if (whiteToMove && whiteCastleK) {
-                // White's king and kingside rook must not have moved
-                assert row == 0 && col == 4;
-                assert Util.getBit(bitmaps['R'], 0, 7);
-                // 0x60: f1, g1; 0x70: e1, f1, g1
-                if ((allPieces & 0x60L) == 0 && (enemyAttacks & 0x70L) == 0) {
-                    legalMoves.add(new Move('K'));
-                }
+    /**
+     * Add the legal moves of the pawn at idx (including promotions and en passant) to legalMoves.
+     *
+     * @param kingIdx the index of the friendly king
+     * @param targetMask the squares that the pawn may move to, taking checks and pins into account
+     * @param capturesOnly if true, only add captures and promotions
+     */
+    private void accPawnMoves(int idx, int kingIdx, long enemy, long allPieces, long targetMask,
+                              boolean capturesOnly, MoveList legalMoves) {
+        int row = idx / 8;
+        int col = idx % 8;
+        int startRow = whiteToMove ? 1 : 6;
+        int promRow = whiteToMove ? 7 : 0;
+        int advance = whiteToMove ? 8 : -8;
+        int enPassantRow = whiteToMove ? 4 : 3;
+
+        // Pawns can only capture diagonally (which is what they attack)
+        long targets = (whiteToMove ? Lookup.WHITE_PAWN_ATTACK[idx] : Lookup.BLACK_PAWN_ATTACK[idx])
+                & enemy & targetMask;
+        // Pawns move differently from capturing
+        int oneStep = idx + advance;
+        if (!Util.getBit(allPieces, oneStep) && (!capturesOnly || oneStep / 8 == promRow)) {
+            targets |= (1L << oneStep) & targetMask;
+            // Pawns on starting position can move two squares
+            if (row == startRow && !capturesOnly && !Util.getBit(allPieces, oneStep + advance)) {
+                targets |= (1L << (oneStep + advance)) & targetMask;
             }
-            if (whiteToMove && whiteCastleQ) {
-                // White's king and queenside rook must not have moved
-                assert row == 0 && col == 4;
-                assert Util.getBit(bitmaps['R'], 0, 0);
-                // 0xE: b1, c1, d1; 0x1C: c1, d1, e1
-                if ((allPieces & 0xEL) == 0 && (enemyAttacks & 0x1CL) == 0) {
-                    legalMoves.add(new Move('Q'));
+        }
+        while (targets != 0) {
+            int end = Util.getLS1BIdx(targets);
+            targets = Util.resetLS1B(targets);
+            boolean isCapture = Util.getBit(enemy, end);
+            if (end / 8 == promRow) {
+                // Q, R, B, N
+                for (int promotion = 0; promotion < 4; promotion++) {
+                    legalMoves.add(PackedMove.promotion(idx, end, promotion, isCapture));
                 }
+            } else {
+                legalMoves.add(PackedMove.regular(idx, end, isCapture));
             }
-            if (!whiteToMove && blackCastleK) {
-                // Black's king and kingside rook must not have moved
-                assert row == 7 && col == 4;
-                assert Util.getBit(bitmaps['r'], 7, 7);
-                // 0x60 << 56: f8, g8; 0x70 << 56: e8, f8, g8
-                if ((allPieces & (0x60L << 56)) == 0 && (enemyAttacks & (0x70L << 56)) == 0) {
-                    legalMoves.add(new Move('k'));
-                }
+        }
+
+        // En passant
+        if (row == enPassantRow) {
+            int targetCol = -999;
+            if (whiteToMove && enPassantBlack != '-') {
+                targetCol = enPassantBlack - 'a';
+            } else if (!whiteToMove && enPassantWhite != '-') {
+                targetCol = enPassantWhite - 'a';
             }
-            if (!whiteToMove && blackCastleQ) {
-                // Black's king and queenside rook must not have moved
-                assert row == 7 && col == 4;
-                assert Util.getBit(bitmaps['r'], 7, 0);
-                // 0xE << 56: b8, c8, d8; 0x1C << 56: c8, d8, e8
-                if ((allPieces & (0xEL << 56)) == 0 && (enemyAttacks & (0x1CL << 56)) == 0) {
-                    legalMoves.add(new Move('q'));
+            if (Util.inRange(targetCol) && (col - targetCol == 1 || col - targetCol == -1)) {
+                int captured = row * 8 + targetCol;
+                int end = captured + advance;
+                // Make sure that the square contains an enemy pawn
+                assert Util.getBit(getBitmap(whiteToMove ? 'p' : 'P'), captured);
+                // Target square must be empty since the enemy pawn just moved through it
+                assert !Util.getBit(allPieces, end);
+                // Both pawns leave the rank of the captured pawn, which may expose the king to a rook or queen,
+                // so we check for attacks on the king with the pawns in their new positions.
+                long occupied = (allPieces & ~(1L << idx) & ~(1L << captured)) | (1L << end);
+                if ((attackersTo(kingIdx, occupied, !whiteToMove) & ~(1L << captured)) == 0) {
+                    legalMoves.add(PackedMove.enPassant(idx, end));
                 }
             }
         }
     }
 
-    @Override
-    public Set<Move> getLegalMoves(int row, int col) {
-        long friendly = getFriendlyPieces(whiteToMove);
-        long enemy = getEnemyPieces(whiteToMove);
-        long enemyAttacks = attacks(!whiteToMove);
-        char pieceType = getPieceAt(row, col);
-        assert pieceType != 0 && (pieceType <= 'Z') == whiteToMove;
-        Set<Move> legalMoves = new HashSet<>();
-        accLegalMoves(row * 8 + col, pieceType, friendly, enemy, enemyAttacks, legalMoves);
-        return legalMoves;
-    }
-
-    /**
-     * Try to move the piece of type pieceType from {startRow, startCol} to {endRow, endCol}
-     * to see if this will put the player in check.
-     * If it doesn't, add the move to legalMoves.
-     * If it does, do nothing.
-     * <p>
-     * Requires: The move is a regular move (not a promotion, en passant, or castling) and it is pseudo-legal.
-     */
-    private void tryRegularMove(int startRow, int startCol, char pieceType,
-                                int endRow, int endCol, Set<Move> legalMoves) {
-        tryRegOrProm(startRow, startCol, pieceType, endRow, endCol, false, legalMoves);
-    }
-
-    /**
-     * Try to move the piece of type pieceType from {startRow, startCol} to {endRow, endCol}
-     * to see if this will put the player in check.
-     * If it doesn't, add the move to legalMoves.
-     * If it does, do nothing.
-     * <p>
-     * Requires: The move is a promotion and it is pseudo-legal.
-     */
-    private void tryPromotion(int startRow, int startCol, char pieceType,
-                              int endRow, int endCol, Set<Move> legalMoves) {
-        tryRegOrProm(startRow, startCol, pieceType, endRow, endCol, true, legalMoves);
-    }
-
     /**
-     * Try to move the piece of type pieceType from {startRow, startCol} to {endRow, endCol}
-     * to see if this will put the player in check.
-     * If it doesn't, add the move to legalMoves.
-     * If it does, do nothing.
-     * <p>
-     * Requires: The move is an en passant and it is pseudo-legal.
+     * @param kingIdx the index of the friendly king
+     * @return the bitmap of friendly pieces that are pinned to the king by an enemy rook, bishop, or queen
      */
-    private void tryEnPassant(int startRow, int startCol, char pieceType,
-                              int endRow, int endCol, Set<Move> legalMoves) {
-        assert pieceType == 'P' || pieceType == 'p';
-        char enemyType = pieceType == 'P' ? 'p' : 'P';
-        // Note that the target square must be empty
-        assert !Util.getBit(getAllPieces(), endRow, endCol);
-
-        // Perform the en passant
-        bitmaps[pieceType] = Util.clearBit(bitmaps[pieceType], startRow, startCol);
-        bitmaps[pieceType] = Util.setBit(bitmaps[pieceType], endRow, endCol);
-        bitmaps[enemyType] = Util.clearBit(bitmaps[enemyType], startRow, endCol);
-        if (!isInCheck(whiteToMove)) {
-            legalMoves.add(new Move(startRow, startCol, endRow, endCol, true, true));
-        }
-        // Restore pieces
-        bitmaps[pieceType] = Util.setBit(bitmaps[pieceType], startRow, startCol);
-        bitmaps[pieceType] = Util.clearBit(bitmaps[pieceType], endRow, endCol);
-        bitmaps[enemyType] = Util.setBit(bitmaps[enemyType], startRow, endCol);
-    }
-
-    /**
-     * Try to move the piece of type pieceType from {startRow, startCol} to {endRow, endCol}
-     * to see if this will put the player in check.
-     * If it doesn't, add the move to legalMoves.
-     * If it does, do nothing.
-     * <p>
-     * Requires: The move is a regular move or a promotion, not an en passant or castling.
-     * Also, the move has to be "pseudo-legal" - legal if we ignore checks (that is, normally a piece of
-     * that type should be able to move from {startRow, startCol} to {endRow, endCol}
-     * and {endRow, endCol} can't have a piece with the same color as the current piece).
-     */
-    private void tryRegOrProm(int startRow, int startCol, char pieceType,
-                              int endRow, int endCol, boolean isPromotion, Set<Move> legalMoves) {
-        // piece type at (endRow, endCol) or 0 if it's empty
-        char enemyType = getPieceAt(endRow, endCol);
-        boolean isCapture = (enemyType != 0);
-        bitmaps[pieceType] = Util.clearBit(bitmaps[pieceType], startRow, startCol);
-        bitmaps[pieceType] = Util.setBit(bitmaps[pieceType], endRow, endCol);
-        if (enemyType != 0) {
-            bitmaps[enemyType] = Util.clearBit(bitmaps[enemyType], endRow, endCol);
-        }
-        if (!isInCheck(whiteToMove)) {
-            if (isPromotion) {
-                char[] promPieces = whiteToMove ? "QRBN".toCharArray() : "qrbn".toCharArray();
-                for (char promPiece : promPieces) {
-                    legalMoves.add(new Move(startRow, startCol, endRow, endCol, promPiece, isCapture));
-                }
-            } else {
-                legalMoves.add(new Move(startRow, startCol, endRow, endCol, false, isCapture));
+    private long getPinned(int kingIdx, long friendly, long allPieces) {
+        char rook = whiteToMove ? 'r' : 'R';
+        char bishop = whiteToMove ? 'b' : 'B';
+        char queen = whiteToMove ? 'q' : 'Q';
+        // Enemy sliders that would attack the king if there were no pieces in between
+        long snipers = (Magic.rookAttacks(kingIdx, 0) & (getBitmap(rook) | getBitmap(queen)))
+                | (Magic.bishopAttacks(kingIdx, 0) & (getBitmap(bishop) | getBitmap(queen)));
+        long pinned = 0;
+        while (snipers != 0) {
+            int sniperIdx = Util.getLS1BIdx(snipers);
+            snipers = Util.resetLS1B(snipers);
+            long blockers = Magic.between(kingIdx, sniperIdx) & allPieces;
+            if (blockers != 0 && Util.resetLS1B(blockers) == 0) {
+                // Exactly one piece in between
+                pinned |= blockers & friendly;
             }
         }
-        // Restore pieces
-        bitmaps[pieceType] = Util.setBit(bitmaps[pieceType], startRow, startCol);
-        bitmaps[pieceType] = Util.clearBit(bitmaps[pieceType], endRow, endCol);
-        if (enemyType != 0) {
-            bitmaps[enemyType] = Util.setBit(bitmaps[enemyType], endRow, endCol);
-        }
+        return pinned;
     }
 
-    @Override
-    public boolean isLegal(Move move) {
-        return getLegalMoves().contains(move);
+    /**
+     * @param idx the index of the square
+     * @param allPieces the bitmap for all pieces on the board
+     * @param white if true, look for white attackers. Otherwise, look for black attackers.
+     * @return the bitmap of white/black pieces that attack the square at idx
+     */
+    private long attackersTo(int idx, long allPieces, boolean white) {
+        long bit = 1L << idx;
+        long pawnAttackers;
+        if (white) {
+            // A white pawn attacks the squares up and to the left and right
+            pawnAttackers = (((bit & ~Util.A_FILE) >>> 9) | ((bit & ~Util.H_FILE) >>> 7)) & getBitmap('P');
+        } else {
+            pawnAttackers = (((bit & ~Util.H_FILE) << 9) | ((bit & ~Util.A_FILE) << 7)) & getBitmap('p');
+        }
+        char knight = white ? 'N' : 'n';
+        char bishop = white ? 'B' : 'b';
+        char rook = white ? 'R' : 'r';
+        char queen = white ? 'Q' : 'q';
+        char king = white ? 'K' : 'k';
+        return pawnAttackers
+                | (Lookup.KNIGHT_ATTACK[idx] & getBitmap(knight))
+                | (Lookup.KING_ATTACK[idx] & getBitmap(king))
+                | (Magic.bishopAttacks(idx, allPieces) & (getBitmap(bishop) | getBitmap(queen)))
+                | (Magic.rookAttacks(idx, allPieces) & (getBitmap(rook) | getBitmap(queen)));
     }
 
     @Override
@@ -592,62 +599,33 @@ public class BitmapBoard extends Board {
      * @return true if white/black is in check (determined by the parameter white), false otherwise
      */
     private boolean isInCheck(boolean white) {
-        return (attacks(!white) & bitmaps[white ? 'K' : 'k']) != 0;
+        int kingIdx = Util.getLS1BIdx(getBitmap(white ? 'K' : 'k'));
+        return attackersTo(kingIdx, getAllPieces(), !white) != 0;
     }
 
     @Override
     protected boolean hasLegalMoves() {
-        HashSet<Move> acc = new HashSet<>();
-        long friendly = getFriendlyPieces(whiteToMove);
-        long enemy = getEnemyPieces(whiteToMove);
-        long enemyAttacks = attacks(!whiteToMove);
-        for (char type : whiteToMove ? Util.WHITE_PIECE_NAMES : Util.BLACK_PIECE_NAMES) {
-            long bitmap = bitmaps[type];
-            while (bitmap != 0) {
-                int idx = Util.getLS1BIdx(bitmap);
-                accLegalMoves(idx, type, friendly, enemy, enemyAttacks, acc);
-                if (!acc.isEmpty()) {
-                    return true;
-                }
-                bitmap = Util.resetLS1B(bitmap);
-            }
+        if (probeMoves == null) {
+            // Can't be initialized with the field, since the Board constructor calls this method
+            probeMoves = new MoveList();
         }
-        return false;
+        probeMoves.clear();
+        accLegalMoves(-1L, probeMoves, true, false);
+        return !probeMoves.isEmpty();
     }
 
     @Override
-    protected boolean insufficientMaterial() {
-        int numWhitePieces = Util.popCount(getFriendlyPieces(true));
-        int numBlackPieces = Util.popCount(getFriendlyPieces(false));
-        int numPieces = numWhitePieces + numBlackPieces;
-        if (numPieces == 2) {
-            // K vs. K
-            return true;
-        } else if (numPieces == 3) {
-            char[] unwantedTypes = {'P', 'R', 'Q', 'p', 'r', 'q'};
-            // K vs. KN or K vs. KB
-            for (char type : unwantedTypes) {
-                if (bitmaps[type] != 0) {
-                    return false;
-                }
-            }
-            return true;
-        } else if (numWhitePieces == 2 && numBlackPieces == 2) {
-            // KB vs. KB
-            if (bitmaps['B'] == 0 || bitmaps['b'] == 0) {
-                return false;
-            }
-            int whiteBIdx = Util.getLS1BIdx(bitmaps['B']);
-            int blackBIdx = Util.getLS1BIdx(bitmaps['b']);
-            return (whiteBIdx / 8 + whiteBIdx % 8) % 2 == (blackBIdx / 8 + blackBIdx % 8) % 2;
-        }
-        return false;
+    public long getBitmap(char pieceType) {
+        return bitmaps[Util.pieceIndex(pieceType)];
     }
 
     @Override
     public char getPieceAt(int row, int col) {
+        if (!Util.getBit(occupancy, row, col)) {
+            return 0;
+        }
         for (char pieceType : Util.PIECE_NAMES) {
-            if (Util.getBit(bitmaps[pieceType], row, col)) {
+            if (Util.getBit(getBitmap(pieceType), row, col)) {
                 return pieceType;
             }
         }
@@ -655,12 +633,28 @@ public class BitmapBoard extends Board {
     }
 
     @Override
-    protected void setPiece(int row, int col, char pieceType) {
-        bitmaps[pieceType] = Util.setBit(bitmaps[pieceType], row, col);
+    protected void placePiece(int row, int col, char pieceType) {
+        int pieceIdx = Util.pieceIndex(pieceType);
+        bitmaps[pieceIdx] = Util.setBit(bitmaps[pieceIdx], row, col);
+        long bit = 1L << (row * 8 + col);
+        if (pieceType <= 'Z') {
+            whiteOccupancy |= bit;
+        } else {
+            blackOccupancy |= bit;
+        }
+        occupancy |= bit;
     }
 
     @Override
-    protected void removePiece(int row, int col, char pieceType) {
-        bitmaps[pieceType] = Util.clearBit(bitmaps[pieceType], row, col);
+    protected void clearPiece(int row, int col, char pieceType) {
+        int pieceIdx = Util.pieceIndex(pieceType);
+        bitmaps[pieceIdx] = Util.clearBit(bitmaps[pieceIdx], row, col);
+        long bit = ~(1L << (row * 8 + col));
+        if (pieceType <= 'Z') {
+            whiteOccupancy &= bit;
+        } else {
+            blackOccupancy &= bit;
+        }
+        occupancy &= bit;
     }
 }
@@ -1,7 +1,9 @@
 package model.board;
 
 import model.move.Move;
+import model.move.MoveList;
 import model.move.PGN;
+import model.move.PackedMove;
 import model.Util;
 
 import java.util.*;
@@ -34,26 +36,36 @@ public abstract class Board {
     protected int halfMove;
     protected int fullMove;
 
-    protected Map<String, Integer> posFreq;  // Position frequency: How many times has a position occurred
-    // Maps the FEN string (except the halfMove and fullMove fields) to the number of times the position occurred
+    // Zobrist hash of the board state (pieces, side to move, castling rights, and en passant),
+    // updated incrementally when pieces are placed or removed and when the state changes in move()
+    protected long hash;
+    // Zobrist hash of the pawns only, updated incrementally like hash
+    protected long pawnHash;
+
+    // pieceCounts[Util.pieceIndex(pieceType)] is the number of pieces of pieceType on the board
+    protected int[] pieceCounts;
+    // The number of bishops (of both colors) on light squares (index 0) and dark squares (index 1)
+    protected int[] bishopSquareColors;
+    // Sums of the middlegame and endgame scores of the pieces (see PieceSquareTables) from white's perspective,
+    // and the game phase, updated incrementally with the piece counts
+    protected int midgameScore, endgameScore, phase;
 
     // w: white, b: black, d: draw, u: unknown
     protected char winner = 'u';
 
-    protected PGN pgn;
+    protected UndoStack history;  // One undo record for each move made since the board was loaded
 
-    protected List<String> history;  // history positions stored in FEN form
+    // If not null, positions that the bitbases know to be drawn are adjudicated as draws
+    protected Bitbases bitbases;
 
-    // When running perft, set this to true. Otherwise, don't touch it!
+    // When running perft or searching, set this to true. Otherwise, don't touch it!
+    // Moves are then trusted to be legal, and threefold repetition is left to the caller.
     public boolean PERFT = false;
 
     public Board(String fen) throws MalformedFENException, IllegalBoardException {
         parseFen(fen);
         checkBoardLegality();
-        this.pgn = new PGN(fullMove, whiteToMove, getResult());
-        this.history = new ArrayList<>();
-        this.posFreq = new HashMap<>();
-        posFreq.put(getUnclockedFEN(), 1);
+        this.history = new UndoStack();
         updateWinner();
     }
 
@@ -61,27 +73,38 @@ public abstract class Board {
         try {
             parseFen(Util.START_POS);
             checkBoardLegality();
-            this.pgn = new PGN(1, true, "*");
-            this.history = new ArrayList<>();
-            this.posFreq = new HashMap<>();
-            posFreq.put(getUnclockedFEN(), 1);
+            this.history = new UndoStack();
             updateWinner();
         } catch (Exception e) {
             assert false;
         }
     }
 
+    /**
+     * Copies the state of the other board directly, without going through FEN.
+     * The pieces are copied by the subclass.
+     */
     public Board(Board other) {
-        try {
-            parseFen(other.toFEN());
-            checkBoardLegality();
-            this.winner = other.winner;
-            this.pgn = new PGN(other.pgn);
-            this.history = new ArrayList<>(other.history);
-            this.posFreq = new HashMap<>(other.posFreq);
-        } catch (Exception e) {
-            assert false;
-        }
+        this.whiteToMove = other.whiteToMove;
+        this.whiteCastleK = other.whiteCastleK;
+        this.whiteCastleQ = other.whiteCastleQ;
+        this.blackCastleK = other.blackCastleK;
+        this.blackCastleQ = other.blackCastleQ;
+        this.enPassantWhite = other.enPassantWhite;
+        this.enPassantBlack = other.enPassantBlack;
+        this.halfMove = other.halfMove;
+        this.fullMove = other.fullMove;
+        this.hash = other.hash;
+        this.pawnHash = other.pawnHash;
+        this.pieceCounts = other.pieceCounts.clone();
+        this.bishopSquareColors = other.bishopSquareColors.clone();
+        this.midgameScore = other.midgameScore;
+        this.endgameScore = other.endgameScore;
+        this.phase = other.phase;
+        this.winner = other.winner;
+        this.bitbases = other.bitbases;
+        // The undo records are shared until one of the boards makes a move
+        this.history = new UndoStack(other.history);
     }
 
     @Override
@@ -145,15 +168,145 @@ public abstract class Board {
     }
 
     /**
-     * @return return the FEN string representing the current board state
-     * without the halfMove and fullMove fields
+     * Two boards with the same pieces, side to move, castling rights, and en passant state have the same hash,
+     * regardless of the halfMove and fullMove fields.
+     *
+     * @return the 64-bit Zobrist hash of the current board state
+     */
+    public long hash() {
+        return hash;
+    }
+
+    /**
+     * Two boards with the same pawns have the same pawn hash, whatever the other pieces and the state are.
+     *
+     * @return the Zobrist hash of the pawns on the board
+     */
+    public long pawnHash() {
+        return pawnHash;
+    }
+
+    /**
+     * @return the Zobrist hash of the current board state, computed from scratch
+     */
+    protected long computeHash() {
+        char[][] pieces = getPieces();
+        long h = 0;
+        for (int row = 0; row < 8; row++) {
+            for (int col = 0; col < 8; col++) {
+                if (pieces[row][col] != 0) {
+                    h ^= Zobrist.pieceKey(pieces[row][col], row * 8 + col);
+                }
+            }
+        }
+        return h ^ stateKey() ^ (whiteToMove ? 0 : Zobrist.blackToMoveKey());
+    }
+
+    /**
+     * Count the pieces on the board and compute the pawn hash from scratch
+     */
+    private void countMaterial() {
+        pieceCounts = new int[Util.PIECE_NAMES.length];
+        bishopSquareColors = new int[2];
+        midgameScore = 0;
+        endgameScore = 0;
+        phase = 0;
+        pawnHash = 0;
+        char[][] pieces = getPieces();
+        for (int row = 0; row < 8; row++) {
+            for (int col = 0; col < 8; col++) {
+                if (pieces[row][col] != 0) {
+                    updateMaterial(row, col, pieces[row][col], 1);
+                }
+                if (pieces[row][col] == 'P' || pieces[row][col] == 'p') {
+                    pawnHash ^= Zobrist.pieceKey(pieces[row][col], row * 8 + col);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of pieces of pieceType on the board
      */
-    protected String getUnclockedFEN() {
-        // Find index of second-to-last space
-        String fen = this.toFEN();
-        int idx = fen.lastIndexOf(' ');
-        idx = fen.substring(0, idx).lastIndexOf(' ');
-        return fen.substring(0, idx);
+    public int getPieceCount(char pieceType) {
+        return pieceCounts[Util.pieceIndex(pieceType)];
+    }
+
+    /**
+     * @return the static score of the board in centipawns from white's perspective: the material and
+     * piece-square scores, tapered between the middlegame and the endgame by the game phase
+     */
+    public int getStaticScore() {
+        return PieceSquareTables.taper(midgameScore, endgameScore, phase);
+    }
+
+    /**
+     * @return the middlegame material and piece-square score from white's perspective
+     */
+    public int getMidgameScore() {
+        return midgameScore;
+    }
+
+    /**
+     * @return the endgame material and piece-square score from white's perspective
+     */
+    public int getEndgameScore() {
+        return endgameScore;
+    }
+
+    /**
+     * @return the game phase, from 0 in the endgame up to PieceSquareTables.MAX_PHASE (or more) in the middlegame
+     */
+    public int getPhase() {
+        return phase;
+    }
+
+    /**
+     * Add delta to the count of pieceType and delta times its scores to the score sums, where the piece is at (row, col)
+     */
+    private void updateMaterial(int row, int col, char pieceType, int delta) {
+        int pieceIndex = Util.pieceIndex(pieceType);
+        pieceCounts[pieceIndex] += delta;
+        if (pieceType == 'B' || pieceType == 'b') {
+            bishopSquareColors[(row + col) % 2] += delta;
+        }
+        int idx = row * 8 + col;
+        midgameScore += delta * PieceSquareTables.midgame(pieceIndex, idx);
+        endgameScore += delta * PieceSquareTables.endgame(pieceIndex, idx);
+        phase += delta * PieceSquareTables.phase(pieceIndex);
+    }
+
+    /**
+     * @return the castling rights as a 4-bit number: bit 0 for K, bit 1 for Q, bit 2 for k, and bit 3 for q
+     */
+    public byte getCastlingRights() {
+        return (byte) ((whiteCastleK ? 1 : 0) | (whiteCastleQ ? 2 : 0) | (blackCastleK ? 4 : 0) | (blackCastleQ ? 8 : 0));
+    }
+
+    /**
+     * @return the file of the en passant target square that the side to move may capture on,
+     * or '-' if the last move wasn't a double pawn push
+     */
+    public char getEnPassantFile() {
+        return whiteToMove ? enPassantBlack : enPassantWhite;
+    }
+
+    /**
+     * Set the castling rights from a 4-bit number (see getCastlingRights)
+     */
+    protected void setCastlingRights(byte rights) {
+        whiteCastleK = (rights & 1) != 0;
+        whiteCastleQ = (rights & 2) != 0;
+        blackCastleK = (rights & 4) != 0;
+        blackCastleQ = (rights & 8) != 0;
+    }
+
+    /**
+     * @return the part of the hash for the castling rights and en passant state
+     */
+    private long stateKey() {
+        return Zobrist.castlingKey(getCastlingRights())
+                ^ Zobrist.enPassantKey(enPassantWhite) ^ Zobrist.enPassantKey(enPassantBlack);
     }
 
     /**
@@ -188,9 +341,111 @@ public abstract class Board {
      * @return the PGN of this game.
      */
     public String toPGN() {
+        Board board = initialBoard();
+        PGN pgn = new PGN(board.fullMove, board.whiteToMove, getResult());
+        for (String sanMove : board.replaySAN(history)) {
+            pgn.addMove(sanMove);
+        }
         return pgn.toString();
     }
 
+    /**
+     * @return the moves made since the board was loaded, in Standard Algebraic Notation (SAN)
+     */
+    public List<String> getSANMoves() {
+        return initialBoard().replaySAN(history);
+    }
+
+    /**
+     * @return a copy of this board with all the moves undone
+     */
+    private Board initialBoard() {
+        Board board = this.clone();
+        while (board.undoLastMove()) {
+            // Keep undoing until the initial state
+        }
+        return board;
+    }
+
+    /**
+     * Make the moves in moves on this board, and record each move in SAN before making it.
+     *
+     * @return the moves in SAN
+     */
+    private List<String> replaySAN(UndoStack moves) {
+        List<String> sanMoves = new ArrayList<>();
+        for (int i = 0; i < moves.size(); i++) {
+            sanMoves.add(toSAN(moves.moveAt(i)));
+            move(moves.moveAt(i));
+        }
+        return sanMoves;
+    }
+
+    /**
+     * The starting square of the move is only included if it is needed to tell apart pieces of the same type
+     * that can move to the same square: the file if it is enough, otherwise the rank, otherwise both.
+     * <p>
+     * Requires: move is legal in the current position
+     * Postcondition: The board is unchanged
+     *
+     * @return the move in Standard Algebraic Notation (SAN), including the check (+) or checkmate (#) suffix
+     */
+    public String toSAN(int move) {
+        int start = PackedMove.getStart(move);
+        int end = PackedMove.getEnd(move);
+        char curPiece = getPieceAt(start / 8, start % 8);
+        StringBuilder san = new StringBuilder();
+        if (PackedMove.getType(move) == PackedMove.CASTLING) {
+            char castleType = PackedMove.getCastleType(move);
+            san.append(castleType == 'K' || castleType == 'k' ? "O-O" : "O-O-O");
+        } else if (curPiece == 'P' || curPiece == 'p') {
+            if (PackedMove.getIsCapture(move)) {
+                san.append((char) (start % 8 + 'a'));
+                san.append('x');
+            }
+            san.append(toSquare(end / 8, end % 8));
+            if (PackedMove.getType(move) == PackedMove.PROMOTION) {
+                san.append('=');
+                san.append(Character.toUpperCase(PackedMove.getPromotionType(move)));
+            }
+        } else {
+            san.append(Character.toUpperCase(curPiece));
+            // Find the other pieces of the same type that can move to the same square
+            boolean ambiguous = false, sameFile = false, sameRank = false;
+            MoveList legalMoves = new MoveList();
+            generateLegalMoves(legalMoves);
+            for (int i = 0; i < legalMoves.size(); i++) {
+                int other = PackedMove.getStart(legalMoves.get(i));
+                if (PackedMove.getEnd(legalMoves.get(i)) == end && other != start
+                        && PackedMove.getType(legalMoves.get(i)) == PackedMove.REGULAR
+                        && getPieceAt(other / 8, other % 8) == curPiece) {
+                    ambiguous = true;
+                    sameFile |= other % 8 == start % 8;
+                    sameRank |= other / 8 == start / 8;
+                }
+            }
+            if (ambiguous && (!sameFile || sameRank)) {
+                san.append((char) (start % 8 + 'a'));
+            }
+            if (ambiguous && sameFile) {
+                san.append(start / 8 + 1);
+            }
+            if (PackedMove.getIsCapture(move)) {
+                san.append('x');
+            }
+            san.append(toSquare(end / 8, end % 8));
+        }
+
+        // Make the move to see whether it gives check or checkmate
+        if (move(move)) {
+            if (isInCheck()) {
+                san.append(hasLegalMoves() ? '+' : '#');
+            }
+            undoLastMove();
+        }
+        return san.toString();
+    }
+
     /**
      * @return A readable depiction of the board state, used for debugging
      */
@@ -321,6 +576,9 @@ public abstract class Board {
         } catch (NumberFormatException e) {
             throw new MalformedFENException("Fullmove field is not an integer: " + fields[5]);
         }
+
+        hash = computeHash();
+        countMaterial();
     }
 
     /**
@@ -418,14 +676,45 @@ public abstract class Board {
     public abstract char getPieceAt(int row, int col);
 
     /**
-     * Place a piece of pieceType at (row, col)
+     * @return the bitmap of the pieces of pieceType, where bit (row * 8 + col) is set if the piece is at (row, col)
+     */
+    public abstract long getBitmap(char pieceType);
+
+    /**
+     * Place a piece of pieceType at (row, col) and update the hash, the piece counts and the scores
+     */
+    protected void setPiece(int row, int col, char pieceType) {
+        long key = Zobrist.pieceKey(pieceType, row * 8 + col);
+        hash ^= key;
+        if (pieceType == 'P' || pieceType == 'p') {
+            pawnHash ^= key;
+        }
+        updateMaterial(row, col, pieceType, 1);
+        placePiece(row, col, pieceType);
+    }
+
+    /**
+     * Remove a piece of pieceType at (row, col) and update the hash, the piece counts and the scores
+     */
+    protected void removePiece(int row, int col, char pieceType) {
+        long key = Zobrist.pieceKey(pieceType, row * 8 + col);
+        hash ^= key;
+        if (pieceType == 'P' || pieceType == 'p') {
+            pawnHash ^= key;
+        }
+        updateMaterial(row, col, pieceType, -1);
+        clearPiece(row, col, pieceType);
+    }
+
+    /**
+     * Place a piece of pieceType at (row, col) in the representation of the pieces
      */
-    protected abstract void setPiece(int row, int col, char pieceType);
+    protected abstract void placePiece(int row, int col, char pieceType);
 
     /**
-     * Remove a piece of pieceType at (row, col)
+     * Remove a piece of pieceType at (row, col) from the representation of the pieces
      */
-    protected abstract void removePiece(int row, int col, char pieceType);
+    protected abstract void clearPiece(int row, int col, char pieceType);
 
     /**
      * If the move is legal, make the move by updating the board state (including the winner) and return true.
@@ -436,12 +725,21 @@ public abstract class Board {
      * @return whether the move is legal
      */
     public boolean move(Move move) {
+        return move(PackedMove.fromMove(move));
+    }
+
+    /**
+     * Same as move(Move), but takes a packed move (see PackedMove).
+     *
+     * @return whether the move is legal
+     */
+    public boolean move(int move) {
         // Can simply check if move is in the set of all legal moves,
         // but checking a specific piece would be more efficient.
-        int startRow = move.getStartRow();
-        int startCol = move.getStartCol();
-        int endRow = move.getEndRow();
-        int endCol = move.getEndCol();
+        int startRow = PackedMove.getStart(move) / 8;
+        int startCol = PackedMove.getStart(move) % 8;
+        int endRow = PackedMove.getEnd(move) / 8;
+        int endCol = PackedMove.getEnd(move) % 8;
         char curPiece = getPieceAt(startRow, startCol);
         char enemyPiece = getPieceAt(endRow, endCol);  // May be 0
         if (curPiece == 0 || (curPiece <= 'Z' != whiteToMove)) {
@@ -454,7 +752,8 @@ public abstract class Board {
         }
         if (!PERFT) {
             // All moves tried in perft must be legal, since we iterate through all the legal moves
-            Set<Move> pieceLegalMoves = getLegalMoves(startRow, startCol);
+            MoveList pieceLegalMoves = new MoveList();
+            generateLegalMoves(startRow, startCol, pieceLegalMoves);
             if (!pieceLegalMoves.contains(move)) {
                 return false;
             }
@@ -465,14 +764,12 @@ public abstract class Board {
         }
 
         // Move must be legal, make the move by changing board state
-        // Take a snapshot of the current state (in FEN form) and put it in history
-        history.add(this.toFEN());
-
-        // For now, we're using a verbose version of the Standard Algebraic Notation for the PGN
-        // For every non-pawn move, we include the entire starting square regardless of ambiguity
-        // TODO: Simplify SAN
+        // Record the state that can't be recovered after the move, so that the move can be undone
+        char capturedPiece = PackedMove.getType(move) == PackedMove.EN_PASSANT ? (whiteToMove ? 'p' : 'P') : enemyPiece;
+        history.push(move, capturedPiece, getCastlingRights(), enPassantWhite, enPassantBlack, halfMove, hash);
 
-        StringBuilder pgnMove = new StringBuilder();
+        // Remove the old castling rights and en passant state from the hash
+        hash ^= stateKey();
         // Reset en passant state, will be changed below if pawn just moved two squares
         enPassantWhite = enPassantBlack = '-';
 
@@ -510,24 +807,17 @@ public abstract class Board {
             }
         }
 
-        switch (move.moveType) {
-            case REGULAR:
+        switch (PackedMove.getType(move)) {
+            case PackedMove.REGULAR:
                 if (curPiece != 'P' && curPiece != 'p') {
-                    pgnMove.append(curPiece > 'a' ? (char) (curPiece - 'a' + 'A') : curPiece);
-                    pgnMove.append(toSquare(startRow, startCol));
-                    if (move.getIsCapture()) {
+                    if (PackedMove.getIsCapture(move)) {
                         halfMove = 0;
-                        pgnMove.append("x");
                     } else {
                         halfMove++;
                     }
                 } else {
                     // Is a pawn move
                     halfMove = 0;
-                    if (move.getIsCapture()) {
-                        pgnMove.append((char) (startCol + 'a'));
-                        pgnMove.append("x");
-                    }
                     if (endRow - startRow == 2) {
                         enPassantWhite = (char) (startCol + 'a');
                     }
@@ -535,7 +825,6 @@ public abstract class Board {
                         enPassantBlack = (char) (startCol + 'a');
                     }
                 }
-                pgnMove.append(toSquare(endRow, endCol));
 
                 // Update pieces
                 if (enemyPiece != 0) {
@@ -545,25 +834,22 @@ public abstract class Board {
                 removePiece(startRow, startCol, curPiece);
                 break;
 
-            case CASTLING:
-                pgnMove.append(move.getCastleType() == 'K' || move.getCastleType() == 'k' ? "O-O" : "O-O-O");
+            case PackedMove.CASTLING:
+                char castleType = PackedMove.getCastleType(move);
                 halfMove++;
 
                 // Update pieces
                 setPiece(endRow, endCol, curPiece);
                 removePiece(startRow, startCol, curPiece);
                 // Move the rook
-                int rookRow = (move.getCastleType() == 'K' || move.getCastleType() == 'Q') ? 0 : 7;
-                int rookStartCol = (move.getCastleType() == 'K' || move.getCastleType() == 'k') ? 7 : 0;
-                int rookEndCol = (move.getCastleType() == 'K' || move.getCastleType() == 'k') ? 5 : 3;
+                int rookRow = (castleType == 'K' || castleType == 'Q') ? 0 : 7;
+                int rookStartCol = (castleType == 'K' || castleType == 'k') ? 7 : 0;
+                int rookEndCol = (castleType == 'K' || castleType == 'k') ? 5 : 3;
                 setPiece(rookRow, rookEndCol, whiteToMove ? 'R' : 'r');
                 removePiece(rookRow, rookStartCol, whiteToMove ? 'R' : 'r');
                 break;
 
-            case EN_PASSANT:
-                pgnMove.append((char) (startCol + 'a'));
-                pgnMove.append("x");
-                pgnMove.append(toSquare(endRow, endCol));
+            case PackedMove.EN_PASSANT:
                 halfMove = 0;
 
                 // Update pieces
@@ -573,14 +859,7 @@ public abstract class Board {
                 removePiece(startRow, endCol, curPiece == 'P' ? 'p' : 'P');
                 break;
 
-            case PROMOTION:
-                if (move.getIsCapture()) {
-                    pgnMove.append((char) (startCol + 'a'));
-                    pgnMove.append("x");
-                }
-                pgnMove.append(toSquare(endRow, endCol));
-                pgnMove.append("=");
-                pgnMove.append(Character.toUpperCase(move.getPromotionType()));
+            case PackedMove.PROMOTION:
                 halfMove = 0;
 
                 // Update pieces
@@ -589,7 +868,7 @@ public abstract class Board {
                 }
                 removePiece(startRow, startCol, whiteToMove ? 'P' : 'p');
                 // ending square becomes promoted piece
-                setPiece(endRow, endCol, move.getPromotionType());
+                setPiece(endRow, endCol, PackedMove.getPromotionType(move));
                 break;
 
             default:
@@ -600,24 +879,10 @@ public abstract class Board {
             fullMove++;
         }
         whiteToMove = !whiteToMove;
+        hash ^= stateKey() ^ Zobrist.blackToMoveKey();
 
-        boolean changed = updateWinner();
-
-        if (isInCheck()) {
-            if (changed) {
-                // Must be checkmate
-                pgnMove.append("#");
-            } else {
-                pgnMove.append("+");
-            }
-        }
-        pgn.addMove(pgnMove.toString());
-
-        // Update posFreq
-        if (!PERFT) {
-            String unclockedFEN = getUnclockedFEN();
-            posFreq.put(unclockedFEN, posFreq.getOrDefault(unclockedFEN, 0) + 1);
-        }
+        // The SAN of the move is only computed when it is requested (see getSANMoves)
+        updateWinner();
 
         // Sanity check
         // TODO: Can be removed after fully tested
@@ -640,34 +905,100 @@ public abstract class Board {
         if (history.isEmpty()) {
             return false;
         }
-        String prevFEN = history.removeLast();
 
-        // Update posFreq
-        if (!PERFT) {
-            String unclockedFEN = getUnclockedFEN();
-            assert posFreq.containsKey(unclockedFEN) && posFreq.get(unclockedFEN) > 0 :
-                    String.format("unclockedFEN: %s\n posFreq: %s\n", unclockedFEN, posFreq);
-            posFreq.put(unclockedFEN, posFreq.get(unclockedFEN) - 1);
+        int move = history.move();
+        char capturedPiece = history.capturedPiece();
+        whiteToMove = !whiteToMove;
+        if (!whiteToMove) {
+            fullMove--;
         }
 
-        try {
-            parseFen(prevFEN);
-//            checkBoardLegality();  // Sanity check, TODO: Can be removed after fully tested
-        } catch (MalformedFENException e) {
-            assert false;
-//        } catch (IllegalBoardException e) {
-//            e.printStackTrace();
-//            assert false;
+        int startRow = PackedMove.getStart(move) / 8;
+        int startCol = PackedMove.getStart(move) % 8;
+        int endRow = PackedMove.getEnd(move) / 8;
+        int endCol = PackedMove.getEnd(move) % 8;
+        char curPiece = getPieceAt(endRow, endCol);
+        switch (PackedMove.getType(move)) {
+            case PackedMove.REGULAR:
+                removePiece(endRow, endCol, curPiece);
+                setPiece(startRow, startCol, curPiece);
+                if (capturedPiece != 0) {
+                    setPiece(endRow, endCol, capturedPiece);
+                }
+                break;
+
+            case PackedMove.CASTLING:
+                char castleType = PackedMove.getCastleType(move);
+                removePiece(endRow, endCol, curPiece);
+                setPiece(startRow, startCol, curPiece);
+                // Move the rook back
+                int rookRow = (castleType == 'K' || castleType == 'Q') ? 0 : 7;
+                int rookStartCol = (castleType == 'K' || castleType == 'k') ? 7 : 0;
+                int rookEndCol = (castleType == 'K' || castleType == 'k') ? 5 : 3;
+                removePiece(rookRow, rookEndCol, whiteToMove ? 'R' : 'r');
+                setPiece(rookRow, rookStartCol, whiteToMove ? 'R' : 'r');
+                break;
+
+            case PackedMove.EN_PASSANT:
+                removePiece(endRow, endCol, curPiece);
+                setPiece(startRow, startCol, curPiece);
+                // Put back the enemy pawn
+                setPiece(startRow, endCol, capturedPiece);
+                break;
+
+            case PackedMove.PROMOTION:
+                removePiece(endRow, endCol, curPiece);
+                setPiece(startRow, startCol, whiteToMove ? 'P' : 'p');
+                if (capturedPiece != 0) {
+                    setPiece(endRow, endCol, capturedPiece);
+                }
+                break;
+
+            default:
+                assert false;
         }
-        pgn.undoLastMove();
+
+        setCastlingRights(history.castlingRights());
+        enPassantWhite = history.enPassantWhite();
+        enPassantBlack = history.enPassantBlack();
+        halfMove = history.halfMove();
+        // The pieces are restored, so the hash is the same as before the move
+        hash = history.hash();
+        history.pop();
+
         winner = 'u';
         return true;
     }
 
+    /**
+     * Clear legalMoves and fill it with the legal moves in the current position, as packed moves.
+     * Does not allocate, so the same MoveList can be reused.
+     */
+    public abstract void generateLegalMoves(MoveList legalMoves);
+
+    /**
+     * Clear captures and fill it with the legal captures (including en passant) and promotions
+     * in the current position, as packed moves. These are the moves that quiescence search looks at.
+     * Does not allocate, so the same MoveList can be reused.
+     */
+    public abstract void generateCaptures(MoveList captures);
+
+    /**
+     * Clear legalMoves and fill it with the legal moves for the piece at position {row, col}, as packed moves.
+     * <p>
+     * Requires: There is a piece at {row, col} and the color of the piece is the same
+     * as the current player
+     */
+    public abstract void generateLegalMoves(int row, int col, MoveList legalMoves);
+
     /**
      * @return the set of legal moves in the current position
      */
-    public abstract Set<Move> getLegalMoves();
+    public Set<Move> getLegalMoves() {
+        MoveList legalMoves = new MoveList();
+        generateLegalMoves(legalMoves);
+        return legalMoves.toMoveSet();
+    }
 
     /**
      * @return the set of legal moves for the piece at position {row, col}.
@@ -675,14 +1006,22 @@ public abstract class Board {
      * Requires: There is a piece at {row, col} and the color of the piece is the same
      * as the current player
      */
-    public abstract Set<Move> getLegalMoves(int row, int col);
+    public Set<Move> getLegalMoves(int row, int col) {
+        MoveList legalMoves = new MoveList();
+        generateLegalMoves(row, col, legalMoves);
+        return legalMoves.toMoveSet();
+    }
 
     /**
      * Only checks whether move is legal or not, does not change the board state.
      *
      * @return whether the move is legal
      */
-    public abstract boolean isLegal(Move move);
+    public boolean isLegal(Move move) {
+        MoveList legalMoves = new MoveList();
+        generateLegalMoves(legalMoves);
+        return legalMoves.contains(PackedMove.fromMove(move));
+    }
 
     /**
      * @return true if the side to move is currently in check, false otherwise
@@ -708,6 +1047,38 @@ public abstract class Board {
         return false;
     }
 
+    /**
+     * Use bitbases to adjudicate drawn endgames as draws, or stop adjudicating if bitbases is null.
+     * The winner is updated right away if the game hasn't ended.
+     */
+    public void setBitbases(Bitbases bitbases) {
+        this.bitbases = bitbases;
+        if (winner == 'u') {
+            updateWinner();
+        }
+    }
+
+    /**
+     * Reset the fifty-move counter, as a capture or pawn move does, so that the position can be analyzed
+     * on its own. A draw is checked again, since it may have been by the fifty-move rule or by repetition.
+     */
+    public void resetHalfMoveClock() {
+        halfMove = 0;
+        if (winner == 'd') {
+            winner = 'u';
+        }
+        if (winner == 'u') {
+            updateWinner();
+        }
+    }
+
+    /**
+     * @return the bitbases used to adjudicate drawn endgames, or null if there are none
+     */
+    public Bitbases getBitbases() {
+        return bitbases;
+    }
+
     /**
      * Have the two players agree to a draw and return true if the current winner is unknown,
      * do nothing and return false otherwise.
@@ -743,24 +1114,45 @@ public abstract class Board {
             return true;
         }
 
+        // Adjudication of endgames that can't be won
+        if (bitbases != null && bitbases.probe(this) == Bitbases.DRAW) {
+            winner = 'd';
+            return true;
+        }
+
         // Fifty-move rule
         if (halfMove >= 100) {
             winner = 'd';
             return true;
         }
 
-        if (!PERFT) {
-            // Threefold repetition
-            for (String key : posFreq.keySet()) {
-                if (posFreq.get(key) >= 3) {
-                    winner = 'd';
-                    return true;
-                }
-            }
+        // Threefold repetition
+        if (!PERFT && repetitionCount() >= 3) {
+            winner = 'd';
+            return true;
         }
         return false;
     }
 
+    /**
+     * Only the positions since the last capture or pawn move are checked, since a position before it
+     * can't occur again. Positions before the board was loaded are not known.
+     *
+     * @return the number of times the current position has occurred, including the current occurrence
+     */
+    public int repetitionCount() {
+        int count = 1;
+        int oldest = Math.max(0, history.size() - halfMove);
+        // history.hashAt(i) is the hash of the position before the i-th move,
+        // and only positions with the same side to move can be the same as the current one
+        for (int i = history.size() - 2; i >= oldest; i -= 2) {
+            if (history.hashAt(i) == hash) {
+                count++;
+            }
+        }
+        return count;
+    }
+
     /**
      * Check if the players have insufficient material to win the game.
      * Insufficient material means K vs. K, or KN vs. K, or KB vs. K,
@@ -768,11 +1160,32 @@ public abstract class Board {
      *
      * @return true if the players have insufficient material, false otherwise.
      */
-    protected abstract boolean insufficientMaterial();
+    protected boolean insufficientMaterial() {
+        int numWhitePieces = 0, numBlackPieces = 0;
+        for (char pieceType : Util.WHITE_PIECE_NAMES) {
+            numWhitePieces += getPieceCount(pieceType);
+        }
+        for (char pieceType : Util.BLACK_PIECE_NAMES) {
+            numBlackPieces += getPieceCount(pieceType);
+        }
+        int numPieces = numWhitePieces + numBlackPieces;
+        if (numPieces == 2) {
+            // K vs. K
+            return true;
+        } else if (numPieces == 3) {
+            // K vs. KN or K vs. KB
+            return getPieceCount('N') + getPieceCount('n') + getPieceCount('B') + getPieceCount('b') == 1;
+        } else if (numWhitePieces == 2 && numBlackPieces == 2) {
+            // KB vs. KB
+            return getPieceCount('B') == 1 && getPieceCount('b') == 1
+                    && (bishopSquareColors[0] == 2 || bishopSquareColors[1] == 2);
+        }
+        return false;
+    }
 
     /**
      * @return whether the current player has legal moves
-     * Should use early exit to speed up performance
+     * Should use early exit and avoid allocation, since it is called after every move
      */
     protected abstract boolean hasLegalMoves();
 
@@ -800,6 +1213,6 @@ public abstract class Board {
      * @return the chessboard notation for the square at {row, col}. (for example: a1, e4)
      */
     private String toSquare(int row, int col) {
-        return "" + ('a' + col) + (row + 1);
+        return "" + (char) ('a' + col) + (row + 1);
     }
 }
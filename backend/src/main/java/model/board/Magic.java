@@ -0,0 +1,365 @@
+package model.board;
+
+import model.Util;
+
+import java.util.Random;
+
+/**
+ * A class for computing sliding piece (rook, bishop, and queen) attacks using "fancy" magic bitboards.
+ * For each square, the relevant occupancy (the squares that can block the slider, excluding the edges)
+ * is multiplied by a magic number and shifted to give a perfect-hash index into a shared attack table.
+ * See <a href="https://www.chessprogramming.org/Magic_Bitboards">chess programming wiki</a>
+ * for more details.
+ * <p>
+ * The magic numbers are pre-computed (see the main method), while the masks and attack tables
+ * are filled in when the class is loaded.
+ */
+public class Magic {
+    public static final long[] ROOK_MAGICS = {
+            0x0180016410400280L,
+            0x00C0005000C02000L,
+            0x0200081022004480L,
+            0x6080100004800802L,
+            0x4180080004008002L,
+            0x0100010004000208L,
+            0x0280010002001080L,
+            0x0100002040820100L,
+            0xC200801080204004L,
+            0x900140002000D000L,
+            0x0802004010220080L,
+            0x0400800800801000L,
+            0x0209001005080100L,
+            0x0040808004000200L,
+            0x000C000408011042L,
+            0x0849802100004380L,
+            0x0080084000200040L,
+            0x0040002008003000L,
+            0x8084110020010042L,
+            0x0050008008001082L,
+            0x0804008004800800L,
+            0x0044808004000201L,
+            0x0000040041081042L,
+            0x0000020020884104L,
+            0x0040400480008020L,
+            0x00901040C0006000L,
+            0x0880100080200080L,
+            0x0004210100081000L,
+            0x0002002200040810L,
+            0x0000040080020080L,
+            0x4420484400217002L,
+            0x0060008200104104L,
+            0x2080004000402000L,
+            0x0000400080802000L,
+            0x0080802000801000L,
+            0x2000801000800800L,
+            0x0028002004040040L,
+            0x4008800400800200L,
+            0x0000100804000201L,
+            0x0080308102000644L,
+            0xB028400084268000L,
+            0x0141008040110020L,
+            0x1010008020028010L,
+            0x2A21001000210008L,
+            0x0000080004008080L,
+            0x0002008004008002L,
+            0x4010704102040008L,
+            0x0C10140080520001L,
+            0x0008408001066900L,
+            0x8880804000200180L,
+            0x2010102000430500L,
+            0x880D006448100300L,
+            0x0008040008028080L,
+            0x1290020080040080L,
+            0x4008800200010080L,
+            0x04001304028C4200L,
+            0x0008220241928102L,
+            0x0800144008810021L,
+            0x001030C06001000DL,
+            0x8800041001002009L,
+            0x2021000248001005L,
+            0x0023000204000801L,
+            0x02001A2481083004L,
+            0x0532430404C09062L,
+    };
+
+    public static final long[] BISHOP_MAGICS = {
+            0x0090100120449200L,
+            0x0202081200861006L,
+            0x9008121042020002L,
+            0x4020A08084000118L,
+            0x0102021000004102L,
+            0x0101010941002040L,
+            0x8001440434404008L,
+            0x4280109088201002L,
+            0x0C80042088110500L,
+            0x028844C1220C0500L,
+            0x880010110A2020A8L,
+            0x0A00085841000000L,
+            0x0820440504000404L,
+            0x0060084802108030L,
+            0x0080046814142041L,
+            0x2100008061101018L,
+            0x8040600404282202L,
+            0x0404040801480200L,
+            0x4188001004302021L,
+            0x0C240108041013B0L,
+            0x091C002822080201L,
+            0x0142800110100110L,
+            0x0426190442022008L,
+            0x1246410110480408L,
+            0x0048402820020200L,
+            0x4004022244088801L,
+            0x0008021001040500L,
+            0x4038080000220020L,
+            0x4001010000104010L,
+            0x0051020864100404L,
+            0x0018010C02010140L,
+            0x6021044202004400L,
+            0x010202A020112004L,
+            0x1008A40450101001L,
+            0x0400141000020086L,
+            0x0C06010040240040L,
+            0x0140620020420080L,
+            0x0020008080210040L,
+            0x000800A100041908L,
+            0x2008008081202210L,
+            0x0002021040400502L,
+            0x8001083834002208L,
+            0xA101004348411000L,
+            0x1180804012003042L,
+            0x0002300202000290L,
+            0x0E02008506004300L,
+            0x0804089200509400L,
+            0x9004040400400024L,
+            0x01020801A4504080L,
+            0x4001008804321040L,
+            0x1000004204908000L,
+            0x0810001284240002L,
+            0x1010109092120010L,
+            0x000044D084084020L,
+            0x2840021224250500L,
+            0x000802280045000AL,
+            0x0082220510080280L,
+            0x1004402098080800L,
+            0x8011000020841002L,
+            0x81201004520A0204L,
+            0x0400014010820882L,
+            0x12220024200C3104L,
+            0x001842502E00A100L,
+            0x0810010204040024L,
+    };
+
+    // Directions as {row step, col step}
+    private static final int[][] ROOK_DIRS = {{1, 0}, {-1, 0}, {0, 1}, {0, -1}};
+    private static final int[][] BISHOP_DIRS = {{1, 1}, {-1, 1}, {-1, -1}, {1, -1}};
+
+    // Relevant occupancy masks
+    private static final long[] ROOK_MASKS = new long[64];
+    private static final long[] BISHOP_MASKS = new long[64];
+    // 64 - (number of bits in the mask)
+    private static final int[] ROOK_SHIFTS = new int[64];
+    private static final int[] BISHOP_SHIFTS = new int[64];
+    // Offset of each square's slice of the shared attack table
+    private static final int[] ROOK_OFFSETS = new int[64];
+    private static final int[] BISHOP_OFFSETS = new int[64];
+    private static final long[] ROOK_TABLE;
+    private static final long[] BISHOP_TABLE;
+
+    // BETWEEN[a][b] is the set of squares strictly between a and b if they are on the same rank, file,
+    // or diagonal, 0 otherwise. LINE[a][b] is the entire line through a and b (or 0 if there is none).
+    private static final long[][] BETWEEN = new long[64][64];
+    private static final long[][] LINE = new long[64][64];
+
+    static {
+        ROOK_TABLE = new long[initMasks(ROOK_DIRS, ROOK_MASKS, ROOK_SHIFTS, ROOK_OFFSETS)];
+        BISHOP_TABLE = new long[initMasks(BISHOP_DIRS, BISHOP_MASKS, BISHOP_SHIFTS, BISHOP_OFFSETS)];
+        for (int idx = 0; idx < 64; idx++) {
+            boolean ok = fillTable(idx, ROOK_DIRS, ROOK_MASKS[idx], ROOK_MAGICS[idx], ROOK_SHIFTS[idx],
+                    ROOK_TABLE, ROOK_OFFSETS[idx]);
+            ok &= fillTable(idx, BISHOP_DIRS, BISHOP_MASKS[idx], BISHOP_MAGICS[idx], BISHOP_SHIFTS[idx],
+                    BISHOP_TABLE, BISHOP_OFFSETS[idx]);
+            assert ok : "Bad magic number for square " + idx;
+        }
+        for (int a = 0; a < 64; a++) {
+            for (int b = 0; b < 64; b++) {
+                if (a == b) {
+                    continue;
+                }
+                long bitA = 1L << a;
+                long bitB = 1L << b;
+                if ((rookAttacks(a, 0) & bitB) != 0) {
+                    BETWEEN[a][b] = rookAttacks(a, bitB) & rookAttacks(b, bitA);
+                    LINE[a][b] = (rookAttacks(a, 0) & rookAttacks(b, 0)) | bitA | bitB;
+                } else if ((bishopAttacks(a, 0) & bitB) != 0) {
+                    BETWEEN[a][b] = bishopAttacks(a, bitB) & bishopAttacks(b, bitA);
+                    LINE[a][b] = (bishopAttacks(a, 0) & bishopAttacks(b, 0)) | bitA | bitB;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param idx the index of the rook
+     * @param allPieces the bitmap for all pieces on the board
+     * @return the bitmap of squares that is attacked by a rook at idx
+     */
+    public static long rookAttacks(int idx, long allPieces) {
+        return ROOK_TABLE[ROOK_OFFSETS[idx]
+                + (int) (((allPieces & ROOK_MASKS[idx]) * ROOK_MAGICS[idx]) >>> ROOK_SHIFTS[idx])];
+    }
+
+    /**
+     * @param idx the index of the bishop
+     * @param allPieces the bitmap for all pieces on the board
+     * @return the bitmap of squares that is attacked by a bishop at idx
+     */
+    public static long bishopAttacks(int idx, long allPieces) {
+        return BISHOP_TABLE[BISHOP_OFFSETS[idx]
+                + (int) (((allPieces & BISHOP_MASKS[idx]) * BISHOP_MAGICS[idx]) >>> BISHOP_SHIFTS[idx])];
+    }
+
+    /**
+     * @param idx the index of the queen
+     * @param allPieces the bitmap for all pieces on the board
+     * @return the bitmap of squares that is attacked by a queen at idx
+     */
+    public static long queenAttacks(int idx, long allPieces) {
+        return rookAttacks(idx, allPieces) | bishopAttacks(idx, allPieces);
+    }
+
+    /**
+     * @return the squares strictly between a and b if they are on the same rank, file, or diagonal,
+     * 0 otherwise
+     */
+    public static long between(int a, int b) {
+        return BETWEEN[a][b];
+    }
+
+    /**
+     * @return the entire rank, file, or diagonal going through a and b, 0 if there is no such line
+     */
+    public static long line(int a, int b) {
+        return LINE[a][b];
+    }
+
+    /**
+     * Compute the relevant occupancy masks, shifts, and table offsets for every square.
+     *
+     * @return the total size of the attack table
+     */
+    private static int initMasks(int[][] dirs, long[] masks, int[] shifts, int[] offsets) {
+        int size = 0;
+        for (int idx = 0; idx < 64; idx++) {
+            masks[idx] = relevantMask(idx, dirs);
+            shifts[idx] = 64 - Util.popCount(masks[idx]);
+            offsets[idx] = size;
+            size += 1 << Util.popCount(masks[idx]);
+        }
+        return size;
+    }
+
+    /**
+     * Fill the slice of the attack table for the square idx.
+     *
+     * @return false if two occupancies with different attacks map to the same index
+     * (that is, the magic number doesn't work), true otherwise
+     */
+    private static boolean fillTable(int idx, int[][] dirs, long mask, long magic, int shift,
+                                     long[] table, int offset) {
+        boolean[] used = new boolean[1 << (64 - shift)];
+        // Enumerate all subsets of the mask (Carry-Rippler trick)
+        long occupancy = 0;
+        do {
+            int key = (int) ((occupancy * magic) >>> shift);
+            long attacks = slidingAttacks(idx, dirs, occupancy);
+            if (used[key] && table[offset + key] != attacks) {
+                return false;
+            }
+            used[key] = true;
+            table[offset + key] = attacks;
+            occupancy = (occupancy - mask) & mask;
+        } while (occupancy != 0);
+        return true;
+    }
+
+    /**
+     * @return the squares that can block a slider at idx moving in dirs.
+     * The last square in each direction is excluded since it is attacked whether it is occupied or not.
+     */
+    private static long relevantMask(int idx, int[][] dirs) {
+        long mask = 0;
+        for (int[] dir : dirs) {
+            int r = idx / 8 + dir[0];
+            int c = idx % 8 + dir[1];
+            while (Util.inRange(r + dir[0]) && Util.inRange(c + dir[1])) {
+                mask = Util.setBit(mask, r, c);
+                r += dir[0];
+                c += dir[1];
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Compute the attacks of a slider by walking in each direction until a blocking piece is found.
+     * This is slow and is only used to fill the tables.
+     *
+     * @return the bitmap of squares attacked by a slider at idx moving in dirs
+     */
+    private static long slidingAttacks(int idx, int[][] dirs, long allPieces) {
+        long attacked = 0;
+        for (int[] dir : dirs) {
+            int r = idx / 8 + dir[0];
+            int c = idx % 8 + dir[1];
+            while (Util.inRange(r) && Util.inRange(c)) {
+                attacked = Util.setBit(attacked, r, c);
+                if (Util.getBit(allPieces, r, c)) {
+                    // found blocking piece
+                    break;
+                }
+                r += dir[0];
+                c += dir[1];
+            }
+        }
+        return attacked;
+    }
+
+    /**
+     * Search for a magic number for the square idx by trial and error.
+     * Random numbers with few bits set are more likely to work.
+     */
+    private static long findMagic(int idx, int[][] dirs, Random random) {
+        long mask = relevantMask(idx, dirs);
+        int shift = 64 - Util.popCount(mask);
+        long[] table = new long[1 << (64 - shift)];
+        while (true) {
+            long magic = random.nextLong() & random.nextLong() & random.nextLong();
+            if (Util.popCount((mask * magic) & 0xFF00000000000000L) < 6) {
+                continue;
+            }
+            if (fillTable(idx, dirs, mask, magic, shift, table, 0)) {
+                return magic;
+            }
+        }
+    }
+
+    /**
+     * Print the array of magic numbers in correct Java syntax
+     */
+    private static void printMagics(String name, int[][] dirs, Random random) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("public static final long[] ").append(name).append(" = {\n");
+        for (int idx = 0; idx < 64; idx++) {
+            sb.append(String.format("0x%016XL", findMagic(idx, dirs, random))).append(",\n");
+        }
+        sb.append("};\n");
+        System.out.println(sb);
+    }
+
+    public static void main(String[] args) {
+        // Fixed seed so that the generated magics are reproducible
+        Random random = new Random(20240101L);
+        printMagics("ROOK_MAGICS", ROOK_DIRS, random);
+        printMagics("BISHOP_MAGICS", BISHOP_DIRS, random);
+    }
+}
@@ -1,17 +1,50 @@
 package model.board;
 
-import model.move.Move;
+import model.move.MoveList;
+import model.move.PackedMove;
 import model.Util;
 
-import java.util.*;
-
 /**
  * Represents a legal board state using the mailbox representation.
- * The pieces on the board are represented by a 2D char array.
+ * The pieces on the board are stored in a 0x88 array of 128 squares, where the square at {row, col}
+ * has index (16 * row + col). The right half of each row is padding, so a square is off the board
+ * if and only if (square & 0x88) != 0, which makes walking along a direction cheap.
+ * Each side also keeps a list of the squares of its pieces, so that we don't have to scan the board.
+ * <p>
+ * Move generation is deliberately different from BitmapBoard: pseudo-legal moves are made on the array
+ * and kept only if they don't leave the king in check, so that the two can be tested against each other.
  * The word "Mailbox" comes from <a href="https://www.chessprogramming.org/Mailbox">chess programming wiki</a>.
+ * See also <a href="https://www.chessprogramming.org/0x88">0x88</a>.
  */
 public class MailboxBoard extends Board {
-    private char[][] pieces;  // capital letter for white, lower-case letter for black, 0 for empty
+    private static final int WHITE = 0, BLACK = 1;
+
+    // Squares hold 0 if empty, and (Util.pieceIndex(pieceType) + 1) otherwise
+    private static final byte EMPTY = 0;
+    private static final byte WHITE_PAWN = code('P'), BLACK_PAWN = code('p');
+    private static final byte WHITE_KNIGHT = code('N'), BLACK_KNIGHT = code('n');
+    private static final byte WHITE_BISHOP = code('B'), BLACK_BISHOP = code('b');
+    private static final byte WHITE_ROOK = code('R'), BLACK_ROOK = code('r');
+    private static final byte WHITE_QUEEN = code('Q'), BLACK_QUEEN = code('q');
+    private static final byte WHITE_KING = code('K'), BLACK_KING = code('k');
+
+    private static final int[] KNIGHT_OFFSETS = {33, 31, 18, 14, -14, -18, -31, -33};
+    private static final int[] KING_OFFSETS = {16, -16, 1, -1, 17, 15, -15, -17};
+    private static final int[] ROOK_OFFSETS = {16, -16, 1, -1};
+    private static final int[] BISHOP_OFFSETS = {17, 15, -15, -17};
+
+    private byte[] squares;
+    // pieceLists[side] holds the squares of the pieces of that side in its first pieceListSizes[side] entries,
+    // and listIndex[square] is the position of the square in its piece list
+    private int[][] pieceLists;
+    private int[] pieceListSizes;
+    private int[] listIndex;
+    private int[] kingSquares;
+
+    // Reused by hasLegalMoves, so that checking for the end of the game after every move doesn't allocate
+    private MoveList probeMoves;
+    // Reused by generateCaptures, which filters all legal moves
+    private MoveList allMoves;
 
     /**
      * Create board from FEN
@@ -34,6 +67,23 @@ public class MailboxBoard extends Board {
      */
     public MailboxBoard(Board other) {
         super(other);
+        if (other instanceof MailboxBoard otherMailbox) {
+            squares = otherMailbox.squares.clone();
+            pieceLists = new int[][]{otherMailbox.pieceLists[WHITE].clone(), otherMailbox.pieceLists[BLACK].clone()};
+            pieceListSizes = otherMailbox.pieceListSizes.clone();
+            listIndex = otherMailbox.listIndex.clone();
+            kingSquares = otherMailbox.kingSquares.clone();
+        } else {
+            clearSquares();
+            char[][] pieces = other.getPieces();
+            for (int row = 0; row < 8; row++) {
+                for (int col = 0; col < 8; col++) {
+                    if (pieces[row][col] != 0) {
+                        addPiece(toSquare(row, col), pieces[row][col]);
+                    }
+                }
+            }
+        }
     }
 
     @Override
@@ -41,25 +91,96 @@ public class MailboxBoard extends Board {
         return new MailboxBoard(this);
     }
 
+    /**
+     * @return the value stored in a square for a piece of pieceType
+     */
+    private static byte code(char pieceType) {
+        return (byte) (Util.pieceIndex(pieceType) + 1);
+    }
+
+    /**
+     * Requires: square is not empty
+     *
+     * @return true if the piece on the square is white, false if it is black
+     */
+    private boolean isWhite(int square) {
+        assert squares[square] != EMPTY;
+        return squares[square] > 6;
+    }
+
+    /**
+     * @return true if the square is outside the board
+     */
+    private static boolean offBoard(int square) {
+        return (square & 0x88) != 0;
+    }
+
+    /**
+     * @return the index of the square in the 0x88 array
+     */
+    private static int toSquare(int row, int col) {
+        return row * 16 + col;
+    }
+
+    /**
+     * @return the index of the square from 0 to 63, as used by PackedMove
+     */
+    private static int toIdx(int square) {
+        return (square >> 4) * 8 + (square & 7);
+    }
+
+    /**
+     * Remove all pieces
+     */
+    private void clearSquares() {
+        squares = new byte[128];
+        pieceLists = new int[2][64];
+        pieceListSizes = new int[2];
+        listIndex = new int[128];
+        kingSquares = new int[2];
+    }
+
+    /**
+     * Debugging check, used in assertions: recompute the piece lists from the squares
+     *
+     * @return true if the piece lists and king squares are consistent with the squares, false otherwise
+     */
+    boolean checkPieceLists() {
+        int numPieces = 0;
+        for (int square = 0; square < 128; square++) {
+            if (offBoard(square) || squares[square] == EMPTY) {
+                continue;
+            }
+            numPieces++;
+            int side = isWhite(square) ? WHITE : BLACK;
+            if (listIndex[square] >= pieceListSizes[side] || pieceLists[side][listIndex[square]] != square) {
+                return false;
+            }
+            if ((squares[square] == WHITE_KING || squares[square] == BLACK_KING) && kingSquares[side] != square) {
+                return false;
+            }
+        }
+        return numPieces == pieceListSizes[WHITE] + pieceListSizes[BLACK];
+    }
+
     @Override
     protected char[][] getPieces() {
-        // need a deep copy
-        char[][] copy = new char[8][8];
-        for (int i = 0; i < 8; i++) {
-            for (int j = 0; j < 8; j++) {
-                copy[i][j] = pieces[i][j];
+        char[][] pieces = new char[8][8];
+        for (int row = 0; row < 8; row++) {
+            for (int col = 0; col < 8; col++) {
+                pieces[row][col] = getPieceAt(row, col);
             }
         }
-        return copy;
+        return pieces;
     }
 
     /**
-     * Parses the piece placement array and updates the pieces variable.
+     * Parses the piece placement array and updates the squares and the piece lists.
      *
      * @throws MalformedFENException if the FEN is malformed. In this case, the board state can be illegal.
      */
     protected void parsePiecePlacement(String[] placement) throws MalformedFENException {
-        pieces = new char[8][8];
+        clearSquares();
         if (placement.length != 8) {
             throw new MalformedFENException("Number of rows in piece placement field is not 8");
         }
@@ -76,20 +197,17 @@ public class MailboxBoard extends Board {
                 char curChar = rowStr.charAt(i);
                 if (curChar >= '1' && curChar <= '8') {
                     // curChar represents a series of blanks
-                    int blanks = curChar - '0';
-                    if (col + blanks > 8) {
+                    col += curChar - '0';
+                    if (col > 8) {
                         throw new MalformedFENException("Number of pieces and blanks in rank "
                                 + (8 - row) + " is greater than 8");
                     }
-                    for (int j = 0; j < blanks; j++) {
-                        pieces[row][col++] = 0;
-                    }
                 } else {
                     // curChar may represent a piece
                     boolean found = false;
                     for (char valid : Util.PIECE_NAMES) {
                         if (curChar == valid) {
-                            pieces[row][col++] = curChar;
+                            placePiece(row, col++, curChar);
                             found = true;
                             break;
                         }
@@ -111,11 +229,11 @@ public class MailboxBoard extends Board {
         // Also checks that there is a pawn on the board for the enPassant state to be possible
         super.parseEnPassant(enPassant);
         if (enPassant.length() == 2) {
-            if (enPassant.charAt(1) == '3' && pieces[3][enPassantWhite - 'a'] != 'P') {
+            if (enPassant.charAt(1) == '3' && squares[toSquare(3, enPassantWhite - 'a')] != WHITE_PAWN) {
                 throw new MalformedFENException("Impossible en passant state: " + enPassant +
                         " (No white pawn was found at " + enPassantWhite + "4)");
             }
-            if (enPassant.charAt(1) == '6' && pieces[4][enPassantBlack - 'a'] != 'p') {
+            if (enPassant.charAt(1) == '6' && squares[toSquare(4, enPassantBlack - 'a')] != BLACK_PAWN) {
                 throw new MalformedFENException("Impossible en passant state: " + enPassant +
                         " (No black pawn was found at " + enPassantBlack + "5)");
             }
@@ -128,20 +246,19 @@ public class MailboxBoard extends Board {
         boolean blackKing = false;
 
         // Check number of kings
-        for (int r = 0; r < 8; r++) {
-            for (int c = 0; c < 8; c++) {
-                if (pieces[r][c] != 0) {
-                    if (pieces[r][c] == 'K') {
-                        if (whiteKing) {
-                            throw new IllegalBoardException("More than one white kings on the board");
-                        }
-                        whiteKing = true;
-                    } else if (pieces[r][c] == 'k') {
-                        if (blackKing) {
-                            throw new IllegalBoardException("More than one black kings on the board");
-                        }
-                        blackKing = true;
+        for (int side = WHITE; side <= BLACK; side++) {
+            for (int i = 0; i < pieceListSizes[side]; i++) {
+                byte piece = squares[pieceLists[side][i]];
+                if (piece == WHITE_KING) {
+                    if (whiteKing) {
+                        throw new IllegalBoardException("More than one white kings on the board");
+                    }
+                    whiteKing = true;
+                } else if (piece == BLACK_KING) {
+                    if (blackKing) {
+                        throw new IllegalBoardException("More than one black kings on the board");
                     }
+                    blackKing = true;
                 }
             }
         }
@@ -155,10 +272,12 @@ public class MailboxBoard extends Board {
 
         // Check pawns on first or last rank
         for (int c = 0; c < 8; c++) {
-            if (pieces[0][c] == 'p' || pieces[0][c] == 'P') {
+            byte first = squares[toSquare(0, c)];
+            byte last = squares[toSquare(7, c)];
+            if (first == WHITE_PAWN || first == BLACK_PAWN) {
                 throw new IllegalBoardException("There is a pawn on rank 1");
             }
-            if (pieces[7][c] == 'p' || pieces[7][c] == 'P') {
+            if (last == WHITE_PAWN || last == BLACK_PAWN) {
                 throw new IllegalBoardException("There is a pawn on rank 8");
             }
         }
@@ -171,337 +290,306 @@ public class MailboxBoard extends Board {
     }
 
     /**
-     * @return the set of all coordinates of a certain color (determined by the parameter white)
-     * For this method and all the subsequent ones, unless otherwise specified,
-     * the format of a square is consistent with the format of the pieces variable;
-     * that is, {i, j} means rank (i + 1), file ('a' + j).
+     * A square is said to be "attacked" by white if putting a black king there would result in
+     * the black king being in check.
+     *
+     * @return true if the square is attacked by white or black (determined by the parameter white)
      */
-    private Set<List<Integer>> getPieceCoords(boolean white) {
-        Set<List<Integer>> coords = new HashSet<>();
-        for (int row = 0; row < 8; row++) {
-            for (int col = 0; col < 8; col++) {
-                if (pieces[row][col] != 0 && (pieces[row][col] < 'a' == white)) {
-                    List<Integer> lst = new ArrayList<>();
-                    lst.add(row);
-                    lst.add(col);
-                    coords.add(lst);
-                }
-            }
+    private boolean isAttacked(int square, boolean white) {
+        // Pawns attack diagonally forward, so look diagonally backward from the square
+        byte pawn = white ? WHITE_PAWN : BLACK_PAWN;
+        int back = white ? -16 : 16;
+        if (!offBoard(square + back + 1) && squares[square + back + 1] == pawn) {
+            return true;
+        }
+        if (!offBoard(square + back - 1) && squares[square + back - 1] == pawn) {
+            return true;
+        }
+        if (attackedByStep(square, KNIGHT_OFFSETS, white ? WHITE_KNIGHT : BLACK_KNIGHT)
+                || attackedByStep(square, KING_OFFSETS, white ? WHITE_KING : BLACK_KING)) {
+            return true;
         }
-        return coords;
+        byte queen = white ? WHITE_QUEEN : BLACK_QUEEN;
+        return attackedBySlider(square, ROOK_OFFSETS, white ? WHITE_ROOK : BLACK_ROOK, queen)
+                || attackedBySlider(square, BISHOP_OFFSETS, white ? WHITE_BISHOP : BLACK_BISHOP, queen);
     }
 
     /**
-     * @return the set of squares that white or black attacks.
-     * A square is said to be "attacked" by white if putting a black king there would result in
-     * the black king being in check.
+     * @return true if there is a piece of type piece one step away from the square along one of the offsets
      */
-    private Set<List<Integer>> attacks(boolean white) {
-        Set<List<Integer>> attacked = new HashSet<>();
-        for (List<Integer> coord : getPieceCoords(white)) {
-            attacked.addAll(attacks(coord.get(0), coord.get(1)));
+    private boolean attackedByStep(int square, int[] offsets, byte piece) {
+        for (int offset : offsets) {
+            int from = square + offset;
+            if (!offBoard(from) && squares[from] == piece) {
+                return true;
+            }
         }
-        return attacked;
+        return false;
     }
 
     /**
-     * @return the set of squares that is attacked by the piece at {row, col}
-     * <p>
-     * Requires: there exists a piece at {row, col}
+     * @return true if the first piece along one of the offsets from the square is of type piece1 or piece2
      */
-    private Set<List<Integer>> attacks(int row, int col) {
-        assert pieces[row][col] != 0;
-        Set<List<Integer>> ans = new HashSet<>();
-        char pieceTypeUpper = Util.toUpperCase(pieces[row][col]);
-
-        int[][] dirs = switch (pieceTypeUpper) {
-            case 'Q', 'K' -> new int[][]{{1, 0}, {-1, 0}, {0, 1}, {0, -1}, {1, 1}, {1, -1}, {-1, 1}, {-1, -1}};
-            case 'R' -> new int[][]{{1, 0}, {-1, 0}, {0, 1}, {0, -1}};
-            case 'B' -> new int[][]{{1, 1}, {1, -1}, {-1, 1}, {-1, -1}};
-            case 'N' -> new int[][]{{2, 1}, {2, -1}, {1, 2}, {1, -2}, {-1, 2}, {-1, -2}, {-2, 1}, {-2, -1}};
-            case 'P' -> pieces[row][col] == 'P' ? new int[][]{{1, 1}, {1, -1}} : new int[][]{{-1, 1}, {-1, -1}};
-            default ->
-                    throw new IllegalStateException(String.format("Illegal piece at row %d, col %d: %c", row, col, pieces[row][col]));
-        };
-
-        switch (pieceTypeUpper) {
-            case 'Q', 'R', 'B':
-                // Infinite range
-                for (int[] dir : dirs) {
-                    int r = row + dir[0];
-                    int c = col + dir[1];
-                    while (Util.inRange(r) && Util.inRange(c)) {
-                        List<Integer> sqr = new ArrayList<>();
-                        sqr.add(r);
-                        sqr.add(c);
-                        ans.add(sqr);
-                        if (pieces[r][c] != 0) {
-                            // Hit an obstacle (note that this square is still attacked)
-                            break;
-                        }
-                        r += dir[0];
-                        c += dir[1];
-                    }
-                }
-                break;
-            case 'K', 'N', 'P':
-                // One-step range
-                for (int[] dir : dirs) {
-                    int r = row + dir[0];
-                    int c = col + dir[1];
-                    if (Util.inRange(r) && Util.inRange(c)) {
-                        List<Integer> sqr = new ArrayList<>();
-                        sqr.add(r);
-                        sqr.add(c);
-                        ans.add(sqr);
+    private boolean attackedBySlider(int square, int[] offsets, byte piece1, byte piece2) {
+        for (int offset : offsets) {
+            for (int from = square + offset; !offBoard(from); from += offset) {
+                if (squares[from] != EMPTY) {
+                    if (squares[from] == piece1 || squares[from] == piece2) {
+                        return true;
                     }
+                    break;
                 }
-                break;
+            }
         }
-        return ans;
+        return false;
     }
 
     @Override
-    public Set<Move> getLegalMoves() {
+    public void generateLegalMoves(MoveList legalMoves) {
+        assert checkPieceLists();
+        legalMoves.clear();
         if (winner != 'u') {
-            return new HashSet<>();
+            return;
         }
-        Set<Move> legalMoves = new HashSet<>();
-        for (List<Integer> coord : getPieceCoords(whiteToMove)) {
-            legalMoves.addAll(getLegalMoves(coord.get(0), coord.get(1)));
+        int side = whiteToMove ? WHITE : BLACK;
+        for (int i = 0; i < pieceListSizes[side]; i++) {
+            accLegalMoves(pieceLists[side][i], legalMoves);
         }
-        return legalMoves;
     }
 
+    /**
+     * The mailbox board is kept simple as a reference for the bitmap board,
+     * so captures are found by filtering all legal moves instead of by a separate generator.
+     */
     @Override
-    public Set<Move> getLegalMoves(int row, int col) {
-        Set<Move> legalMoves = new HashSet<>();
-        assert pieces[row][col] != 0 && (pieces[row][col] <= 'Z') == whiteToMove;
-        Set<List<Integer>> candidates = attacks(row, col);
-        char pieceTypeUpper = Util.toUpperCase(pieces[row][col]);
-
-        for (List<Integer> target : candidates) {
-            int endRow = target.get(0);
-            int endCol = target.get(1);
-            if (pieces[endRow][endCol] != 0 && (pieces[endRow][endCol] <= 'Z') == whiteToMove) {
-                // Can't capture your own piece
-                continue;
-            }
-            if (pieceTypeUpper == 'P') {
-                // Pawns can only capture diagonally (which is what they attack)
-                // so if there isn't a piece diagonal to the pawn, it's not a legal move
-                if (pieces[endRow][endCol] == 0 || endRow == 0 || endRow == 7) {
-                    // Will handle pawn capture promotions separately below
-                    continue;
-                }
+    public void generateCaptures(MoveList captures) {
+        if (allMoves == null) {
+            allMoves = new MoveList();
+        }
+        generateLegalMoves(allMoves);
+        captures.clear();
+        for (int i = 0; i < allMoves.size(); i++) {
+            int move = allMoves.get(i);
+            if (PackedMove.getIsCapture(move) || PackedMove.getType(move) == PackedMove.PROMOTION) {
+                captures.add(move);
             }
-            tryRegularMove(row, col, endRow, endCol, legalMoves);
         }
+    }
 
-        // Special rules for pawn
-        // Pawns move differently from capturing
-        if (pieceTypeUpper == 'P') {
-            int startRow = whiteToMove ? 1 : 6;
-            int promRow = whiteToMove ? 7 : 0;
-            int advance = whiteToMove ? 1 : -1;
-            int enPassantRow = whiteToMove ? 4 : 3;
+    @Override
+    public void generateLegalMoves(int row, int col, MoveList legalMoves) {
+        legalMoves.clear();
+        int square = toSquare(row, col);
+        assert squares[square] != EMPTY && isWhite(square) == whiteToMove;
+        accLegalMoves(square, legalMoves);
+    }
 
-            if (row != promRow - advance && pieces[row + advance][col] == 0) {
-                tryRegularMove(row, col, row + advance, col, legalMoves);
-            }
-            // Pawns on starting position can move two squares
-            if (row == startRow && pieces[row + advance][col] == 0 && pieces[row + 2 * advance][col] == 0) {
-                tryRegularMove(row, col, row + 2 * advance, col, legalMoves);
-            }
-            // Promotion - Note that we don't need to specify which piece to promote to
-            // because if one of the promotions is legal, then so are all others.
-            if (row == promRow - advance) {
-                if (pieces[promRow][col] == 0) {
-                    tryPromotion(row, col, row + advance, col, legalMoves);
-                }
-                if (col != 0 && pieces[promRow][col - 1] != 0 && pieces[promRow][col - 1] <= 'Z' != whiteToMove) {
-                    tryPromotion(row, col, row + advance, col - 1, legalMoves);
-                }
-                if (col != 7 && pieces[promRow][col + 1] != 0 && pieces[promRow][col + 1] <= 'Z' != whiteToMove) {
-                    tryPromotion(row, col, row + advance, col + 1, legalMoves);
-                }
+    /**
+     * Add the legal moves of the piece on the square to legalMoves.
+     * <p>
+     * Requires: there is a piece of the side to move on the square
+     */
+    private void accLegalMoves(int square, MoveList legalMoves) {
+        byte piece = squares[square];
+        if (piece == WHITE_PAWN || piece == BLACK_PAWN) {
+            accPawnMoves(square, legalMoves);
+        } else if (piece == WHITE_KNIGHT || piece == BLACK_KNIGHT) {
+            accStepMoves(square, KNIGHT_OFFSETS, legalMoves);
+        } else if (piece == WHITE_BISHOP || piece == BLACK_BISHOP) {
+            accSliderMoves(square, BISHOP_OFFSETS, legalMoves);
+        } else if (piece == WHITE_ROOK || piece == BLACK_ROOK) {
+            accSliderMoves(square, ROOK_OFFSETS, legalMoves);
+        } else if (piece == WHITE_QUEEN || piece == BLACK_QUEEN) {
+            accSliderMoves(square, ROOK_OFFSETS, legalMoves);
+            accSliderMoves(square, BISHOP_OFFSETS, legalMoves);
+        } else {
+            accStepMoves(square, KING_OFFSETS, legalMoves);
+            accCastling(legalMoves);
+        }
+    }
+
+    /**
+     * Add the legal moves of the knight or king on the square, excluding castling
+     */
+    private void accStepMoves(int square, int[] offsets, MoveList legalMoves) {
+        for (int offset : offsets) {
+            int to = square + offset;
+            if (!offBoard(to)) {
+                tryRegularMove(square, to, legalMoves);
             }
-            // En passant
-            if (row == enPassantRow) {
-                int targetCol = -999;
-                if (whiteToMove && enPassantBlack != '-') {
-                    targetCol = enPassantBlack - 'a';
-                } else if (!whiteToMove && enPassantWhite != '-') {
-                    targetCol = enPassantWhite - 'a';
-                }
-                if (Util.inRange(targetCol)) {
-                    // Make sure that the square contains an enemy pawn
-                    assert pieces[enPassantRow][targetCol] != 0
-                            && pieces[enPassantRow][targetCol] == (whiteToMove ? 'p' : 'P');
-                    // Target square must be empty since the enemy pawn just moved through it
-                    assert pieces[enPassantRow + advance][targetCol] == 0;
-                    if (col - targetCol == 1 || col - targetCol == -1) {
-                        tryEnPassant(row, col, row + advance, targetCol, legalMoves);
-                    }
+        }
+    }
+
+    /**
+     * Add the legal moves of the bishop, rook, or queen on the square along the offsets
+     */
+    private void accSliderMoves(int square, int[] offsets, MoveList legalMoves) {
+        for (int offset : offsets) {
+            for (int to = square + offset; !offBoard(to); to += offset) {
+                tryRegularMove(square, to, legalMoves);
+                if (squares[to] != EMPTY) {
+                    // Hit an obstacle (note that the obstacle may still be captured)
+                    break;
                 }
             }
         }
+    }
 
-        // Special rules for king
-        if (pieceTypeUpper == 'K') {
-            Set<List<Integer>> whiteAttacks = attacks(true);
-            Set<List<Integer>> blackAttacks = attacks(false);
-            if (whiteToMove && whiteCastleK) {
-                // White's king and kingside rook must not have moved
-                assert row == 0 && col == 4;
-                assert pieces[0][7] == 'R';
-                int[][] checkSquares = {{0, 4}, {0, 5}, {0, 6}};
-                if (pieces[0][5] == 0 && pieces[0][6] == 0
-                        && canPass(checkSquares, blackAttacks)) {
-                    legalMoves.add(new Move('K'));
+    /**
+     * Add the legal moves of the pawn on the square, including promotions and en passant
+     */
+    private void accPawnMoves(int square, MoveList legalMoves) {
+        int forward = whiteToMove ? 16 : -16;
+        int row = square >> 4;
+        int startRow = whiteToMove ? 1 : 6;
+        int promRow = whiteToMove ? 6 : 1;  // The row that the pawn promotes from
+
+        // Pushes
+        int to = square + forward;
+        if (squares[to] == EMPTY) {
+            if (row == promRow) {
+                tryPromotion(square, to, legalMoves);
+            } else {
+                tryRegularMove(square, to, legalMoves);
+                // Pawns on starting position can move two squares
+                if (row == startRow && squares[to + forward] == EMPTY) {
+                    tryRegularMove(square, to + forward, legalMoves);
                 }
             }
-            if (whiteToMove && whiteCastleQ) {
-                // White's king and queenside rook must not have moved
-                assert row == 0 && col == 4;
-                assert pieces[0][0] == 'R';
-                int[][] checkSquares = {{0, 2}, {0, 3}, {0, 4}};
-                if (pieces[0][1] == 0 && pieces[0][2] == 0 && pieces[0][3] == 0
-                        && canPass(checkSquares, blackAttacks)) {
-                    legalMoves.add(new Move('Q'));
-                }
+        }
+
+        // Captures
+        for (int side = -1; side <= 1; side += 2) {
+            to = square + forward + side;
+            if (offBoard(to) || squares[to] == EMPTY || isWhite(to) == whiteToMove) {
+                continue;
             }
-            if (!whiteToMove && blackCastleK) {
-                // Black's king and kingside rook must not have moved
-                assert row == 7 && col == 4;
-                assert pieces[7][7] == 'r';
-                int[][] checkSquares = {{7, 4}, {7, 5}, {7, 6}};
-                if (pieces[7][5] == 0 && pieces[7][6] == 0
-                        && canPass(checkSquares, whiteAttacks)) {
-                    legalMoves.add(new Move('k'));
-                }
+            if (row == promRow) {
+                tryPromotion(square, to, legalMoves);
+            } else {
+                tryRegularMove(square, to, legalMoves);
             }
-            if (!whiteToMove && blackCastleQ) {
-                // Black's king and queenside rook must not have moved
-                assert row == 7 && col == 4;
-                assert pieces[7][0] == 'r';
-                int[][] checkSquares = {{7, 2}, {7, 3}, {7, 4}};
-                if (pieces[7][1] == 0 && pieces[7][2] == 0 && pieces[7][3] == 0
-                        && canPass(checkSquares, whiteAttacks)) {
-                    legalMoves.add(new Move('q'));
+        }
+
+        // En passant
+        char enPassantFile = whiteToMove ? enPassantBlack : enPassantWhite;
+        int enPassantRow = whiteToMove ? 4 : 3;
+        if (enPassantFile != '-' && row == enPassantRow) {
+            int enemyPawn = toSquare(enPassantRow, enPassantFile - 'a');
+            if (enemyPawn == square + 1 || enemyPawn == square - 1) {
+                // Make sure that the square contains an enemy pawn
+                assert squares[enemyPawn] == (whiteToMove ? BLACK_PAWN : WHITE_PAWN);
+                to = enemyPawn + forward;
+                // Target square must be empty since the enemy pawn just moved through it
+                assert squares[to] == EMPTY;
+                if (isSafe(square, to, enemyPawn)) {
+                    legalMoves.add(PackedMove.enPassant(toIdx(square), toIdx(to)));
                 }
             }
         }
-
-        return legalMoves;
     }
 
     /**
-     * Checks whether a king can pass through all the squares without being in check.
-     *
-     * @param squares         the squares to check
-     * @param opponentAttacks the squares attacked by the opponent
-     * @return false if any square in squares is attacked by the opponent, true otherwise.
+     * Add the castling moves of the side to move
      */
-    private boolean canPass(int[][] squares, Set<List<Integer>> opponentAttacks) {
-        for (int[] square : squares) {
-            List<Integer> lst = new ArrayList<>();
-            lst.add(square[0]);
-            lst.add(square[1]);
-            if (opponentAttacks.contains(lst)) {
-                return false;
+    private void accCastling(MoveList legalMoves) {
+        if (whiteToMove && (whiteCastleK || whiteCastleQ)) {
+            // White's king and castling rooks must not have moved
+            assert squares[toSquare(0, 4)] == WHITE_KING;
+            if (isAttacked(toSquare(0, 4), false)) {
+                return;
+            }
+            if (whiteCastleK && canCastle(0, 7, 6, 5)) {
+                legalMoves.add(PackedMove.castling('K'));
+            }
+            if (whiteCastleQ && canCastle(0, 0, 2, 3)) {
+                legalMoves.add(PackedMove.castling('Q'));
+            }
+        } else if (!whiteToMove && (blackCastleK || blackCastleQ)) {
+            // Black's king and castling rooks must not have moved
+            assert squares[toSquare(7, 4)] == BLACK_KING;
+            if (isAttacked(toSquare(7, 4), true)) {
+                return;
+            }
+            if (blackCastleK && canCastle(7, 7, 6, 5)) {
+                legalMoves.add(PackedMove.castling('k'));
+            }
+            if (blackCastleQ && canCastle(7, 0, 2, 3)) {
+                legalMoves.add(PackedMove.castling('q'));
             }
         }
-        return true;
     }
 
     /**
-     * Try to move the piece from {startRow, startCol} to {endRow, endCol}
-     * to see if this will put the player in check.
-     * If it doesn't, add the move to legalMoves.
-     * If it does, do nothing.
-     * <p>
-     * Requires: The move is a regular move (not a promotion, en passant, or castling) and it is pseudo-legal.
+     * Requires: the king is on the e-file of the row and is not in check
+     *
+     * @return true if the squares between the king and the rook on rookCol are empty
+     * and the king doesn't pass through or land on an attacked square
      */
-    private void tryRegularMove(int startRow, int startCol, int endRow, int endCol, Set<Move> legalMoves) {
-        tryRegOrProm(startRow, startCol, endRow, endCol, false, legalMoves);
+    private boolean canCastle(int row, int rookCol, int kingEndCol, int kingPassCol) {
+        assert squares[toSquare(row, rookCol)] == (whiteToMove ? WHITE_ROOK : BLACK_ROOK);
+        int step = rookCol > 4 ? 1 : -1;
+        for (int col = 4 + step; col != rookCol; col += step) {
+            if (squares[toSquare(row, col)] != EMPTY) {
+                return false;
+            }
+        }
+        return !isAttacked(toSquare(row, kingPassCol), !whiteToMove)
+                && !isAttacked(toSquare(row, kingEndCol), !whiteToMove);
     }
 
     /**
-     * Try to move the piece from {startRow, startCol} to {endRow, endCol}
-     * to see if this will put the player in check.
-     * If it doesn't, add the move to legalMoves.
-     * If it does, do nothing.
+     * Add the move from one square to another to legalMoves if it doesn't leave the king in check.
      * <p>
-     * Requires: The move is a promotion and it is pseudo-legal.
+     * Requires: The move is a regular move (not a promotion, en passant, or castling), and it is pseudo-legal
+     * except that the target square may hold a friendly piece, in which case nothing is added.
      */
-    private void tryPromotion(int startRow, int startCol, int endRow, int endCol, Set<Move> legalMoves) {
-        tryRegOrProm(startRow, startCol, endRow, endCol, true, legalMoves);
+    private void tryRegularMove(int from, int to, MoveList legalMoves) {
+        boolean isCapture = squares[to] != EMPTY;
+        if (isCapture && isWhite(to) == whiteToMove) {
+            // Can't capture your own piece
+            return;
+        }
+        if (isSafe(from, to, to)) {
+            legalMoves.add(PackedMove.regular(toIdx(from), toIdx(to), isCapture));
+        }
     }
 
     /**
-     * Try to move the piece from {startRow, startCol} to {endRow, endCol}
-     * to see if this will put the player in check.
-     * If it doesn't, add the move to legalMoves.
-     * If it does, do nothing.
+     * Add the four promotions from one square to another to legalMoves if they don't leave the king in check.
+     * Note that if one of the promotions is legal, then so are all others.
      * <p>
-     * Requires: The move is an en passant and it is pseudo-legal.
+     * Requires: The move is a pseudo-legal promotion.
      */
-    private void tryEnPassant(int startRow, int startCol, int endRow, int endCol, Set<Move> legalMoves) {
-        char origStart = pieces[startRow][startCol];
-        char origEnemyPawn = pieces[startRow][endCol];
-        // Note that the target square must be empty
-        assert pieces[endRow][endCol] == 0;
-
-        // Perform the en passant
-        pieces[startRow][startCol] = 0;
-        pieces[endRow][endCol] = origStart;
-        pieces[startRow][endCol] = 0;
-        if (!isInCheck(whiteToMove)) {
-            legalMoves.add(new Move(startRow, startCol, endRow, endCol, true, true));
+    private void tryPromotion(int from, int to, MoveList legalMoves) {
+        boolean isCapture = squares[to] != EMPTY;
+        if (isSafe(from, to, to)) {
+            for (int promotion = 0; promotion < 4; promotion++) {
+                legalMoves.add(PackedMove.promotion(toIdx(from), toIdx(to), promotion, isCapture));
+            }
         }
-        // Restore pieces
-        pieces[startRow][startCol] = origStart;
-        pieces[endRow][endCol] = 0;
-        pieces[startRow][endCol] = origEnemyPawn;
     }
 
     /**
-     * Try to move the piece from {startRow, startCol} to {endRow, endCol}
-     * to see if this will put the player in check.
-     * If it doesn't, add the move to legalMoves.
-     * If it does, do nothing.
-     * <p>
-     * Requires: The move is a regular move or a promotion, not an en passant or castling.
-     * Also, the move has to be "pseudo-legal" - legal if we ignore checks (that is, normally a piece of
-     * that type should be able to move from {startRow, startCol} to {endRow, endCol}
-     * and {endRow, endCol} can't have a piece with the same color as the current piece).
+     * Make the move on the squares, check whether it leaves the king of the side to move in check, and restore.
+     *
+     * @param captured the square of the captured piece, which is different from to only for en passant
+     * @return true if the king of the side to move is not in check after the move
      */
-    private void tryRegOrProm(int startRow, int startCol, int endRow, int endCol,
-                              boolean isPromotion, Set<Move> legalMoves) {
-        char origStart = pieces[startRow][startCol];
-        char origEnd = pieces[endRow][endCol];
-        pieces[startRow][startCol] = 0;
-        pieces[endRow][endCol] = origStart;
-        boolean isCapture = (origEnd != 0);
-        if (!isInCheck(whiteToMove)) {
-            if (isPromotion) {
-                char[] promPieces = whiteToMove ? "QRBN".toCharArray() : "qrbn".toCharArray();
-                for (char promPiece : promPieces) {
-                    legalMoves.add(new Move(startRow, startCol, endRow, endCol, promPiece, isCapture));
-                }
-            } else {
-                legalMoves.add(new Move(startRow, startCol, endRow, endCol, false, isCapture));
-            }
-        }
+    private boolean isSafe(int from, int to, int captured) {
+        byte movingPiece = squares[from];
+        byte capturedPiece = squares[captured];
+        squares[captured] = EMPTY;
+        squares[from] = EMPTY;
+        squares[to] = movingPiece;
+        int side = whiteToMove ? WHITE : BLACK;
+        int kingSquare = from == kingSquares[side] ? to : kingSquares[side];
+        boolean safe = !isAttacked(kingSquare, !whiteToMove);
         // Restore pieces
-        pieces[startRow][startCol] = origStart;
-        pieces[endRow][endCol] = origEnd;
-    }
-
-    @Override
-    public boolean isLegal(Move move) {
-        return getLegalMoves().contains(move);
+        squares[to] = EMPTY;
+        squares[captured] = capturedPiece;
+        squares[from] = movingPiece;
+        return safe;
     }
 
     @Override
@@ -513,38 +601,20 @@ public class MailboxBoard extends Board {
      * @return true if white/black is in check (determined by the parameter white), false otherwise
      */
     private boolean isInCheck(boolean white) {
-        List<Integer> kingPos = getKingPos(white);
-        for (List<Integer> opponent : getPieceCoords(!white)) {
-            if (attacks(opponent.get(0), opponent.get(1)).contains(kingPos)) {
-                return true;
-            }
-        }
-        return false;
-    }
-
-    /**
-     * @return the position of the white/black king (determined by the parameter white)
-     * Since we assume the rep invariant is true, there is only one king of each color.
-     */
-    private List<Integer> getKingPos(boolean white) {
-        for (int r = 0; r < 8; r++) {
-            for (int c = 0; c < 8; c++) {
-                if (pieces[r][c] == (white ? 'K' : 'k')) {
-                    List<Integer> ans = new ArrayList<>();
-                    ans.add(r);
-                    ans.add(c);
-                    return ans;
-                }
-            }
-        }
-        assert false;
-        return new ArrayList<>();
+        return isAttacked(kingSquares[white ? WHITE : BLACK], !white);
     }
 
     @Override
     protected boolean hasLegalMoves() {
-        for (List<Integer> coord : getPieceCoords(whiteToMove)) {
-            if (!getLegalMoves(coord.get(0), coord.get(1)).isEmpty()) {
+        if (probeMoves == null) {
+            // Can't be initialized with the field, since the Board constructor calls this method
+            probeMoves = new MoveList();
+        }
+        probeMoves.clear();
+        int side = whiteToMove ? WHITE : BLACK;
+        for (int i = 0; i < pieceListSizes[side]; i++) {
+            accLegalMoves(pieceLists[side][i], probeMoves);
+            if (!probeMoves.isEmpty()) {
                 return true;
             }
         }
@@ -552,56 +622,52 @@ public class MailboxBoard extends Board {
     }
 
     @Override
-    protected boolean insufficientMaterial() {
-        Set<List<Integer>> whitePieces = getPieceCoords(true);
-        Set<List<Integer>> blackPieces = getPieceCoords(false);
-        Set<List<Integer>> allPieces = new HashSet<>(whitePieces);
-        allPieces.addAll(blackPieces);
-        if (allPieces.size() == 2) {
-            // K vs. K
-            return true;
-        } else if (allPieces.size() == 3) {
-            // K vs. KN or K vs. KB
-            for (List<Integer> piecePos : allPieces) {
-                char pieceTypeUpper = Util.toUpperCase(pieces[piecePos.get(0)][piecePos.get(1)]);
-                if (pieceTypeUpper == 'R' || pieceTypeUpper == 'Q' || pieceTypeUpper == 'P') {
-                    return false;
-                }
-            }
-            return true;
-        } else if (whitePieces.size() == 2 && blackPieces.size() == 2) {
-            // KB vs. KB
-            int bishopCoordSum = -1;  // sum of row and col of one bishop
-            for (List<Integer> piecePos : allPieces) {
-                char pieceTypeUpper = Util.toUpperCase(pieces[piecePos.get(0)][piecePos.get(1)]);
-                if (pieceTypeUpper == 'K') {
-                    continue;
-                }
-                if (pieceTypeUpper != 'B') {
-                    return false;
-                }
-                if (bishopCoordSum == -1) {
-                    bishopCoordSum = piecePos.get(0) + piecePos.get(1);
-                } else {
-                    return (bishopCoordSum + piecePos.get(0) + piecePos.get(1)) % 2 == 0;
-                }
+    public char getPieceAt(int row, int col) {
+        byte piece = squares[toSquare(row, col)];
+        return piece == EMPTY ? 0 : Util.PIECE_NAMES[piece - 1];
+    }
+
+    @Override
+    public long getBitmap(char pieceType) {
+        byte piece = code(pieceType);
+        int side = pieceType <= 'Z' ? WHITE : BLACK;
+        long bitmap = 0;
+        for (int i = 0; i < pieceListSizes[side]; i++) {
+            int square = pieceLists[side][i];
+            if (squares[square] == piece) {
+                bitmap |= 1L << toIdx(square);
             }
         }
-        return false;
+        return bitmap;
     }
 
     @Override
-    public char getPieceAt(int row, int col) {
-        return pieces[row][col];
+    protected void placePiece(int row, int col, char pieceType) {
+        addPiece(toSquare(row, col), pieceType);
     }
 
-    @Override
-    protected void setPiece(int row, int col, char pieceType) {
-        pieces[row][col] = pieceType;
+    /**
+     * Put a piece of pieceType on the empty square and add it to its piece list.
+     * Private so that the copy constructor can call it before subclasses are initialized.
+     */
+    private void addPiece(int square, char pieceType) {
+        int side = pieceType <= 'Z' ? WHITE : BLACK;
+        squares[square] = code(pieceType);
+        listIndex[square] = pieceListSizes[side];
+        pieceLists[side][pieceListSizes[side]++] = square;
+        if (pieceType == 'K' || pieceType == 'k') {
+            kingSquares[side] = square;
+        }
     }
 
     @Override
-    protected void removePiece(int row, int col, char pieceType) {
-        pieces[row][col] = 0;
+    protected void clearPiece(int row, int col, char pieceType) {
+        int square = toSquare(row, col);
+        int side = pieceType <= 'Z' ? WHITE : BLACK;
+        // Move the last square in the piece list into the removed slot
+        int last = pieceLists[side][--pieceListSizes[side]];
+        pieceLists[side][listIndex[square]] = last;
+        listIndex[last] = listIndex[square];
+        squares[square] = EMPTY;
     }
 }
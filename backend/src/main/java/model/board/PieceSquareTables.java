@@ -0,0 +1,179 @@
+package model.board;
+
+import model.Util;
+
+/**
+ * Material values and piece-square tables for the static evaluation, in centipawns.
+ * The score of a piece is its material value plus a bonus for the square it stands on, with one table for the
+ * middlegame and one for the endgame. The board sums these scores incrementally in setPiece and removePiece,
+ * together with the game phase, and blends the two sums by the phase ("tapered evaluation").
+ * The middlegame tables are from the
+ * <a href="https://www.chessprogramming.org/Simplified_Evaluation_Function">simplified evaluation function</a>;
+ * the endgame tables only differ for pawns, which are worth more the further they advance, and the king,
+ * which should come to the center.
+ */
+public class PieceSquareTables {
+    // The phase of a board with all the minor and major pieces, which is the middlegame.
+    // A board with no minor or major pieces has phase 0, which is the endgame.
+    public static final int MAX_PHASE = 24;
+
+    // Indexed by the position of the piece in WHITE_PIECE_NAMES and BLACK_PIECE_NAMES (P, N, B, R, Q, K)
+    public static final int[] PIECE_VALUES = {100, 320, 330, 500, 900, 0};
+    private static final int[] PIECE_PHASES = {0, 1, 1, 2, 4, 0};
+
+    // The tables below are from white's perspective, with a8 at the top left (index 0) and h1 at the bottom right,
+    // so that they read like a diagram. Black uses the same tables mirrored vertically.
+
+    private static final int[] PAWN_MG = {
+            0, 0, 0, 0, 0, 0, 0, 0,
+            50, 50, 50, 50, 50, 50, 50, 50,
+            10, 10, 20, 30, 30, 20, 10, 10,
+            5, 5, 10, 25, 25, 10, 5, 5,
+            0, 0, 0, 20, 20, 0, 0, 0,
+            5, -5, -10, 0, 0, -10, -5, 5,
+            5, 10, 10, -20, -20, 10, 10, 5,
+            0, 0, 0, 0, 0, 0, 0, 0,
+    };
+
+    private static final int[] PAWN_EG = {
+            0, 0, 0, 0, 0, 0, 0, 0,
+            80, 80, 80, 80, 80, 80, 80, 80,
+            50, 50, 50, 50, 50, 50, 50, 50,
+            30, 30, 30, 30, 30, 30, 30, 30,
+            15, 15, 15, 15, 15, 15, 15, 15,
+            5, 5, 5, 5, 5, 5, 5, 5,
+            0, 0, 0, 0, 0, 0, 0, 0,
+            0, 0, 0, 0, 0, 0, 0, 0,
+    };
+
+    private static final int[] KNIGHT = {
+            -50, -40, -30, -30, -30, -30, -40, -50,
+            -40, -20, 0, 0, 0, 0, -20, -40,
+            -30, 0, 10, 15, 15, 10, 0, -30,
+            -30, 5, 15, 20, 20, 15, 5, -30,
+            -30, 0, 15, 20, 20, 15, 0, -30,
+            -30, 5, 10, 15, 15, 10, 5, -30,
+            -40, -20, 0, 5, 5, 0, -20, -40,
+            -50, -40, -30, -30, -30, -30, -40, -50,
+    };
+
+    private static final int[] BISHOP = {
+            -20, -10, -10, -10, -10, -10, -10, -20,
+            -10, 0, 0, 0, 0, 0, 0, -10,
+            -10, 0, 5, 10, 10, 5, 0, -10,
+            -10, 5, 5, 10, 10, 5, 5, -10,
+            -10, 0, 10, 10, 10, 10, 0, -10,
+            -10, 10, 10, 10, 10, 10, 10, -10,
+            -10, 5, 0, 0, 0, 0, 5, -10,
+            -20, -10, -10, -10, -10, -10, -10, -20,
+    };
+
+    private static final int[] ROOK = {
+            0, 0, 0, 0, 0, 0, 0, 0,
+            5, 10, 10, 10, 10, 10, 10, 5,
+            -5, 0, 0, 0, 0, 0, 0, -5,
+            -5, 0, 0, 0, 0, 0, 0, -5,
+            -5, 0, 0, 0, 0, 0, 0, -5,
+            -5, 0, 0, 0, 0, 0, 0, -5,
+            -5, 0, 0, 0, 0, 0, 0, -5,
+            0, 0, 0, 5, 5, 0, 0, 0,
+    };
+
+    private static final int[] QUEEN = {
+            -20, -10, -10, -5, -5, -10, -10, -20,
+            -10, 0, 0, 0, 0, 0, 0, -10,
+            -10, 0, 5, 5, 5, 5, 0, -10,
+            -5, 0, 5, 5, 5, 5, 0, -5,
+            0, 0, 5, 5, 5, 5, 0, -5,
+            -10, 5, 5, 5, 5, 5, 0, -10,
+            -10, 0, 5, 0, 0, 0, 0, -10,
+            -20, -10, -10, -5, -5, -10, -10, -20,
+    };
+
+    private static final int[] KING_MG = {
+            -30, -40, -40, -50, -50, -40, -40, -30,
+            -30, -40, -40, -50, -50, -40, -40, -30,
+            -30, -40, -40, -50, -50, -40, -40, -30,
+            -30, -40, -40, -50, -50, -40, -40, -30,
+            -20, -30, -30, -40, -40, -30, -30, -20,
+            -10, -20, -20, -20, -20, -20, -20, -10,
+            20, 20, 0, 0, 0, 0, 20, 20,
+            20, 30, 10, 0, 0, 10, 30, 20,
+    };
+
+    private static final int[] KING_EG = {
+            -50, -40, -30, -20, -20, -30, -40, -50,
+            -30, -20, -10, 0, 0, -10, -20, -30,
+            -30, -10, 20, 30, 30, 20, -10, -30,
+            -30, -10, 30, 40, 40, 30, -10, -30,
+            -30, -10, 30, 40, 40, 30, -10, -30,
+            -30, -10, 20, 30, 30, 20, -10, -30,
+            -30, -30, 0, 0, 0, 0, -30, -30,
+            -50, -30, -30, -30, -30, -30, -30, -50,
+    };
+
+    private static final int[][] MG_TABLES = {PAWN_MG, KNIGHT, BISHOP, ROOK, QUEEN, KING_MG};
+    private static final int[][] EG_TABLES = {PAWN_EG, KNIGHT, BISHOP, ROOK, QUEEN, KING_EG};
+
+    // MG_SCORES[Util.pieceIndex(pieceType) * 64 + idx] is the middlegame score of a piece of pieceType at idx,
+    // including its material value, negated for black pieces so that the sums are from white's perspective.
+    // Likewise for EG_SCORES and PHASES.
+    private static final int[] MG_SCORES = new int[12 * 64];
+    private static final int[] EG_SCORES = new int[12 * 64];
+    private static final int[] PHASES = new int[12];
+
+    static {
+        for (int i = 0; i < PIECE_VALUES.length; i++) {
+            int white = Util.pieceIndex(Util.WHITE_PIECE_NAMES[i]);
+            int black = Util.pieceIndex(Util.BLACK_PIECE_NAMES[i]);
+            for (int idx = 0; idx < 64; idx++) {
+                int row = idx / 8, col = idx % 8;
+                int whiteEntry = (7 - row) * 8 + col;
+                int blackEntry = row * 8 + col;
+                MG_SCORES[white * 64 + idx] = PIECE_VALUES[i] + MG_TABLES[i][whiteEntry];
+                MG_SCORES[black * 64 + idx] = -(PIECE_VALUES[i] + MG_TABLES[i][blackEntry]);
+                EG_SCORES[white * 64 + idx] = PIECE_VALUES[i] + EG_TABLES[i][whiteEntry];
+                EG_SCORES[black * 64 + idx] = -(PIECE_VALUES[i] + EG_TABLES[i][blackEntry]);
+            }
+            PHASES[white] = PIECE_PHASES[i];
+            PHASES[black] = PIECE_PHASES[i];
+        }
+    }
+
+    /**
+     * @param pieceIndex the index of the piece in PIECE_NAMES (see Util.pieceIndex)
+     * @param idx        the index of the square
+     * @return the middlegame score of the piece at idx, positive for white pieces and negative for black pieces
+     */
+    public static int midgame(int pieceIndex, int idx) {
+        return MG_SCORES[pieceIndex * 64 + idx];
+    }
+
+    /**
+     * @param pieceIndex the index of the piece in PIECE_NAMES (see Util.pieceIndex)
+     * @param idx        the index of the square
+     * @return the endgame score of the piece at idx, positive for white pieces and negative for black pieces
+     */
+    public static int endgame(int pieceIndex, int idx) {
+        return EG_SCORES[pieceIndex * 64 + idx];
+    }
+
+    /**
+     * @param pieceIndex the index of the piece in PIECE_NAMES (see Util.pieceIndex)
+     * @return how much the piece adds to the game phase
+     */
+    public static int phase(int pieceIndex) {
+        return PHASES[pieceIndex];
+    }
+
+    /**
+     * @param midgame the middlegame score
+     * @param endgame the endgame score
+     * @param phase   the game phase, clamped to MAX_PHASE since promotions can exceed it
+     * @return the blend of the two scores, weighted by how close phase is to MAX_PHASE and 0 respectively
+     */
+    public static int taper(int midgame, int endgame, int phase) {
+        phase = Math.min(phase, MAX_PHASE);
+        return (midgame * phase + endgame * (MAX_PHASE - phase)) / MAX_PHASE;
+    }
+}
@@ -0,0 +1,146 @@
+package model.board;
+
+import java.util.Arrays;
+
+/**
+ * A stack of undo records, one per move made on a board.
+ * Each record holds the state that can't be recovered from the board after the move:
+ * the packed move, the captured piece, the castling rights, the en passant state,
+ * the halfMove clock, and the hash before the move.
+ * The records are stored in parallel primitive arrays that grow as needed,
+ * so pushing and popping a record doesn't allocate.
+ */
+class UndoStack {
+    private static final int INITIAL_CAPACITY = 256;
+
+    private int[] moves;
+    private char[] capturedPieces;  // 0 if the move is not a capture
+    private byte[] castlingRights;  // See Board.getCastlingRights
+    private char[] enPassantWhite, enPassantBlack;
+    private int[] halfMoves;
+    private long[] hashes;
+    private int size;
+    // Whether the arrays are shared with a copy of this stack, in which case they are copied before a push
+    private boolean shared;
+
+    UndoStack() {
+        moves = new int[INITIAL_CAPACITY];
+        capturedPieces = new char[INITIAL_CAPACITY];
+        castlingRights = new byte[INITIAL_CAPACITY];
+        enPassantWhite = new char[INITIAL_CAPACITY];
+        enPassantBlack = new char[INITIAL_CAPACITY];
+        halfMoves = new int[INITIAL_CAPACITY];
+        hashes = new long[INITIAL_CAPACITY];
+        size = 0;
+    }
+
+    /**
+     * Creates a copy of the other stack that shares its arrays (copy-on-write),
+     * so copying is cheap when neither stack is pushed to afterwards.
+     */
+    UndoStack(UndoStack other) {
+        moves = other.moves;
+        capturedPieces = other.capturedPieces;
+        castlingRights = other.castlingRights;
+        enPassantWhite = other.enPassantWhite;
+        enPassantBlack = other.enPassantBlack;
+        halfMoves = other.halfMoves;
+        hashes = other.hashes;
+        size = other.size;
+        shared = true;
+        other.shared = true;
+    }
+
+    /**
+     * Push a record for a move that is about to be made
+     */
+    void push(int move, char capturedPiece, byte castling, char epWhite, char epBlack, int halfMove, long hash) {
+        if (shared || size == moves.length) {
+            // Popping doesn't write to the arrays, so only pushing needs to copy them
+            copyArrays();
+        }
+        moves[size] = move;
+        capturedPieces[size] = capturedPiece;
+        castlingRights[size] = castling;
+        enPassantWhite[size] = epWhite;
+        enPassantBlack[size] = epBlack;
+        halfMoves[size] = halfMove;
+        hashes[size] = hash;
+        size++;
+    }
+
+    /**
+     * Remove the top record. The accessors below refer to the top record, so read them before popping.
+     */
+    void pop() {
+        assert size > 0;
+        size--;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int move() {
+        return moves[size - 1];
+    }
+
+    char capturedPiece() {
+        return capturedPieces[size - 1];
+    }
+
+    byte castlingRights() {
+        return castlingRights[size - 1];
+    }
+
+    char enPassantWhite() {
+        return enPassantWhite[size - 1];
+    }
+
+    char enPassantBlack() {
+        return enPassantBlack[size - 1];
+    }
+
+    int halfMove() {
+        return halfMoves[size - 1];
+    }
+
+    long hash() {
+        return hashes[size - 1];
+    }
+
+    /**
+     * @return the i-th move, where the first move is the 0th
+     */
+    int moveAt(int i) {
+        assert i >= 0 && i < size;
+        return moves[i];
+    }
+
+    /**
+     * @return the hash of the position before the i-th move, where the first move is the 0th
+     */
+    long hashAt(int i) {
+        assert i >= 0 && i < size;
+        return hashes[i];
+    }
+
+    /**
+     * Copy the arrays, doubling the capacity if they are full
+     */
+    private void copyArrays() {
+        int capacity = size == moves.length ? moves.length * 2 : moves.length;
+        moves = Arrays.copyOf(moves, capacity);
+        capturedPieces = Arrays.copyOf(capturedPieces, capacity);
+        castlingRights = Arrays.copyOf(castlingRights, capacity);
+        enPassantWhite = Arrays.copyOf(enPassantWhite, capacity);
+        enPassantBlack = Arrays.copyOf(enPassantBlack, capacity);
+        halfMoves = Arrays.copyOf(halfMoves, capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
+        shared = false;
+    }
+}
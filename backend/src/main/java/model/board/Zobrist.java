@@ -0,0 +1,75 @@
+package model.board;
+
+import model.Util;
+
+import java.util.Random;
+
+/**
+ * Random keys for Zobrist hashing of board states.
+ * The hash of a board state is the XOR of the keys of every (piece, square) pair on the board,
+ * the side to move, the castling rights, and the en passant file. Since XOR is its own inverse,
+ * the hash can be updated incrementally when a piece is placed or removed.
+ * See <a href="https://www.chessprogramming.org/Zobrist_Hashing">chess programming wiki</a>
+ * for more details.
+ */
+public class Zobrist {
+    // Fixed seed so that hashes are reproducible across runs
+    private static final long SEED = 0x5EED_C4E55L;
+
+    private static final long[] PIECE_KEYS = new long[12 * 64];
+    // Indexed by the castling rights as a 4-bit number (see Board.getCastlingRights)
+    private static final long[] CASTLING_KEYS = new long[16];
+    private static final long[] EN_PASSANT_KEYS = new long[8];
+    private static final long BLACK_TO_MOVE_KEY;
+
+    static {
+        Random random = new Random(SEED);
+        for (int i = 0; i < PIECE_KEYS.length; i++) {
+            PIECE_KEYS[i] = random.nextLong();
+        }
+        long[] rightKeys = {random.nextLong(), random.nextLong(), random.nextLong(), random.nextLong()};
+        for (int rights = 0; rights < 16; rights++) {
+            for (int i = 0; i < 4; i++) {
+                if ((rights & (1 << i)) != 0) {
+                    CASTLING_KEYS[rights] ^= rightKeys[i];
+                }
+            }
+        }
+        for (int i = 0; i < 8; i++) {
+            EN_PASSANT_KEYS[i] = random.nextLong();
+        }
+        BLACK_TO_MOVE_KEY = random.nextLong();
+    }
+
+    /**
+     * @param pieceType the type of piece (case-sensitive to represent white or black)
+     * @param idx the index of the square
+     * @return the key for a piece of pieceType at idx
+     */
+    public static long pieceKey(char pieceType, int idx) {
+        return PIECE_KEYS[Util.pieceIndex(pieceType) * 64 + idx];
+    }
+
+    /**
+     * @param rights the castling rights as a 4-bit number (see Board.getCastlingRights)
+     * @return the key for the castling rights
+     */
+    public static long castlingKey(int rights) {
+        return CASTLING_KEYS[rights];
+    }
+
+    /**
+     * @param file the file of the en passant target square ('a' to 'h'), or '-' if there is none
+     * @return the key for the en passant file
+     */
+    public static long enPassantKey(char file) {
+        return file == '-' ? 0 : EN_PASSANT_KEYS[file - 'a'];
+    }
+
+    /**
+     * @return the key that is XORed in when it's black to move
+     */
+    public static long blackToMoveKey() {
+        return BLACK_TO_MOVE_KEY;
+    }
+}
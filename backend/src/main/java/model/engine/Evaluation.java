@@ -0,0 +1,156 @@
+package model.engine;
+
+import model.Util;
+import model.board.Board;
+import model.board.PieceSquareTables;
+
+/**
+ * Static evaluation of a board, in centipawns from the perspective of the side to move.
+ * <p>
+ * The material and piece-square scores are kept up to date by the board. On top of them come the pawn structure
+ * (doubled, isolated and passed pawns) and the pawn shields in front of the kings. The pawn structure is cached
+ * in a PawnHashTable, so it's only computed from the pawn bitmaps when the pawns are in a new formation.
+ * <p>
+ * An Evaluation is not thread-safe, since its pawn hash table isn't, so each search thread has its own.
+ */
+public class Evaluation {
+    public static final int DEFAULT_PAWN_TABLE_CAPACITY = 1 << 16;
+
+    private static final int DOUBLED_MG = -10, DOUBLED_EG = -20;
+    private static final int ISOLATED_MG = -10, ISOLATED_EG = -15;
+    // Indexed by the row of the pawn from its own side (1 for a pawn that hasn't moved, 6 for one about to promote)
+    private static final int[] PASSED_MG = {0, 5, 10, 15, 25, 40, 60, 0};
+    private static final int[] PASSED_EG = {0, 10, 15, 25, 45, 70, 110, 0};
+    // Middlegame score of each file next to or in front of a king on its first two ranks, indexed by the rank
+    // of the rearmost pawn of its side on the file from that side (0 if there is none)
+    private static final int[] SHIELD_MG = {-15, 0, 15, 8, -5, -15, -15, -15};
+
+    // FILES[col] is the bitmap of file col, and NEIGHBOR_FILES[col] is the bitmap of the files next to it
+    private static final long[] FILES = new long[8];
+    private static final long[] NEIGHBOR_FILES = new long[8];
+
+    static {
+        for (int col = 0; col < 8; col++) {
+            FILES[col] = Util.A_FILE << col;
+        }
+        for (int col = 0; col < 8; col++) {
+            NEIGHBOR_FILES[col] = (col > 0 ? FILES[col - 1] : 0) | (col < 7 ? FILES[col + 1] : 0);
+        }
+    }
+
+    private final PawnHashTable pawnTable;
+
+    public Evaluation() {
+        this(new PawnHashTable(DEFAULT_PAWN_TABLE_CAPACITY));
+    }
+
+    public Evaluation(PawnHashTable pawnTable) {
+        this.pawnTable = pawnTable;
+    }
+
+    /**
+     * @return the static score of the board, positive if the side to move is ahead
+     */
+    public int evaluate(Board board) {
+        long pawnKey = board.pawnHash();
+        int slot = pawnTable.probe(pawnKey);
+        if (slot == PawnHashTable.MISS) {
+            slot = evaluatePawns(board, pawnKey);
+        }
+        int midgame = board.getMidgameScore() + pawnTable.getMidgameScore(slot);
+        int endgame = board.getEndgameScore() + pawnTable.getEndgameScore(slot);
+        long shieldRanks = pawnTable.getShieldRanks(slot);
+        midgame += shield(shieldRanks, Util.getLS1BIdx(board.getBitmap('K')), true)
+                - shield(shieldRanks, Util.getLS1BIdx(board.getBitmap('k')), false);
+        int score = PieceSquareTables.taper(midgame, endgame, board.getPhase());
+        return board.whiteToMove() ? score : -score;
+    }
+
+    /**
+     * @return the pawn hash table, for its statistics
+     */
+    public PawnHashTable pawnTable() {
+        return pawnTable;
+    }
+
+    /**
+     * Compute the pawn structure of the board from scratch and store it in the pawn hash table
+     *
+     * @return the slot of the new entry
+     */
+    private int evaluatePawns(Board board, long pawnKey) {
+        long whitePawns = board.getBitmap('P');
+        long blackPawns = board.getBitmap('p');
+        int midgame = 0, endgame = 0;
+        long shieldRanks = 0;
+        for (int col = 0; col < 8; col++) {
+            long white = whitePawns & FILES[col];
+            long black = blackPawns & FILES[col];
+            int whiteCount = Util.popCount(white), blackCount = Util.popCount(black);
+            if (whiteCount > 1) {
+                midgame += DOUBLED_MG * (whiteCount - 1);
+                endgame += DOUBLED_EG * (whiteCount - 1);
+            }
+            if (blackCount > 1) {
+                midgame -= DOUBLED_MG * (blackCount - 1);
+                endgame -= DOUBLED_EG * (blackCount - 1);
+            }
+            if ((whitePawns & NEIGHBOR_FILES[col]) == 0) {
+                midgame += ISOLATED_MG * whiteCount;
+                endgame += ISOLATED_EG * whiteCount;
+            }
+            if ((blackPawns & NEIGHBOR_FILES[col]) == 0) {
+                midgame -= ISOLATED_MG * blackCount;
+                endgame -= ISOLATED_EG * blackCount;
+            }
+            // Rank of the rearmost pawn of each side on the file, from its own side
+            if (white != 0) {
+                shieldRanks |= (long) (Util.getLS1BIdx(white) / 8 + 1) << (4 * col);
+            }
+            if (black != 0) {
+                shieldRanks |= (long) (8 - (63 - Long.numberOfLeadingZeros(black)) / 8) << (32 + 4 * col);
+            }
+        }
+        for (long pawns = whitePawns; pawns != 0; pawns = Util.resetLS1B(pawns)) {
+            int idx = Util.getLS1BIdx(pawns);
+            int row = idx / 8;
+            // Black pawns on the file or the files next to it, in front of the pawn
+            long ahead = -1L << ((row + 1) * 8);
+            if ((blackPawns & (FILES[idx % 8] | NEIGHBOR_FILES[idx % 8]) & ahead) == 0) {
+                midgame += PASSED_MG[row];
+                endgame += PASSED_EG[row];
+            }
+        }
+        for (long pawns = blackPawns; pawns != 0; pawns = Util.resetLS1B(pawns)) {
+            int idx = Util.getLS1BIdx(pawns);
+            int row = idx / 8;
+            long ahead = (1L << (row * 8)) - 1;
+            if ((whitePawns & (FILES[idx % 8] | NEIGHBOR_FILES[idx % 8]) & ahead) == 0) {
+                midgame -= PASSED_MG[7 - row];
+                endgame -= PASSED_EG[7 - row];
+            }
+        }
+        return pawnTable.store(pawnKey, midgame, endgame, shieldRanks);
+    }
+
+    /**
+     * @param shieldRanks the shield ranks of the pawn structure, 4 bits for each file:
+     *                    white's in bits 0-31, black's in bits 32-63
+     * @param kingIdx     the square of the king of the side
+     * @return the middlegame score of the pawn shield of the king of the side, from its own perspective;
+     * 0 if the king has left its first two ranks
+     */
+    private static int shield(long shieldRanks, int kingIdx, boolean white) {
+        int row = white ? kingIdx / 8 : 7 - kingIdx / 8;
+        if (row > 1) {
+            return 0;
+        }
+        int kingCol = kingIdx % 8;
+        int shift = white ? 0 : 32;
+        int score = 0;
+        for (int col = Math.max(0, kingCol - 1); col <= Math.min(7, kingCol + 1); col++) {
+            score += SHIELD_MG[(int) (shieldRanks >>> (shift + 4 * col)) & 0xF];
+        }
+        return score;
+    }
+}
@@ -0,0 +1,102 @@
+package model.engine;
+
+import model.board.BitmapBoard;
+import model.board.Board;
+
+/**
+ * Searches with several threads by Lazy SMP: the main thread searches the board, and each helper thread searches
+ * its own BitmapBoard copy of it, all sharing one transposition table. The helpers don't report anything,
+ * but the entries they store let the main thread cut off or order moves in positions it hasn't searched yet.
+ * See <a href="https://www.chessprogramming.org/Lazy_SMP">chess programming wiki</a> for more details.
+ * <p>
+ * The helpers are stopped and joined before search returns or throws, so no thread outlives a search.
+ * An interrupt of the calling thread doesn't cut this short; its interrupt status is kept for the caller.
+ */
+public class LazySmpSearch {
+    private final Board board;
+    private final TranspositionTable table;
+    private final int threads;
+    private final Search mainSearch;
+
+    /**
+     * @param board   the board of the main thread, used as in Search
+     * @param threads the number of threads including the main thread
+     * @throws IllegalArgumentException if threads < 1
+     */
+    public LazySmpSearch(Board board, TranspositionTable table, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be positive: " + threads);
+        }
+        this.board = board;
+        this.table = table;
+        this.threads = threads;
+        this.mainSearch = new Search(board, table);
+    }
+
+    /**
+     * Same as Search.search, but with the helper threads searching at the same time
+     *
+     * @return the result of the main thread, with the nodes of all threads
+     */
+    public Search.Result search(long timeMillis, int maxDepth) {
+        Search[] helpers = new Search[threads - 1];
+        Thread[] helperThreads = new Thread[threads - 1];
+        for (int i = 0; i < helpers.length; i++) {
+            // Copy before the main search starts making moves on the board
+            Search helper = new Search(new BitmapBoard(board), table, i + 1);
+            helpers[i] = helper;
+            // The helpers search until they are stopped, since the main search decides when to stop
+            helperThreads[i] = new Thread(() -> helper.search(timeMillis, Search.MAX_PLY - 1),
+                    "search-helper-" + (i + 1));
+            helperThreads[i].setDaemon(true);
+        }
+        for (Thread helperThread : helperThreads) {
+            helperThread.start();
+        }
+
+        Search.Result result;
+        try {
+            result = mainSearch.search(timeMillis, maxDepth);
+        } finally {
+            // Stop every helper before waiting for any, so they all stop together
+            for (Search helper : helpers) {
+                helper.stop();
+            }
+            joinAll(helperThreads);
+        }
+
+        long nodes = mainSearch.nodes();
+        for (Search helper : helpers) {
+            nodes += helper.nodes();
+        }
+        return new Search.Result(result.pv(), result.score(), result.depth(), nodes);
+    }
+
+    /**
+     * Wait for every thread to finish, even if the current thread is interrupted,
+     * in which case its interrupt status is set again afterwards
+     */
+    private static void joinAll(Thread[] threads) {
+        boolean interrupted = false;
+        for (Thread thread : threads) {
+            while (true) {
+                try {
+                    thread.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Abort the search, see Search.stop. May be called from another thread.
+     */
+    public void stop() {
+        mainSearch.stop();
+    }
+}
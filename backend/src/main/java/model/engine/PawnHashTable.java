@@ -0,0 +1,122 @@
+package model.engine;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size cache of pawn structure evaluations, keyed by the pawn hash of the board (see Board.pawnHash).
+ * The pawns rarely move between the nodes of a search, so almost every evaluation finds its pawn structure here.
+ * See <a href="https://www.chessprogramming.org/Pawn_Hash_Table">chess programming wiki</a> for more details.
+ * <p>
+ * Each entry holds the middlegame and endgame scores of the pawn structure, and the shield ranks,
+ * which Evaluation combines with the king squares to score the pawn shields.
+ * An empty slot has key 0, which is the pawn hash of a board without pawns; that is harmless since the
+ * empty entry (scores 0, no shield) is the correct entry for such a board.
+ * <p>
+ * The table is not thread-safe, so each search thread has its own.
+ */
+public class PawnHashTable {
+    // Returned by probe if the table has no entry for the key
+    public static final int MISS = -1;
+
+    private final long[] keys;
+    // scores[slot] packs the middlegame score in the upper 32 bits and the endgame score in the lower 32 bits
+    private final long[] scores;
+    private final long[] shieldRanks;
+    private final int mask;
+
+    private long hits;
+    private long misses;
+
+    /**
+     * @param capacity the number of entries
+     * @throws IllegalArgumentException if capacity is not a positive power of two
+     */
+    public PawnHashTable(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a positive power of two: " + capacity);
+        }
+        this.keys = new long[capacity];
+        this.scores = new long[capacity];
+        this.shieldRanks = new long[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * @return the slot of the entry for key, to be read with getMidgameScore, getEndgameScore and getShieldRanks,
+     * or MISS if there is none
+     */
+    public int probe(long key) {
+        int slot = (int) key & mask;
+        if (keys[slot] == key) {
+            hits++;
+            return slot;
+        }
+        misses++;
+        return MISS;
+    }
+
+    /**
+     * Store an entry for key, replacing the entry in its slot
+     *
+     * @return the slot of the entry
+     */
+    public int store(long key, int midgameScore, int endgameScore, long shieldRanks) {
+        int slot = (int) key & mask;
+        keys[slot] = key;
+        scores[slot] = ((long) midgameScore << 32) | (endgameScore & 0xFFFFFFFFL);
+        this.shieldRanks[slot] = shieldRanks;
+        return slot;
+    }
+
+    public int getMidgameScore(int slot) {
+        return (int) (scores[slot] >> 32);
+    }
+
+    public int getEndgameScore(int slot) {
+        return (int) scores[slot];
+    }
+
+    public long getShieldRanks(int slot) {
+        return shieldRanks[slot];
+    }
+
+    /**
+     * Remove all entries and reset the statistics
+     */
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(scores, 0);
+        Arrays.fill(shieldRanks, 0);
+        hits = 0;
+        misses = 0;
+    }
+
+    /**
+     * @return the number of entries
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return the number of probes that found an entry
+     */
+    public long hits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of probes that didn't find an entry
+     */
+    public long misses() {
+        return misses;
+    }
+
+    /**
+     * @return the fraction of probes that found an entry
+     */
+    public double hitRate() {
+        long probes = hits + misses;
+        return probes == 0 ? 0 : (double) hits / probes;
+    }
+}
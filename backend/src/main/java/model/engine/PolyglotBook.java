@@ -0,0 +1,199 @@
+package model.engine;
+
+import model.board.Board;
+import model.move.Move;
+import model.move.MoveList;
+import model.move.PackedMove;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Reads opening moves from a Polyglot book (.bin), which is a sequence of 16-byte entries sorted by key:
+ * <pre>
+ * key:    8 bytes, the Polyglot key of the position (see PolyglotKey)
+ * move:   2 bytes, bits 0-2 to file, 3-5 to row, 6-8 from file, 9-11 from row, 12-14 promotion (0 for none,
+ *         then knight, bishop, rook, queen). Castling is written as the king capturing its own rook.
+ * weight: 2 bytes, how often the move should be played relative to the other moves of the position
+ * learn:  4 bytes, unused
+ * </pre>
+ * All numbers are big-endian. See <a href="http://hgm.nubati.net/book_format.html">the Polyglot book format</a>
+ * for more details.
+ * <p>
+ * The file is memory-mapped rather than read, so opening a book takes no time whatever its size, and the pages
+ * read are cached by the operating system and shared with every process that maps the same book.
+ * Lookups binary-search the mapping with absolute reads, so a book may be shared by several threads.
+ */
+public class PolyglotBook {
+    private static final int ENTRY_SIZE = 16;
+    // A mapping is at most 2 GB, so larger books are mapped in chunks of 2^26 entries (1 GB)
+    private static final int CHUNK_SHIFT = 26;
+    private static final int CHUNK_ENTRIES = 1 << CHUNK_SHIFT;
+    private static final char[] PROMOTIONS = {0, 'N', 'B', 'R', 'Q'};
+
+    /**
+     * A move of the book and its weight
+     */
+    public record BookMove(Move move, int weight) {
+    }
+
+    private final PolyglotKey keys;
+    private final MappedByteBuffer[] chunks;
+    private final long size;
+
+    /**
+     * Map the book at path, written with the keys of the Polyglot format
+     *
+     * @throws IOException if the file can't be read or its length is not a multiple of the entry size
+     */
+    public PolyglotBook(Path path) throws IOException {
+        this(path, PolyglotKey.DEFAULT);
+    }
+
+    /**
+     * Map the book at path
+     *
+     * @param keys the random numbers that the book was written with
+     * @throws IOException if the file can't be read or its length is not a multiple of the entry size
+     */
+    public PolyglotBook(Path path, PolyglotKey keys) throws IOException {
+        this.keys = keys;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length % ENTRY_SIZE != 0) {
+                throw new IOException("Length of Polyglot book is not a multiple of " + ENTRY_SIZE + ": " + path);
+            }
+            this.size = length / ENTRY_SIZE;
+            this.chunks = new MappedByteBuffer[(int) ((size + CHUNK_ENTRIES - 1) >>> CHUNK_SHIFT)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = (long) i * CHUNK_ENTRIES * ENTRY_SIZE;
+                // The mapping stays valid after the channel is closed
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min((long) CHUNK_ENTRIES * ENTRY_SIZE, length - start));
+            }
+        }
+    }
+
+    /**
+     * @return the number of entries in the book
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return the moves of the book for the board in the order of the book (usually by decreasing weight),
+     * leaving out illegal moves, which a corrupted book or a collision of keys may hold;
+     * empty if the board is not in the book
+     */
+    public List<BookMove> lookup(Board board) {
+        long key = keys.key(board);
+        List<BookMove> moves = new ArrayList<>();
+        MoveList legalMoves = null;
+        for (long i = firstEntry(key); i < size && getKey(i) == key; i++) {
+            Move move = toMove(board, getMove(i));
+            if (move == null) {
+                continue;
+            }
+            if (legalMoves == null) {
+                legalMoves = new MoveList();
+                board.generateLegalMoves(legalMoves);
+            }
+            if (legalMoves.contains(PackedMove.fromMove(move))) {
+                moves.add(new BookMove(move, getWeight(i)));
+            }
+        }
+        return moves;
+    }
+
+    /**
+     * @return a move of the book for the board chosen at random in proportion to the weights,
+     * or null if the board is not in the book or all its moves have weight 0
+     */
+    public Move pickMove(Board board, Random random) {
+        List<BookMove> moves = lookup(board);
+        int total = 0;
+        for (BookMove move : moves) {
+            total += move.weight();
+        }
+        if (total == 0) {
+            return null;
+        }
+        int pick = random.nextInt(total);
+        for (BookMove move : moves) {
+            pick -= move.weight();
+            if (pick < 0) {
+                return move.move();
+            }
+        }
+        throw new IllegalStateException("Weights changed while picking a move");
+    }
+
+    /**
+     * @return the index of the first entry with a key not less than key (as unsigned numbers), or size if none
+     */
+    private long firstEntry(long key) {
+        long low = 0, high = size;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (Long.compareUnsigned(getKey(mid), key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private long getKey(long entry) {
+        return chunks[(int) (entry >>> CHUNK_SHIFT)].getLong(offset(entry));
+    }
+
+    private int getMove(long entry) {
+        return chunks[(int) (entry >>> CHUNK_SHIFT)].getShort(offset(entry) + 8) & 0xFFFF;
+    }
+
+    private int getWeight(long entry) {
+        return chunks[(int) (entry >>> CHUNK_SHIFT)].getShort(offset(entry) + 10) & 0xFFFF;
+    }
+
+    private static int offset(long entry) {
+        return (int) (entry & (CHUNK_ENTRIES - 1)) * ENTRY_SIZE;
+    }
+
+    /**
+     * @return the move of the book entry on the board, or null if there is no piece of the side to move
+     * where it starts (which can only happen if two positions have the same key)
+     */
+    private static Move toMove(Board board, int bookMove) {
+        int endCol = bookMove & 7;
+        int endRow = (bookMove >>> 3) & 7;
+        int startCol = (bookMove >>> 6) & 7;
+        int startRow = (bookMove >>> 9) & 7;
+        int promotion = (bookMove >>> 12) & 7;
+        boolean white = board.whiteToMove();
+        char piece = board.getPieceAt(startRow, startCol);
+        if (piece == 0 || Character.isUpperCase(piece) != white || promotion >= PROMOTIONS.length) {
+            return null;
+        }
+        char target = board.getPieceAt(endRow, endCol);
+        char king = white ? 'K' : 'k';
+        if (piece == king && target == (white ? 'R' : 'r') && startCol == 4) {
+            // The king captures its own rook
+            return new Move(endCol == 7 ? king : (white ? 'Q' : 'q'));
+        }
+        if (promotion != 0) {
+            char promotionType = white ? PROMOTIONS[promotion] : Character.toLowerCase(PROMOTIONS[promotion]);
+            return new Move(startRow, startCol, endRow, endCol, promotionType, target != 0);
+        }
+        // A pawn moving diagonally to an empty square captures en passant
+        boolean enPassant = Character.toUpperCase(piece) == 'P' && startCol != endCol && target == 0;
+        return new Move(startRow, startCol, endRow, endCol, enPassant, target != 0 || enPassant);
+    }
+}
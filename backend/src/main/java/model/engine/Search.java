@@ -0,0 +1,445 @@
+package model.engine;
+
+import model.board.Bitbases;
+import model.board.Board;
+import model.move.MoveList;
+import model.move.PackedMove;
+
+import java.util.Arrays;
+
+/**
+ * Searches for the best move on a board by negamax with alpha-beta pruning and iterative deepening.
+ * See <a href="https://www.chessprogramming.org/Alpha-Beta">chess programming wiki</a> for more details.
+ * <p>
+ * Each iteration searches one ply deeper than the last, trying the principal variation (PV) of the last iteration
+ * first, until the time runs out or the search is stopped. The result of the last completed iteration is returned,
+ * and the first iteration always completes so that there is a move to return.
+ * <p>
+ * At depth 0, a quiescence search looks only at captures and promotions until the position is quiet,
+ * so that the evaluation isn't taken in the middle of an exchange (the horizon effect).
+ * <p>
+ * If the board has bitbases (see Board.setBitbases), endgames that they know to be won are scored as
+ * KNOWN_WIN plus the static evaluation, so that the search keeps the win and makes progress towards mate.
+ * Endgames that they know to be drawn end the game on the board, so they score 0 like any draw.
+ * <p>
+ * Searched positions are cached in a transposition table, which cuts off nodes that were already searched deep
+ * enough and otherwise supplies the best move found before to be tried first.
+ * <p>
+ * The search makes and undoes moves on the board it is given, so the board must not be used by anyone else
+ * during the search. The board is put in perft mode (see Board.PERFT) since only legal moves are made.
+ */
+public class Search {
+    public static final int INFINITY = 1_000_000;
+    // The score of being checkmated now. Being checkmated in n plies scores -(MATE - n)
+    public static final int MATE = 100_000;
+    public static final int MAX_PLY = 128;
+    // The score of an endgame that the bitbases know to be won, before adding the static evaluation
+    public static final int KNOWN_WIN = 20_000;
+    // The number of nodes between checks of the clock
+    private static final int CHECK_INTERVAL = 1024;
+    // Returned by terminalScore if the game goes on
+    private static final int NOT_TERMINAL = Integer.MIN_VALUE;
+    // Ordering scores of the hash move and the PV move, above any MVV-LVA score
+    private static final int HASH_MOVE_SCORE = 1 << 20;
+    private static final int PV_MOVE_SCORE = HASH_MOVE_SCORE - 1;
+    // Pieces in increasing order of value, for MVV-LVA
+    private static final String PIECE_RANKS = "PNBRQK";
+    // The size of the transposition table of a search that doesn't share one
+    public static final int DEFAULT_TABLE_SIZE_MB = 16;
+
+    /**
+     * The result of a completed iteration
+     *
+     * @param pv    the principal variation, starting with the best move; empty if there are no legal moves
+     * @param score the score of the best move from the perspective of the side to move
+     * @param depth the depth of the iteration
+     * @param nodes the number of nodes searched in all iterations so far
+     */
+    public record Result(int[] pv, int score, int depth, long nodes) {
+        /**
+         * @return the best move, or PackedMove.NONE if there are no legal moves
+         */
+        public int bestMove() {
+            return pv.length == 0 ? PackedMove.NONE : pv[0];
+        }
+    }
+
+    private final Board board;
+    private final TranspositionTable table;
+    // Not shared with other searches, since its pawn hash table isn't thread-safe
+    private final Evaluation evaluation;
+    // 0 for a search on its own or the main thread of a LazySmpSearch, 1 and up for its helper threads
+    private final int helperIndex;
+    // moveLists[ply] holds the moves of the node that is ply plies from the root
+    private final MoveList[] moveLists;
+    // pv[ply][ply...pvLength[ply]-1] is the principal variation found from the node at ply (triangular PV table)
+    private final int[][] pv;
+    private final int[] pvLength;
+    // moveScores[ply][i] is the ordering score of moveLists[ply].get(i), higher first
+    private final int[][] moveScores;
+    // The principal variation of the last completed iteration, tried first in the next one
+    private int[] lastPv;
+
+    private long nodes;
+    private long deadline;
+    // Whether the current iteration may be aborted, which is false for the first iteration of the main search
+    private boolean abortable;
+    // Whether the current iteration was aborted because the time ran out or the search was stopped
+    private boolean aborted;
+    private volatile boolean stopped;
+
+    public Search(Board board) {
+        this(board, new TranspositionTable(DEFAULT_TABLE_SIZE_MB));
+    }
+
+    /**
+     * Create a search on board that caches positions in table, which may be shared with other searches
+     */
+    public Search(Board board, TranspositionTable table) {
+        this(board, table, 0);
+    }
+
+    /**
+     * Create a search for a thread of a LazySmpSearch. Helpers (helperIndex > 0) don't start a new generation
+     * of the table, may be aborted in any iteration, and half of them start one ply deeper than the main search,
+     * so that the threads search different depths at the same time.
+     */
+    Search(Board board, TranspositionTable table, int helperIndex) {
+        this.board = board;
+        this.table = table;
+        this.helperIndex = helperIndex;
+        this.evaluation = new Evaluation();
+        board.PERFT = true;
+        this.moveLists = new MoveList[MAX_PLY];
+        for (int i = 0; i < MAX_PLY; i++) {
+            moveLists[i] = new MoveList();
+        }
+        this.pv = new int[MAX_PLY][MAX_PLY];
+        this.pvLength = new int[MAX_PLY];
+        this.moveScores = new int[MAX_PLY][MoveList.CAPACITY];
+        this.lastPv = new int[0];
+    }
+
+    /**
+     * Search by iterative deepening until maxDepth is reached, timeMillis milliseconds have passed,
+     * a forced mate is found, or stop is called.
+     * Postcondition: the board is unchanged
+     *
+     * @return the result of the deepest completed iteration, which is null only for a helper
+     * that was stopped before completing an iteration
+     */
+    public Result search(long timeMillis, int maxDepth) {
+        assert maxDepth >= 1 && maxDepth < MAX_PLY;
+        deadline = System.nanoTime() + timeMillis * 1_000_000;
+        nodes = 0;
+        aborted = false;
+        lastPv = new int[0];
+        if (helperIndex == 0) {
+            table.newSearch();
+        }
+        if (board.getWinner() != 'u') {
+            stopped = false;
+            return new Result(new int[0], 0, 0, 0);
+        }
+        Result result = null;
+        int startDepth = Math.min(1 + helperIndex % 2, maxDepth);
+        for (int depth = startDepth; depth <= maxDepth; depth++) {
+            abortable = helperIndex > 0 || depth > 1;
+            int score = negamax(depth, 0, -INFINITY, INFINITY);
+            if (aborted) {
+                break;
+            }
+            lastPv = Arrays.copyOf(pv[0], pvLength[0]);
+            result = new Result(lastPv, score, depth, nodes);
+            if (Math.abs(score) >= MATE - MAX_PLY) {
+                // A forced mate was found, and searching deeper can't find a faster one
+                break;
+            }
+        }
+        stopped = false;
+        return result;
+    }
+
+    /**
+     * Abort the search, which then returns the result of the last completed iteration.
+     * If the search hasn't started yet, it is aborted as soon as it may be.
+     * May be called from another thread.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * @return the number of nodes searched so far in the current or last search
+     */
+    long nodes() {
+        return nodes;
+    }
+
+    /**
+     * @return the evaluation of the search, for the statistics of its pawn hash table
+     */
+    Evaluation evaluation() {
+        return evaluation;
+    }
+
+    /**
+     * Requires: the game hasn't ended on the board
+     *
+     * @return the score of the board from the perspective of the side to move, searched to depth plies,
+     * or 0 if the search was aborted
+     */
+    private int negamax(int depth, int ply, int alpha, int beta) {
+        // The root is always searched, so that there is a best move and a PV
+        if (ply > 0 && board.getBitbases() != null) {
+            int result = board.getBitbases().probe(board);
+            if (result == Bitbases.WIN || result == Bitbases.LOSS) {
+                pvLength[ply] = ply;
+                return result * KNOWN_WIN + evaluation.evaluate(board);
+            }
+        }
+        if (depth == 0) {
+            return quiesce(ply, alpha, beta);
+        }
+        pvLength[ply] = ply;
+        if (countNode()) {
+            return 0;
+        }
+        if (ply == MAX_PLY - 1) {
+            return evaluation.evaluate(board);
+        }
+
+        long key = board.hash();
+        long entry = table.probe(key);
+        int hashMove = PackedMove.NONE;
+        if (entry != TranspositionTable.MISS) {
+            hashMove = TranspositionTable.getMove(entry);
+            // The root is always searched, so that there is a best move and a PV
+            if (ply > 0 && TranspositionTable.getDepth(entry) >= depth) {
+                int score = fromTableScore(TranspositionTable.getScore(entry), ply);
+                int bound = TranspositionTable.getBound(entry);
+                // An exact score is both a lower and an upper bound. An exact score inside the window would be
+                // part of the PV, so the node is searched anyway to get the rest of the PV
+                if (bound != TranspositionTable.UPPER_BOUND && score >= beta
+                        || bound != TranspositionTable.LOWER_BOUND && score <= alpha) {
+                    return score;
+                }
+            }
+        }
+
+        MoveList moves = moveLists[ply];
+        board.generateLegalMoves(moves);
+        orderMoves(moves, ply, hashMove);
+        int originalAlpha = alpha;
+        int best = -INFINITY;
+        int bestMove = PackedMove.NONE;
+        for (int i = 0; i < moves.size(); i++) {
+            int move = moves.get(i);
+            board.move(move);
+            // Overwritten by the child if it's searched
+            pvLength[ply + 1] = ply + 1;
+            int score = terminalScore(ply);
+            if (score == NOT_TERMINAL) {
+                score = -negamax(depth - 1, ply + 1, -beta, -alpha);
+            }
+            board.undoLastMove();
+            if (aborted) {
+                return 0;
+            }
+            if (score > best) {
+                best = score;
+                bestMove = move;
+                if (score > alpha) {
+                    alpha = score;
+                    pv[ply][ply] = move;
+                    System.arraycopy(pv[ply + 1], ply + 1, pv[ply], ply + 1, pvLength[ply + 1] - ply - 1);
+                    pvLength[ply] = pvLength[ply + 1];
+                    if (alpha >= beta) {
+                        break;
+                    }
+                }
+            }
+        }
+        int bound = best <= originalAlpha ? TranspositionTable.UPPER_BOUND
+                : best >= beta ? TranspositionTable.LOWER_BOUND : TranspositionTable.EXACT;
+        table.store(key, bestMove, toTableScore(best, ply), depth, bound);
+        return best;
+    }
+
+    /**
+     * Search only captures and promotions, or all moves when in check, since the side to move can
+     * "stand pat": it may decline to capture, so the static evaluation is a lower bound on its score.
+     * Requires: the game hasn't ended on the board
+     *
+     * @return the score of the board from the perspective of the side to move once the position is quiet,
+     * or 0 if the search was aborted
+     */
+    private int quiesce(int ply, int alpha, int beta) {
+        pvLength[ply] = ply;
+        if (countNode()) {
+            return 0;
+        }
+        if (ply == MAX_PLY - 1) {
+            return evaluation.evaluate(board);
+        }
+        MoveList moves = moveLists[ply];
+        int best;
+        if (board.isInCheck()) {
+            // Standing pat is not an option when in check, so all evasions are searched
+            best = -INFINITY;
+            board.generateLegalMoves(moves);
+        } else {
+            best = evaluation.evaluate(board);
+            if (best >= beta) {
+                return best;
+            }
+            alpha = Math.max(alpha, best);
+            board.generateCaptures(moves);
+        }
+        orderMoves(moves, ply, PackedMove.NONE);
+        for (int i = 0; i < moves.size(); i++) {
+            int move = moves.get(i);
+            board.move(move);
+            pvLength[ply + 1] = ply + 1;
+            int score = terminalScore(ply);
+            if (score == NOT_TERMINAL) {
+                score = -quiesce(ply + 1, -beta, -alpha);
+            }
+            board.undoLastMove();
+            if (aborted) {
+                return 0;
+            }
+            if (score > best) {
+                best = score;
+                if (score > alpha) {
+                    alpha = score;
+                    pv[ply][ply] = move;
+                    System.arraycopy(pv[ply + 1], ply + 1, pv[ply], ply + 1, pvLength[ply + 1] - ply - 1);
+                    pvLength[ply] = pvLength[ply + 1];
+                    if (alpha >= beta) {
+                        break;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Count a node and check whether the search should be aborted
+     *
+     * @return whether the search is aborted
+     */
+    private boolean countNode() {
+        nodes++;
+        if (abortable && (stopped || (nodes & (CHECK_INTERVAL - 1)) == 0 && System.nanoTime() >= deadline)) {
+            aborted = true;
+        }
+        return aborted;
+    }
+
+    /**
+     * Called right after a move is made at ply
+     *
+     * @return the score of the position from the perspective of the side that made the move if the game ended
+     * or the position repeated, NOT_TERMINAL otherwise
+     */
+    private int terminalScore(int ply) {
+        char winner = board.getWinner();
+        if (winner == 'd' || board.repetitionCount() >= 2) {
+            // A repeated position is scored as a draw, since the side that is worse off can keep repeating it
+            return 0;
+        } else if (winner != 'u') {
+            // The move checkmates
+            return MATE - (ply + 1);
+        }
+        return NOT_TERMINAL;
+    }
+
+    /**
+     * Mate scores are relative to the root, but the same position can be at a different ply in another search,
+     * so they are stored relative to the position instead
+     */
+    private static int toTableScore(int score, int ply) {
+        if (score >= MATE - MAX_PLY) {
+            return score + ply;
+        } else if (score <= -(MATE - MAX_PLY)) {
+            return score - ply;
+        }
+        return score;
+    }
+
+    /**
+     * The inverse of toTableScore
+     */
+    private static int fromTableScore(int score, int ply) {
+        if (score >= MATE - MAX_PLY) {
+            return score - ply;
+        } else if (score <= -(MATE - MAX_PLY)) {
+            return score + ply;
+        }
+        return score;
+    }
+
+    /**
+     * Put the hash move first, then the move of the last PV at ply, then captures and promotions
+     * by MVV-LVA, then quiet moves, since good moves searched first make the most cutoffs
+     */
+    private void orderMoves(MoveList moves, int ply, int hashMove) {
+        int pvMove = ply < lastPv.length ? lastPv[ply] : PackedMove.NONE;
+        int[] scores = moveScores[ply];
+        for (int i = 0; i < moves.size(); i++) {
+            int move = moves.get(i);
+            if (move == hashMove) {
+                scores[i] = HASH_MOVE_SCORE;
+            } else if (move == pvMove) {
+                scores[i] = PV_MOVE_SCORE;
+            } else {
+                scores[i] = mvvLva(move);
+            }
+        }
+        // Insertion sort, which is stable and fast for a few dozen moves
+        for (int i = 1; i < moves.size(); i++) {
+            int move = moves.get(i);
+            int score = scores[i];
+            int j = i - 1;
+            while (j >= 0 && scores[j] < score) {
+                moves.set(j + 1, moves.get(j));
+                scores[j + 1] = scores[j];
+                j--;
+            }
+            moves.set(j + 1, move);
+            scores[j + 1] = score;
+        }
+    }
+
+    /**
+     * Most valuable victim, least valuable attacker: captures of more valuable pieces come first,
+     * and among captures of the same piece, captures by less valuable pieces come first.
+     * Promotions rank as if they captured the piece that the pawn promotes to.
+     *
+     * @return the ordering score of the move, which is 0 for quiet moves and positive otherwise
+     */
+    private int mvvLva(int move) {
+        int start = PackedMove.getStart(move);
+        int end = PackedMove.getEnd(move);
+        int score = 0;
+        if (PackedMove.getIsCapture(move)) {
+            char victim = PackedMove.getType(move) == PackedMove.EN_PASSANT
+                    ? 'P' : board.getPieceAt(end / 8, end % 8);
+            char attacker = board.getPieceAt(start / 8, start % 8);
+            score += (pieceRank(victim) + 1) * PIECE_RANKS.length() - pieceRank(attacker);
+        }
+        if (PackedMove.getType(move) == PackedMove.PROMOTION) {
+            score += pieceRank(PackedMove.getPromotionType(move)) * PIECE_RANKS.length();
+        }
+        return score;
+    }
+
+    /**
+     * @return the rank of the piece by value, from 0 for a pawn to 5 for a king
+     */
+    private static int pieceRank(char pieceType) {
+        return PIECE_RANKS.indexOf(Character.toUpperCase(pieceType));
+    }
+}
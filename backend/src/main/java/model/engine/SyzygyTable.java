@@ -0,0 +1,738 @@
+package model.engine;
+
+import model.board.Board;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * One Syzygy table file (.rtbw for WDL or .rtbz for DTZ) of a material such as KRPvKP, read from a buffer
+ * that is usually a memory mapping of the file. See SyzygyTablebases for how tables are probed.
+ * <p>
+ * A file holds, for each side to move (WDL only, unless both sides have the same pieces) and each file of
+ * the leading pawn (a to d, or only one if there are no pawns), a compressed sequence of values indexed by
+ * an encoding of the squares of the pieces. The encoding removes the symmetries of the board: the squares
+ * are mirrored so that the leading piece is in the a1-d1-d4 triangle (or the leading pawn on files a to d),
+ * and groups of identical pieces are encoded as combinations of squares.
+ * The sequence is split into blocks that are compressed with a canonical Huffman code whose symbols expand
+ * to pairs of symbols, down to single values. A sparse index finds the block of an index without reading
+ * the others, so a probe reads a few bytes of the header tables and one block of the file.
+ * <p>
+ * The layout follows the files generated by Ronald de Man's tb generator, as read by the probing code of
+ * Stockfish. The header is parsed into small arrays on the first probe; the blocks are only ever read in place.
+ * Reads use absolute positions of the buffer, so a table may be probed by several threads.
+ */
+class SyzygyTable {
+    static final byte[] WDL_MAGIC = {0x71, (byte) 0xE8, 0x23, 0x5D};
+    static final byte[] DTZ_MAGIC = {(byte) 0xD7, 0x66, 0x0C, (byte) 0xA5};
+
+    // Flags of the file
+    private static final int SPLIT = 1;
+    private static final int HAS_PAWNS = 2;
+    // Flags of the sequences
+    private static final int STM = 1;
+    private static final int MAPPED = 2;
+    private static final int WIN_PLIES = 4;
+    private static final int LOSS_PLIES = 8;
+    private static final int WIDE = 16;
+    private static final int SINGLE_VALUE = 128;
+
+    // Pieces are coded as 1 to 6 for white P, N, B, R, Q, K and 9 to 14 for black
+    private static final String PIECE_CODES = "PNBRQK";
+    // The index of the DTZ map of each WDL result, by WDL result + 2
+    private static final int[] WDL_MAP = {1, 3, 0, 2, 0};
+
+    // Encodings of squares, see initialization below
+    private static final int[] MAP_B1H1H7 = new int[64];
+    private static final int[] MAP_A1D1D4 = new int[64];
+    private static final int[][] MAP_KK = new int[10][64];
+    private static final long[][] BINOMIAL = new long[7][64];
+    private static final int[] MAP_PAWNS = new int[64];
+    private static final int[][] LEAD_PAWN_IDX = new int[7][64];
+    private static final int[][] LEAD_PAWNS_SIZE = new int[7][4];
+
+    static {
+        int code = 0;
+        for (int square = 0; square < 64; square++) {
+            if (offDiagonal(square) < 0) {
+                MAP_B1H1H7[square] = code++;
+            }
+        }
+
+        // The squares below the a1-d4 diagonal first, then the diagonal
+        code = 0;
+        for (int square = 0; square < 64; square++) {
+            if (offDiagonal(square) < 0 && square % 8 <= 3 && square / 8 <= 3) {
+                MAP_A1D1D4[square] = code++;
+            }
+        }
+        for (int square = 0; square < 64; square++) {
+            if (offDiagonal(square) == 0 && square % 8 <= 3) {
+                MAP_A1D1D4[square] = code++;
+            }
+        }
+
+        // The 462 legal placements of two kings with the first in the a1-d1-d4 triangle, and the second not
+        // above the a1-h8 diagonal if the first is on it. Placements with both kings on the diagonal come last.
+        code = 0;
+        int[][] bothOnDiagonal = new int[64][];
+        int bothCount = 0;
+        for (int i = 0; i < 10; i++) {
+            for (int first = 0; first <= 27; first++) {
+                if (MAP_A1D1D4[first] != i || (i == 0 && first != 1) || first % 8 > 3 || first / 8 > 3
+                        || offDiagonal(first) > 0) {
+                    continue;
+                }
+                for (int second = 0; second < 64; second++) {
+                    if (Math.abs(first % 8 - second % 8) <= 1 && Math.abs(first / 8 - second / 8) <= 1) {
+                        // The kings are adjacent or on the same square
+                        continue;
+                    } else if (offDiagonal(first) == 0 && offDiagonal(second) > 0) {
+                        continue;
+                    } else if (offDiagonal(first) == 0 && offDiagonal(second) == 0) {
+                        bothOnDiagonal[bothCount++] = new int[]{i, second};
+                    } else {
+                        MAP_KK[i][second] = code++;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < bothCount; i++) {
+            MAP_KK[bothOnDiagonal[i][0]][bothOnDiagonal[i][1]] = code++;
+        }
+
+        // BINOMIAL[k][n] is the number of ways to choose k of n squares
+        BINOMIAL[0][0] = 1;
+        for (int n = 1; n < 64; n++) {
+            for (int k = 0; k < BINOMIAL.length && k <= n; k++) {
+                BINOMIAL[k][n] = (k > 0 ? BINOMIAL[k - 1][n - 1] : 0) + (k < n ? BINOMIAL[k][n - 1] : 0);
+            }
+        }
+
+        // MAP_PAWNS numbers the squares a2-h7 so that the leading pawn, the one nearest the edge and then on
+        // the lowest row, has the highest number, which is also the number of squares left for the other pawns
+        int available = 47;
+        for (int count = 1; count < LEAD_PAWN_IDX.length; count++) {
+            for (int file = 0; file < 4; file++) {
+                int index = 0;
+                for (int row = 1; row <= 6; row++) {
+                    int square = row * 8 + file;
+                    if (count == 1) {
+                        MAP_PAWNS[square] = available--;
+                        MAP_PAWNS[square ^ 7] = available--;
+                    }
+                    LEAD_PAWN_IDX[count][square] = index;
+                    index += (int) BINOMIAL[count - 1][MAP_PAWNS[square]];
+                }
+                LEAD_PAWNS_SIZE[count][file] = index;
+            }
+        }
+    }
+
+    /**
+     * The header of one compressed sequence of values
+     */
+    private static class PairsData {
+        final int[] pieces;
+        final int[] groupLen = new int[8];
+        final long[] groupIdx = new long[8];
+        int flags;
+        int blockSize;
+        long span;
+        int numBlocks;
+        int minSymLen;
+        int lowestSym;
+        long[] base64;
+        int[] symLen;
+        int btree;
+        int sparseIndex;
+        int sparseIndexSize;
+        int blockLength;
+        int blockLengthSize;
+        int data;
+        final int[] mapIdx = new int[4];
+
+        PairsData(int pieceCount) {
+            pieces = new int[pieceCount];
+        }
+
+        long size() {
+            int n = 0;
+            while (groupLen[n] != 0) {
+                n++;
+            }
+            return groupIdx[n];
+        }
+    }
+
+    /**
+     * Where the value of a board is stored: the sequence of a side to move and file of the leading pawn,
+     * and the index in it
+     */
+    record Location(int side, int file, long index) {
+    }
+
+    private final String name;
+    private final boolean dtz;
+    private final ByteBuffer buffer;
+    private final int pieceCount;
+    private final boolean hasPawns;
+    private final boolean hasUniquePieces;
+    // Whether both sides have the same pieces
+    private final boolean symmetric;
+    // The number of pawns of the leading color and of the other color
+    private final int[] pawnCount = new int[2];
+    // pairs[side][file], parsed on the first probe
+    private volatile PairsData[][] pairs;
+    private int dtzMap;
+
+    /**
+     * @param name   the material, such as KRPvKP, with white as the first side
+     * @param dtz    whether the buffer holds a DTZ table rather than a WDL table
+     * @param buffer the content of the file, which is not copied
+     * @throws IllegalArgumentException if the name is not a material or the buffer doesn't start with the magic
+     *                                  number of the table type
+     */
+    SyzygyTable(String name, boolean dtz, ByteBuffer buffer) {
+        if (!isMaterial(name)) {
+            throw new IllegalArgumentException("Not a Syzygy material: " + name);
+        }
+        byte[] magic = dtz ? DTZ_MAGIC : WDL_MAGIC;
+        if (buffer.capacity() < magic.length + 1) {
+            throw new IllegalArgumentException("Syzygy table is too short: " + name);
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if (buffer.get(i) != magic[i]) {
+                throw new IllegalArgumentException("Not a Syzygy " + (dtz ? "DTZ" : "WDL") + " table: " + name);
+            }
+        }
+        this.name = name;
+        this.dtz = dtz;
+        this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.pieceCount = name.length() - 1;
+        String white = name.substring(0, name.indexOf('v'));
+        String black = name.substring(name.indexOf('v') + 1);
+        this.symmetric = white.equals(black);
+        this.hasPawns = name.indexOf('P') >= 0;
+        boolean unique = false;
+        for (char type : "PNBRQ".toCharArray()) {
+            unique |= count(white, type) == 1 || count(black, type) == 1;
+        }
+        this.hasUniquePieces = unique;
+        // The color with fewer pawns leads, since that compresses better
+        int whitePawns = count(white, 'P');
+        int blackPawns = count(black, 'P');
+        boolean whiteLeads = blackPawns == 0 || whitePawns > 0 && blackPawns >= whitePawns;
+        pawnCount[0] = whiteLeads ? whitePawns : blackPawns;
+        pawnCount[1] = whiteLeads ? blackPawns : whitePawns;
+    }
+
+    /**
+     * @return whether name is a material such as KRPvKP
+     */
+    static boolean isMaterial(String name) {
+        return name.matches("K[QRBNP]*vK[QRBNP]*");
+    }
+
+    private static int count(String side, char type) {
+        return (int) side.chars().filter(c -> c == type).count();
+    }
+
+    String name() {
+        return name;
+    }
+
+    int pieceCount() {
+        return pieceCount;
+    }
+
+    /**
+     * @return the number of indices of the sequence of the side to move and the file of the leading pawn
+     */
+    long size(int side, int file) {
+        return pairs()[side][file].size();
+    }
+
+    /**
+     * @return the value stored at location: for WDL, the result plus 2, and for DTZ, see dtzPlies
+     */
+    int value(Location location) {
+        return decompress(pairs()[location.side()][location.file()], location.index());
+    }
+
+    /**
+     * @param wdl   the WDL result of the board at location, which must not be a draw
+     * @param value the value stored at location
+     * @return the number of plies to the next capture or pawn move (which resets the fifty-move counter),
+     * counting that move
+     */
+    int dtzPlies(Location location, int wdl, int value) {
+        PairsData d = pairs()[0][location.file()];
+        if ((d.flags & MAPPED) != 0) {
+            int i = d.mapIdx[WDL_MAP[wdl + 2]] + value;
+            value = (d.flags & WIDE) != 0 ? u16(dtzMap + 2 * i) : u8(dtzMap + i);
+        }
+        // Values are stored in moves rather than plies unless the flags say otherwise
+        if (wdl == SyzygyTablebases.WIN && (d.flags & WIN_PLIES) == 0
+                || wdl == SyzygyTablebases.LOSS && (d.flags & LOSS_PLIES) == 0
+                || wdl == SyzygyTablebases.CURSED_WIN || wdl == SyzygyTablebases.BLESSED_LOSS) {
+            value *= 2;
+        }
+        return value + 1;
+    }
+
+    /**
+     * @param blackStronger whether black has the pieces of the first side of the name
+     * @return where the value of the board is stored, or null if this is a DTZ table that only stores
+     * the other side to move
+     */
+    Location locate(Board board, boolean blackStronger) {
+        PairsData[][] pairs = pairs();
+        // The first side of the name is white in the table, and a table of a symmetric material
+        // only stores white to move
+        boolean flip = blackStronger || symmetric && !board.whiteToMove();
+        int flipColor = flip ? 8 : 0;
+        int flipSquares = flip ? 56 : 0;
+        int side = (flip ? 1 : 0) ^ (board.whiteToMove() ? 0 : 1);
+
+        int[] squares = new int[pieceCount];
+        int[] pieces = new int[pieceCount];
+        int size = 0;
+        int leadPawnsCount = 0;
+        long leadPawns = 0;
+        int file = 0;
+        if (hasPawns) {
+            // The pawns of the color of the first piece of the table lead
+            leadPawns = board.getBitmap((pairs[0][0].pieces[0] ^ flipColor) < 8 ? 'P' : 'p');
+            for (long b = leadPawns; b != 0; b &= b - 1) {
+                squares[size++] = Long.numberOfTrailingZeros(b) ^ flipSquares;
+            }
+            leadPawnsCount = size;
+            int lead = 0;
+            for (int i = 1; i < leadPawnsCount; i++) {
+                if (MAP_PAWNS[squares[i]] > MAP_PAWNS[squares[lead]]) {
+                    lead = i;
+                }
+            }
+            swap(squares, 0, lead);
+            file = Math.min(squares[0] % 8, 7 - squares[0] % 8);
+        }
+        if (dtz && (pairs[0][file].flags & STM) != side && !(symmetric && !hasPawns)) {
+            return null;
+        }
+
+        for (int square = 0; square < 64; square++) {
+            char piece = board.getPieceAt(square / 8, square % 8);
+            if (piece != 0 && (leadPawns & (1L << square)) == 0) {
+                squares[size] = square ^ flipSquares;
+                pieces[size++] = pieceCode(piece) ^ flipColor;
+            }
+        }
+        if (size != pieceCount) {
+            throw new IllegalArgumentException("Board doesn't have the material of " + name);
+        }
+        PairsData d = pairs[dtz ? 0 : side][file];
+
+        // Order the pieces as in the table
+        for (int i = leadPawnsCount; i < size - 1; i++) {
+            for (int j = i + 1; j < size; j++) {
+                if (d.pieces[i] == pieces[j]) {
+                    swap(pieces, i, j);
+                    swap(squares, i, j);
+                    break;
+                }
+            }
+        }
+        // Mirror the leading piece to files a to d
+        if (squares[0] % 8 > 3) {
+            for (int i = 0; i < size; i++) {
+                squares[i] ^= 7;
+            }
+        }
+
+        long index;
+        if (hasPawns) {
+            index = LEAD_PAWN_IDX[leadPawnsCount][squares[0]];
+            sortBy(squares, 1, leadPawnsCount, MAP_PAWNS);
+            for (int i = 1; i < leadPawnsCount; i++) {
+                index += BINOMIAL[i][MAP_PAWNS[squares[i]]];
+            }
+        } else {
+            // Mirror the leading piece to rows 1 to 4, then the first piece of the leading group that is not on
+            // the a1-h8 diagonal below it
+            if (squares[0] / 8 > 3) {
+                for (int i = 0; i < size; i++) {
+                    squares[i] ^= 56;
+                }
+            }
+            for (int i = 0; i < d.groupLen[0]; i++) {
+                if (offDiagonal(squares[i]) == 0) {
+                    continue;
+                }
+                if (offDiagonal(squares[i]) > 0) {
+                    for (int j = i; j < size; j++) {
+                        squares[j] = ((squares[j] >>> 3) | (squares[j] << 3)) & 63;
+                    }
+                }
+                break;
+            }
+            index = hasUniquePieces ? encodeUniqueTriple(squares) : MAP_KK[MAP_A1D1D4[squares[0]]][squares[1]];
+        }
+
+        // The other groups are combinations of squares, not counting the squares of the previous groups
+        index *= d.groupIdx[0];
+        int groupStart = d.groupLen[0];
+        boolean remainingPawns = hasPawns && pawnCount[1] > 0;
+        for (int next = 1; d.groupLen[next] != 0; next++) {
+            Arrays.sort(squares, groupStart, groupStart + d.groupLen[next]);
+            long n = 0;
+            for (int i = 0; i < d.groupLen[next]; i++) {
+                int square = squares[groupStart + i];
+                int adjust = 0;
+                for (int j = 0; j < groupStart; j++) {
+                    if (square > squares[j]) {
+                        adjust++;
+                    }
+                }
+                n += BINOMIAL[i + 1][square - adjust - (remainingPawns ? 8 : 0)];
+            }
+            remainingPawns = false;
+            index += n * d.groupIdx[next];
+            groupStart += d.groupLen[next];
+        }
+        return new Location(dtz ? 0 : side, file, index);
+    }
+
+    /**
+     * @return the index of the first three pieces, with the first in the a1-d1-d4 triangle
+     * and the first not on the a1-h8 diagonal below it
+     */
+    private static long encodeUniqueTriple(int[] squares) {
+        int adjust1 = squares[1] > squares[0] ? 1 : 0;
+        int adjust2 = (squares[2] > squares[0] ? 1 : 0) + (squares[2] > squares[1] ? 1 : 0);
+        if (offDiagonal(squares[0]) != 0) {
+            return (MAP_A1D1D4[squares[0]] * 63L + (squares[1] - adjust1)) * 62 + squares[2] - adjust2;
+        } else if (offDiagonal(squares[1]) != 0) {
+            return (6 * 63L + (squares[0] / 8) * 28 + MAP_B1H1H7[squares[1]]) * 62 + squares[2] - adjust2;
+        } else if (offDiagonal(squares[2]) != 0) {
+            return 6 * 63 * 62 + 4 * 28 * 62 + (squares[0] / 8) * 7 * 28
+                    + (squares[1] / 8 - adjust1) * 28 + MAP_B1H1H7[squares[2]];
+        }
+        return 6 * 63 * 62 + 4 * 28 * 62 + 4 * 7 * 28 + (squares[0] / 8) * 7 * 6
+                + (squares[1] / 8 - adjust1) * 6 + (squares[2] / 8 - adjust2);
+    }
+
+    /**
+     * @return the value at index of the sequence
+     */
+    private int decompress(PairsData d, long index) {
+        if ((d.flags & SINGLE_VALUE) != 0) {
+            return d.minSymLen;
+        }
+        // The sparse index gives the block and offset of the middle of each span of indices
+        int k = (int) (index / d.span);
+        int block = buffer.getInt(d.sparseIndex + 6 * k);
+        int offset = u16(d.sparseIndex + 6 * k + 4);
+        offset += (int) (index % d.span - d.span / 2);
+        while (offset < 0) {
+            offset += u16(d.blockLength + 2 * --block) + 1;
+        }
+        while (offset > u16(d.blockLength + 2 * block)) {
+            offset -= u16(d.blockLength + 2 * block++) + 1;
+        }
+
+        // Skip the symbols of the block before offset
+        int position = (int) (d.data + (long) block * d.blockSize);
+        long bits = Long.reverseBytes(buffer.getLong(position));
+        position += 8;
+        int bitCount = 64;
+        int symbol;
+        while (true) {
+            int length = 0;
+            while (Long.compareUnsigned(bits, d.base64[length]) < 0) {
+                length++;
+            }
+            symbol = (int) ((bits - d.base64[length]) >>> (64 - length - d.minSymLen));
+            symbol += u16(d.lowestSym + 2 * length);
+            if (offset < d.symLen[symbol] + 1) {
+                break;
+            }
+            offset -= d.symLen[symbol] + 1;
+            length += d.minSymLen;
+            bits <<= length;
+            bitCount -= length;
+            if (bitCount <= 32) {
+                bitCount += 32;
+                bits |= (Integer.reverseBytes(buffer.getInt(position)) & 0xFFFFFFFFL) << (64 - bitCount);
+                position += 4;
+            }
+        }
+        // Expand the symbol down to the value at offset
+        while (d.symLen[symbol] != 0) {
+            int left = left(d, symbol);
+            if (offset < d.symLen[left] + 1) {
+                symbol = left;
+            } else {
+                offset -= d.symLen[left] + 1;
+                symbol = right(d, symbol);
+            }
+        }
+        return left(d, symbol);
+    }
+
+    private PairsData[][] pairs() {
+        PairsData[][] result = pairs;
+        if (result == null) {
+            synchronized (this) {
+                result = pairs;
+                if (result == null) {
+                    result = parse();
+                    pairs = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the headers of the sequences, with the positions of their tables in the buffer
+     * @throws IllegalArgumentException if the flags of the file don't match the material
+     */
+    private PairsData[][] parse() {
+        int position = 4;
+        int flags = u8(position++);
+        if (((flags & HAS_PAWNS) != 0) != hasPawns || ((flags & SPLIT) != 0) == symmetric) {
+            throw new IllegalArgumentException("Flags of Syzygy table don't match the material: " + name);
+        }
+        int sides = !dtz && !symmetric ? 2 : 1;
+        int files = hasPawns ? 4 : 1;
+        boolean pawnsOfBothColors = hasPawns && pawnCount[1] > 0;
+        PairsData[][] result = new PairsData[sides][files];
+        for (int file = 0; file < files; file++) {
+            for (int side = 0; side < sides; side++) {
+                result[side][file] = new PairsData(pieceCount);
+            }
+            int[][] order = {
+                    {u8(position) & 0xF, pawnsOfBothColors ? u8(position + 1) & 0xF : 0xF},
+                    {u8(position) >>> 4, pawnsOfBothColors ? u8(position + 1) >>> 4 : 0xF}};
+            position += pawnsOfBothColors ? 2 : 1;
+            for (int k = 0; k < pieceCount; k++, position++) {
+                for (int side = 0; side < sides; side++) {
+                    result[side][file].pieces[k] = side == 1 ? u8(position) >>> 4 : u8(position) & 0xF;
+                }
+            }
+            for (int side = 0; side < sides; side++) {
+                setGroups(result[side][file], order[side], file);
+            }
+        }
+        position += position & 1;
+
+        for (int file = 0; file < files; file++) {
+            for (int side = 0; side < sides; side++) {
+                position = setSizes(result[side][file], position);
+            }
+        }
+        if (dtz) {
+            dtzMap = position;
+            for (int file = 0; file < files; file++) {
+                PairsData d = result[0][file];
+                if ((d.flags & MAPPED) == 0) {
+                    continue;
+                }
+                // Four maps, one per WDL result other than a draw
+                if ((d.flags & WIDE) != 0) {
+                    position += position & 1;
+                    for (int i = 0; i < 4; i++) {
+                        d.mapIdx[i] = (position - dtzMap) / 2 + 1;
+                        position += 2 * u16(position) + 2;
+                    }
+                } else {
+                    for (int i = 0; i < 4; i++) {
+                        d.mapIdx[i] = position - dtzMap + 1;
+                        position += u8(position) + 1;
+                    }
+                }
+            }
+            position += position & 1;
+        }
+        for (int file = 0; file < files; file++) {
+            for (int side = 0; side < sides; side++) {
+                result[side][file].sparseIndex = position;
+                position += 6 * result[side][file].sparseIndexSize;
+            }
+        }
+        for (int file = 0; file < files; file++) {
+            for (int side = 0; side < sides; side++) {
+                result[side][file].blockLength = position;
+                position += 2 * result[side][file].blockLengthSize;
+            }
+        }
+        for (int file = 0; file < files; file++) {
+            for (int side = 0; side < sides; side++) {
+                PairsData d = result[side][file];
+                position = (position + 0x3F) & ~0x3F;
+                d.data = position;
+                position += d.numBlocks * d.blockSize;
+                if (d.numBlocks > 0 && position > buffer.capacity()) {
+                    throw new IllegalArgumentException("Syzygy table is truncated: " + name);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Split the pieces into groups of identical pieces (with the leading group first) and set the factor
+     * of each group in the index
+     *
+     * @param order the position of the leading group and of the group of the other pawns in the index
+     */
+    private void setGroups(PairsData d, int[] order, int file) {
+        int n = 0;
+        int firstLength = hasPawns ? 0 : hasUniquePieces ? 3 : 2;
+        d.groupLen[n] = 1;
+        for (int i = 1; i < pieceCount; i++) {
+            if (--firstLength > 0 || d.pieces[i] == d.pieces[i - 1]) {
+                d.groupLen[n]++;
+            } else {
+                d.groupLen[++n] = 1;
+            }
+        }
+        d.groupLen[++n] = 0;
+        boolean pawnsOfBothColors = hasPawns && pawnCount[1] > 0;
+        int next = pawnsOfBothColors ? 2 : 1;
+        int freeSquares = 64 - d.groupLen[0] - (pawnsOfBothColors ? d.groupLen[1] : 0);
+        long index = 1;
+        for (int k = 0; next < n || k == order[0] || k == order[1]; k++) {
+            if (k == order[0]) {
+                d.groupIdx[0] = index;
+                index *= hasPawns ? LEAD_PAWNS_SIZE[d.groupLen[0]][file] : hasUniquePieces ? 31332 : 462;
+            } else if (k == order[1]) {
+                d.groupIdx[1] = index;
+                index *= BINOMIAL[d.groupLen[1]][48 - d.groupLen[0]];
+            } else {
+                d.groupIdx[next] = index;
+                index *= BINOMIAL[d.groupLen[next]][freeSquares];
+                freeSquares -= d.groupLen[next++];
+            }
+        }
+        d.groupIdx[n] = index;
+    }
+
+    /**
+     * Read the sizes and the Huffman code of the sequence
+     *
+     * @return the position after them
+     */
+    private int setSizes(PairsData d, int position) {
+        d.flags = u8(position++);
+        if ((d.flags & SINGLE_VALUE) != 0) {
+            d.minSymLen = u8(position++);
+            return position;
+        }
+        d.blockSize = 1 << u8(position++);
+        d.span = 1L << u8(position++);
+        d.sparseIndexSize = (int) ((d.size() + d.span - 1) / d.span);
+        int padding = u8(position++);
+        d.numBlocks = buffer.getInt(position);
+        position += 4;
+        d.blockLengthSize = d.numBlocks + padding;
+        int maxSymLen = u8(position++);
+        d.minSymLen = u8(position++);
+        d.lowestSym = position;
+        // base64[i] is the lowest code of length minSymLen + i, aligned to the top of a long
+        d.base64 = new long[maxSymLen - d.minSymLen + 1];
+        for (int i = d.base64.length - 2; i >= 0; i--) {
+            d.base64[i] = (d.base64[i + 1] + u16(d.lowestSym + 2 * i) - u16(d.lowestSym + 2 * (i + 1))) / 2;
+        }
+        for (int i = 0; i < d.base64.length; i++) {
+            int shift = 64 - i - d.minSymLen;
+            d.base64[i] = shift >= 64 ? 0 : d.base64[i] << shift;
+        }
+        position += 2 * d.base64.length;
+        d.symLen = new int[u16(position)];
+        position += 2;
+        d.btree = position;
+        boolean[] visited = new boolean[d.symLen.length];
+        for (int symbol = 0; symbol < d.symLen.length; symbol++) {
+            if (!visited[symbol]) {
+                d.symLen[symbol] = symbolLength(d, symbol, visited);
+            }
+        }
+        return position + 3 * d.symLen.length + (d.symLen.length & 1);
+    }
+
+    /**
+     * @return the number of values that the symbol expands to, minus one
+     */
+    private int symbolLength(PairsData d, int symbol, boolean[] visited) {
+        visited[symbol] = true;
+        int right = right(d, symbol);
+        if (right == 0xFFF) {
+            return 0;
+        }
+        int left = left(d, symbol);
+        if (!visited[left]) {
+            d.symLen[left] = symbolLength(d, left, visited);
+        }
+        if (!visited[right]) {
+            d.symLen[right] = symbolLength(d, right, visited);
+        }
+        return d.symLen[left] + d.symLen[right] + 1;
+    }
+
+    // Each symbol of the tree is 3 bytes: the 12-bit left and right symbols it expands to
+    private int left(PairsData d, int symbol) {
+        int position = d.btree + 3 * symbol;
+        return ((u8(position + 1) & 0xF) << 8) | u8(position);
+    }
+
+    private int right(PairsData d, int symbol) {
+        int position = d.btree + 3 * symbol;
+        return (u8(position + 2) << 4) | (u8(position + 1) >>> 4);
+    }
+
+    private int u8(int position) {
+        return buffer.get(position) & 0xFF;
+    }
+
+    private int u16(int position) {
+        return buffer.getShort(position) & 0xFFFF;
+    }
+
+    /**
+     * @return the code of piece in the files
+     */
+    static int pieceCode(char piece) {
+        return PIECE_CODES.indexOf(Character.toUpperCase(piece)) + 1 + (Character.isLowerCase(piece) ? 8 : 0);
+    }
+
+    /**
+     * @return the row minus the file of the square, which is 0 on the a1-h8 diagonal and negative below it
+     */
+    private static int offDiagonal(int square) {
+        return square / 8 - square % 8;
+    }
+
+    private static void swap(int[] array, int i, int j) {
+        int temp = array[i];
+        array[i] = array[j];
+        array[j] = temp;
+    }
+
+    /**
+     * Sort array[from, to) by increasing key[array[i]]
+     */
+    private static void sortBy(int[] array, int from, int to, int[] key) {
+        for (int i = from + 1; i < to; i++) {
+            int value = array[i];
+            int j = i - 1;
+            while (j >= from && key[array[j]] > key[value]) {
+                array[j + 1] = array[j];
+                j--;
+            }
+            array[j + 1] = value;
+        }
+    }
+}
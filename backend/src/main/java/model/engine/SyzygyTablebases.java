@@ -0,0 +1,371 @@
+package model.engine;
+
+import model.board.BitmapBoard;
+import model.board.Board;
+import model.move.MoveList;
+import model.move.PackedMove;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Probes Syzygy tablebases, the endgame tables of Ronald de Man, from a directory of .rtbw (WDL) and .rtbz (DTZ)
+ * files named by their material, such as KRPvKP.rtbw. See
+ * <a href="https://www.chessprogramming.org/Syzygy_Bases">chess programming wiki</a> for more details.
+ * <p>
+ * WDL tables give the result with perfect play from the perspective of the side to move, where a cursed win or
+ * blessed loss is a win or loss that the fifty-move rule turns into a draw. DTZ tables give the distance to the
+ * next capture or pawn move that keeps the result ("distance to zeroing"), for one side to move only.
+ * Neither covers castling rights, and positions where a capture is the best move or en passant is possible
+ * may be stored wrong to compress better, so probes first look at the captures (and for DTZ, pawn moves) and
+ * probe the tables of the positions after them, as Stockfish does.
+ * <p>
+ * Files are memory-mapped when the tablebases are opened, so the operating system reads the pages that probes
+ * touch and caches them for every process. The header of a table is parsed on its first probe. Probes copy the
+ * board, so the tablebases may be probed by several searches at once. Files must be smaller than 2 GB,
+ * which holds for tables of up to 6 pieces.
+ */
+public class SyzygyTablebases {
+    // Results of probeWdl, from the perspective of the side to move
+    public static final int WIN = 2;
+    public static final int CURSED_WIN = 1;
+    public static final int DRAW = 0;
+    public static final int BLESSED_LOSS = -1;
+    public static final int LOSS = -2;
+    // The board is not covered by the tablebases
+    public static final int UNKNOWN = Integer.MIN_VALUE;
+
+    public static final String WDL_SUFFIX = ".rtbw";
+    public static final String DTZ_SUFFIX = ".rtbz";
+    // The length of a table file is 16 more than a multiple of 64
+    private static final int FILE_ALIGNMENT = 64;
+    private static final int FILE_REMAINDER = 16;
+
+    // The states of a probe (see Probe)
+    private static final int OK = 0;
+    private static final int FAIL = 1;
+    private static final int ZEROING_BEST_MOVE = 2;
+    private static final int CHANGE_STM = 3;
+
+    /**
+     * What the positions searched by one probe share: its state, and a list of moves for each ply
+     * so that the search doesn't allocate one for every position
+     */
+    private static class Probe {
+        int state = OK;
+        private final List<MoveList> moveLists = new ArrayList<>();
+
+        MoveList moves(int ply) {
+            while (moveLists.size() <= ply) {
+                moveLists.add(new MoveList());
+            }
+            return moveLists.get(ply);
+        }
+    }
+
+    private final Map<String, SyzygyTable> wdlTables = new HashMap<>();
+    private final Map<String, SyzygyTable> dtzTables = new HashMap<>();
+    private int maxPieces;
+
+    /**
+     * Map the tables in dir. Other files are ignored.
+     *
+     * @throws IOException if dir can't be listed or a table can't be read or is malformed
+     */
+    public SyzygyTablebases(Path dir) throws IOException {
+        List<Path> paths;
+        try (var files = Files.list(dir)) {
+            paths = files.toList();
+        }
+        for (Path path : paths) {
+            String fileName = path.getFileName().toString();
+            boolean dtz = fileName.endsWith(DTZ_SUFFIX);
+            if (!dtz && !fileName.endsWith(WDL_SUFFIX)) {
+                continue;
+            }
+            String name = fileName.substring(0, fileName.length() - WDL_SUFFIX.length());
+            if (!SyzygyTable.isMaterial(name)) {
+                continue;
+            }
+            SyzygyTable table;
+            try {
+                table = new SyzygyTable(name, dtz, map(path));
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            (dtz ? dtzTables : wdlTables).put(name, table);
+            maxPieces = Math.max(maxPieces, table.pieceCount());
+        }
+    }
+
+    private static MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Syzygy tables larger than 2 GB are not supported: " + path);
+            }
+            if (length % FILE_ALIGNMENT != FILE_REMAINDER) {
+                throw new IOException("Corrupted Syzygy table: " + path);
+            }
+            // The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        }
+    }
+
+    /**
+     * @return the largest number of pieces (including kings) of the WDL tables, or 0 if there are none
+     */
+    public int maxPieces() {
+        return maxPieces;
+    }
+
+    /**
+     * @return the number of WDL tables
+     */
+    public int wdlCount() {
+        return wdlTables.size();
+    }
+
+    /**
+     * @return the number of DTZ tables
+     */
+    public int dtzCount() {
+        return dtzTables.size();
+    }
+
+    /**
+     * @return WIN, CURSED_WIN, DRAW, BLESSED_LOSS or LOSS from the perspective of the side to move
+     * if the board is covered by the tablebases, UNKNOWN otherwise
+     */
+    public int probeWdl(BitmapBoard board) {
+        Board position = prepare(board);
+        if (position == null) {
+            return UNKNOWN;
+        }
+        Probe probe = new Probe();
+        int wdl = search(position, false, probe, 0);
+        return probe.state == FAIL ? UNKNOWN : wdl;
+    }
+
+    /**
+     * @return the number of plies to the next capture or pawn move (or checkmate) with best play, counting that
+     * move, positive if the side to move wins and negative if it loses, if the board is covered by the tablebases;
+     * 0 if the board is drawn, and UNKNOWN otherwise. The distance is 100 more for cursed wins and blessed losses.
+     * The distance may be one ply longer than the best, since the tables store some distances in moves.
+     */
+    public int probeDtz(BitmapBoard board) {
+        Board position = prepare(board);
+        if (position == null) {
+            return UNKNOWN;
+        }
+        Probe probe = new Probe();
+        int dtz = probeDtz(position, probe, 0);
+        return probe.state == FAIL ? UNKNOWN : dtz;
+    }
+
+    /**
+     * @return a copy of the board with the fifty-move counter reset, in perft mode so that repetitions are not
+     * draws, or null if the board can't be covered because of its castling rights or number of pieces
+     */
+    private Board prepare(BitmapBoard board) {
+        if (board.getCastlingRights() != 0 || Long.bitCount(occupancy(board)) > maxPieces) {
+            return null;
+        }
+        Board position = new BitmapBoard(board);
+        position.PERFT = true;
+        position.resetHalfMoveClock();
+        return position;
+    }
+
+    private static long occupancy(Board board) {
+        long occupancy = 0;
+        for (char piece : "PNBRQKpnbrqk".toCharArray()) {
+            occupancy |= board.getBitmap(piece);
+        }
+        return occupancy;
+    }
+
+    /**
+     * Search the captures (and pawn moves if checkZeroing) before probing the WDL table, since the table may
+     * be wrong when one of them is best.
+     *
+     * @param probe its state is set to FAIL if a table is missing, to ZEROING_BEST_MOVE if a capture
+     *              (or pawn move) is best, and to OK otherwise
+     * @param ply   the number of moves made since the start of the probe
+     * @return the WDL result of the board
+     */
+    private int search(Board board, boolean checkZeroing, Probe probe, int ply) {
+        if (board.getWinner() != 'u') {
+            // Checkmate, stalemate or insufficient material
+            probe.state = OK;
+            return board.getWinner() == 'd' ? DRAW : LOSS;
+        }
+        MoveList moves = probe.moves(ply);
+        board.generateLegalMoves(moves);
+        int bestValue = LOSS;
+        int moveCount = 0;
+        for (int i = 0; i < moves.size(); i++) {
+            int move = moves.get(i);
+            if (!PackedMove.getIsCapture(move) && (!checkZeroing || !isPawnMove(board, move))) {
+                continue;
+            }
+            moveCount++;
+            board.move(move);
+            int value = -search(board, false, probe, ply + 1);
+            board.undoLastMove();
+            if (probe.state == FAIL) {
+                return DRAW;
+            }
+            if (value > bestValue) {
+                bestValue = value;
+                if (value >= WIN) {
+                    probe.state = ZEROING_BEST_MOVE;
+                    return value;
+                }
+            }
+        }
+        // If every move has been searched, the table isn't needed (and it would be wrong with en passant)
+        boolean noMoreMoves = moveCount == moves.size();
+        int value;
+        if (noMoreMoves) {
+            value = bestValue;
+        } else {
+            value = probeWdlTable(board, probe);
+            if (probe.state == FAIL) {
+                return DRAW;
+            }
+        }
+        if (bestValue >= value) {
+            probe.state = bestValue > DRAW || noMoreMoves ? ZEROING_BEST_MOVE : OK;
+            return bestValue;
+        }
+        probe.state = OK;
+        return value;
+    }
+
+    private int probeDtz(Board board, Probe probe, int ply) {
+        if (board.getWinner() != 'u') {
+            probe.state = OK;
+            return board.getWinner() == 'd' ? 0 : -1;
+        }
+        probe.state = OK;
+        int wdl = search(board, true, probe, ply);
+        if (probe.state == FAIL || wdl == DRAW) {
+            return 0;
+        }
+        if (probe.state == ZEROING_BEST_MOVE) {
+            // The best move is a capture or pawn move, whose distance the table doesn't store
+            return dtzBeforeZeroing(wdl);
+        }
+        int dtz = probeDtzTable(board, wdl, probe);
+        if (probe.state == FAIL) {
+            return 0;
+        }
+        if (probe.state != CHANGE_STM) {
+            return (dtz + (wdl == BLESSED_LOSS || wdl == CURSED_WIN ? 100 : 0)) * Integer.signum(wdl);
+        }
+
+        // The table stores the other side to move, so find the move of the best distance.
+        // The search above is done with the moves of this ply, so they can be generated again.
+        MoveList moves = probe.moves(ply);
+        board.generateLegalMoves(moves);
+        int minDtz = Integer.MAX_VALUE;
+        for (int i = 0; i < moves.size(); i++) {
+            int move = moves.get(i);
+            boolean zeroing = PackedMove.getIsCapture(move) || isPawnMove(board, move);
+            board.move(move);
+            // After a zeroing move, the distance is that of the move itself, with the sign of the result after it
+            dtz = zeroing ? -dtzBeforeZeroing(search(board, false, probe, ply + 1)) : -probeDtz(board, probe, ply + 1);
+            if (dtz == 1 && board.getWinner() != 'u' && board.getWinner() != 'd') {
+                // The move checkmates
+                minDtz = 1;
+            }
+            if (!zeroing) {
+                dtz += Integer.signum(dtz);
+            }
+            if (dtz < minDtz && Integer.signum(dtz) == Integer.signum(wdl)) {
+                minDtz = dtz;
+            }
+            board.undoLastMove();
+            if (probe.state == FAIL) {
+                return 0;
+            }
+        }
+        // Without legal moves, the side to move is checkmated
+        return minDtz == Integer.MAX_VALUE ? -1 : minDtz;
+    }
+
+    private static int dtzBeforeZeroing(int wdl) {
+        return switch (wdl) {
+            case WIN -> 1;
+            case CURSED_WIN -> 101;
+            case BLESSED_LOSS -> -101;
+            case LOSS -> -1;
+            default -> 0;
+        };
+    }
+
+    private static boolean isPawnMove(Board board, int move) {
+        int start = PackedMove.getStart(move);
+        return Character.toUpperCase(board.getPieceAt(start / 8, start % 8)) == 'P';
+    }
+
+    private int probeWdlTable(Board board, Probe probe) {
+        if (Long.bitCount(occupancy(board)) == 2) {
+            return DRAW;
+        }
+        boolean blackStronger = !wdlTables.containsKey(material(board, true));
+        SyzygyTable table = wdlTables.get(material(board, !blackStronger));
+        if (table == null) {
+            probe.state = FAIL;
+            return DRAW;
+        }
+        return table.value(table.locate(board, blackStronger)) - 2;
+    }
+
+    /**
+     * @param wdl the WDL result of the board, which is not a draw
+     * @return the distance stored for the board, with the state of the probe set to CHANGE_STM if the table
+     * only stores the other side to move
+     */
+    private int probeDtzTable(Board board, int wdl, Probe probe) {
+        boolean blackStronger = !dtzTables.containsKey(material(board, true));
+        SyzygyTable table = dtzTables.get(material(board, !blackStronger));
+        if (table == null) {
+            probe.state = FAIL;
+            return 0;
+        }
+        SyzygyTable.Location location = table.locate(board, blackStronger);
+        if (location == null) {
+            probe.state = CHANGE_STM;
+            return 0;
+        }
+        return table.dtzPlies(location, wdl, table.value(location));
+    }
+
+    /**
+     * @param whiteFirst whether white is the first side of the name
+     * @return the name of the material of the board, such as KRPvKP
+     */
+    static String material(Board board, boolean whiteFirst) {
+        String white = side(board, "KQRBNP");
+        String black = side(board, "kqrbnp").toUpperCase();
+        return whiteFirst ? white + "v" + black : black + "v" + white;
+    }
+
+    private static String side(Board board, String pieces) {
+        StringBuilder side = new StringBuilder();
+        for (char piece : pieces.toCharArray()) {
+            side.append(String.valueOf(Character.toUpperCase(piece)).repeat(board.getPieceCount(piece)));
+        }
+        return side.toString();
+    }
+}
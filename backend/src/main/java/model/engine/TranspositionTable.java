@@ -0,0 +1,203 @@
+package model.engine;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-size transposition table that caches the results of searching positions, keyed by their Zobrist hash.
+ * See <a href="https://www.chessprogramming.org/Transposition_Table">chess programming wiki</a> for more details.
+ * <p>
+ * Each entry is two longs: the key XOR the data, and the data, which packs the best move, score, depth,
+ * bound type and the generation (the search it was stored in). The table is shared by several search threads
+ * without locks: a reader checks that the two longs XOR to the key, so an entry torn by concurrent writers
+ * is rejected instead of being mistaken for the entry of another position ("lockless hashing").
+ * <p>
+ * Layout of the data (from the least significant bit):
+ * <pre>
+ * bits 0-16:  best move (see PackedMove), 0 if there is none
+ * bits 17-36: score, as a 20-bit two's complement number
+ * bits 37-44: depth
+ * bits 45-46: bound type (EXACT, LOWER_BOUND, UPPER_BOUND), never 0 so that an empty slot is all zeroes
+ * bits 47-54: generation
+ * </pre>
+ */
+public class TranspositionTable {
+    // The score is the exact score of the position
+    public static final int EXACT = 1;
+    // The score is a lower bound, since the search failed high (score >= beta)
+    public static final int LOWER_BOUND = 2;
+    // The score is an upper bound, since the search failed low (score <= alpha)
+    public static final int UPPER_BOUND = 3;
+
+    // Returned by probe if the table has no entry for the key
+    public static final long MISS = 0;
+
+    public static final int MAX_DEPTH = 255;
+    // The largest table has 2^29 entries, so that the index of every long fits in an int
+    public static final int MAX_SIZE_MB = 8192;
+
+    private static final int SCORE_SHIFT = 17;
+    private static final int DEPTH_SHIFT = 37;
+    private static final int BOUND_SHIFT = 45;
+    private static final int GENERATION_SHIFT = 47;
+    private static final int BYTES_PER_ENTRY = 16;
+    // The number of entries sampled by hashfull, as in the UCI protocol
+    private static final int HASHFULL_SAMPLE = 1000;
+
+    // Opaque accesses are atomic for each long and are eventually seen by other threads,
+    // without the fences of volatile accesses
+    private static final VarHandle ENTRIES = MethodHandles.arrayElementVarHandle(long[].class);
+
+    // entries[2 * i] is the key XOR the data of slot i, and entries[2 * i + 1] is the data
+    private final long[] entries;
+    private final int mask;
+    private volatile int generation;
+
+    private final LongAdder probes = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder collisions = new LongAdder();
+
+    /**
+     * @param sizeMb the size of the table in megabytes, rounded down to a power of two entries
+     * @throws IllegalArgumentException if sizeMb is not in [1, MAX_SIZE_MB]
+     */
+    public TranspositionTable(int sizeMb) {
+        if (sizeMb < 1 || sizeMb > MAX_SIZE_MB) {
+            throw new IllegalArgumentException("Size must be between 1 and " + MAX_SIZE_MB + " MB: " + sizeMb);
+        }
+        int capacity = (int) Long.highestOneBit((long) sizeMb * 1024 * 1024 / BYTES_PER_ENTRY);
+        this.entries = new long[2 * capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * @return the data stored for key (decode it with getMove, getScore, getDepth and getBound),
+     * or MISS if there is none
+     */
+    public long probe(long key) {
+        probes.increment();
+        int slot = slot(key);
+        long keyXorData = (long) ENTRIES.getOpaque(entries, slot);
+        long data = (long) ENTRIES.getOpaque(entries, slot + 1);
+        if (data == 0) {
+            return MISS;
+        }
+        if ((keyXorData ^ data) != key) {
+            // Another position, or an entry torn by concurrent writes
+            collisions.increment();
+            return MISS;
+        }
+        hits.increment();
+        return data;
+    }
+
+    /**
+     * Store the result of searching the position with key. The entry in the slot is replaced unless it's
+     * for another position, was stored in the current search, and is deeper.
+     * Requires: 0 <= depth <= MAX_DEPTH, bound is EXACT, LOWER_BOUND or UPPER_BOUND
+     */
+    public void store(long key, int move, int score, int depth, int bound) {
+        assert depth >= 0 && depth <= MAX_DEPTH;
+        assert bound >= EXACT && bound <= UPPER_BOUND;
+        int slot = slot(key);
+        long oldData = (long) ENTRIES.getOpaque(entries, slot + 1);
+        if (oldData != 0 && ((long) ENTRIES.getOpaque(entries, slot) ^ oldData) != key
+                && getGeneration(oldData) == generation && getDepth(oldData) > depth) {
+            return;
+        }
+        long data = (move & 0x1FFFFL)
+                | ((score & 0xFFFFFL) << SCORE_SHIFT)
+                | ((long) depth << DEPTH_SHIFT)
+                | ((long) bound << BOUND_SHIFT)
+                | ((long) generation << GENERATION_SHIFT);
+        ENTRIES.setOpaque(entries, slot, key ^ data);
+        ENTRIES.setOpaque(entries, slot + 1, data);
+    }
+
+    /**
+     * Start a new search, so that entries from earlier searches are replaced first
+     */
+    public void newSearch() {
+        generation = (generation + 1) & 0xFF;
+    }
+
+    /**
+     * Remove all entries and reset the statistics. Must not be called during a search.
+     */
+    public void clear() {
+        Arrays.fill(entries, 0);
+        generation = 0;
+        probes.reset();
+        hits.reset();
+        collisions.reset();
+    }
+
+    public static int getMove(long data) {
+        return (int) (data & 0x1FFFF);
+    }
+
+    public static int getScore(long data) {
+        // Shift the 20-bit score to the top and back to extend its sign
+        return (int) (data << (64 - SCORE_SHIFT - 20) >> (64 - 20));
+    }
+
+    public static int getDepth(long data) {
+        return (int) (data >>> DEPTH_SHIFT) & 0xFF;
+    }
+
+    public static int getBound(long data) {
+        return (int) (data >>> BOUND_SHIFT) & 0x3;
+    }
+
+    private static int getGeneration(long data) {
+        return (int) (data >>> GENERATION_SHIFT) & 0xFF;
+    }
+
+    /**
+     * @return the number of entries
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return the fraction of probes that found an entry for their key
+     */
+    public double hitRate() {
+        long probeCount = probes.sum();
+        return probeCount == 0 ? 0 : (double) hits.sum() / probeCount;
+    }
+
+    /**
+     * @return the fraction of probes that found an entry for another key (or a torn entry) in their slot
+     */
+    public double collisionRate() {
+        long probeCount = probes.sum();
+        return probeCount == 0 ? 0 : (double) collisions.sum() / probeCount;
+    }
+
+    /**
+     * @return the number of entries per thousand that were stored in the current search,
+     * estimated from the first entries of the table
+     */
+    public int hashfull() {
+        int sample = Math.min(HASHFULL_SAMPLE, capacity());
+        int used = 0;
+        for (int i = 0; i < sample; i++) {
+            long data = (long) ENTRIES.getOpaque(entries, 2 * i + 1);
+            if (data != 0 && getGeneration(data) == generation) {
+                used++;
+            }
+        }
+        return used * 1000 / sample;
+    }
+
+    /**
+     * @return the index in entries of the first long of the slot for key
+     */
+    private int slot(long key) {
+        return ((int) key & mask) << 1;
+    }
+}
@@ -0,0 +1,97 @@
+package model.move;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A reusable buffer of packed moves (see PackedMove).
+ * Move generation fills the buffer without allocating, so the same MoveList
+ * can be reused for every position at the same search or perft depth.
+ */
+public class MoveList {
+    // There are at most 218 legal moves in any chess position
+    public static final int CAPACITY = 256;
+
+    private final int[] moves;
+    private int size;
+
+    public MoveList() {
+        this.moves = new int[CAPACITY];
+        this.size = 0;
+    }
+
+    /**
+     * Append a packed move to the end of the list
+     */
+    public void add(int move) {
+        moves[size++] = move;
+    }
+
+    /**
+     * @return the packed move at index i
+     */
+    public int get(int i) {
+        assert i >= 0 && i < size;
+        return moves[i];
+    }
+
+    /**
+     * Replace the packed move at index i
+     */
+    public void set(int i, int move) {
+        assert i >= 0 && i < size;
+        moves[i] = move;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Remove all moves, keeping the buffer
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return whether the packed move is in the list
+     */
+    public boolean contains(int move) {
+        for (int i = 0; i < size; i++) {
+            if (moves[i] == move) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adapter for callers that work with Move objects
+     *
+     * @return the set of moves in the list
+     */
+    public Set<Move> toMoveSet() {
+        Set<Move> set = new HashSet<>();
+        for (int i = 0; i < size; i++) {
+            set.add(PackedMove.toMove(moves[i]));
+        }
+        return set;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(PackedMove.toString(moves[i]));
+        }
+        return sb.append(']').toString();
+    }
+}
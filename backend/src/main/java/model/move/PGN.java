@@ -34,13 +34,14 @@ public class PGN {
         int curMove = numStart;
         boolean whiteToMove = whiteStart;
         if (!whiteToMove) {
-            sb.append(numStart).append("... ");
+            sb.append(curMove++).append("... ");
         }
         for (String move : moves) {
             if (whiteToMove) {
                 sb.append(curMove++).append(". ");
             }
             sb.append(move).append(" ");
+            whiteToMove = !whiteToMove;
         }
         if (!result.equals("*")) {
             sb.append(result);
@@ -0,0 +1,158 @@
+package model.move;
+
+/**
+ * Static helpers for moves packed into a primitive int, so that move generation and search
+ * don't have to allocate a Move object for every move.
+ * <p>
+ * Layout (from the least significant bit):
+ * <pre>
+ * bits 0-5:   start square (row * 8 + col)
+ * bits 6-11:  end square (row * 8 + col)
+ * bits 12-13: type (REGULAR, CASTLING, EN_PASSANT, PROMOTION, same order as Move.Type)
+ * bits 14-15: promotion piece (Q, R, B, N), 0 if the move is not a promotion
+ * bit 16:     capture flag
+ * </pre>
+ * For castling, the start and end squares are those of the king, as in Move.
+ * The castling type and the color of the promotion piece are implied by the end square.
+ * A packed move is never 0 (the start and end squares are different), so 0 can be used as "no move".
+ */
+public class PackedMove {
+    public static final int NONE = 0;
+
+    public static final int REGULAR = 0;
+    public static final int CASTLING = 1;
+    public static final int EN_PASSANT = 2;
+    public static final int PROMOTION = 3;
+
+    private static final int TO_SHIFT = 6;
+    private static final int TYPE_SHIFT = 12;
+    private static final int PROMOTION_SHIFT = 14;
+    private static final int CAPTURE_FLAG = 1 << 16;
+
+    // Promotion pieces in the order of their codes
+    private static final char[] WHITE_PROMOTIONS = {'Q', 'R', 'B', 'N'};
+    private static final char[] BLACK_PROMOTIONS = {'q', 'r', 'b', 'n'};
+
+    /**
+     * @return a packed regular move from start to end
+     */
+    public static int regular(int start, int end, boolean isCapture) {
+        return start | (end << TO_SHIFT) | (isCapture ? CAPTURE_FLAG : 0);
+    }
+
+    /**
+     * @return a packed en passant move from start to end (the en passant target square)
+     */
+    public static int enPassant(int start, int end) {
+        return start | (end << TO_SHIFT) | (EN_PASSANT << TYPE_SHIFT) | CAPTURE_FLAG;
+    }
+
+    /**
+     * @param promotion 0, 1, 2, 3 for Q, R, B, N
+     * @return a packed promotion move from start to end
+     */
+    public static int promotion(int start, int end, int promotion, boolean isCapture) {
+        assert promotion >= 0 && promotion < 4;
+        return start | (end << TO_SHIFT) | (PROMOTION << TYPE_SHIFT) | (promotion << PROMOTION_SHIFT)
+                | (isCapture ? CAPTURE_FLAG : 0);
+    }
+
+    /**
+     * @param castleType K: white castles kingside, Q: white castles queenside, k/q for black
+     * @return a packed castling move
+     */
+    public static int castling(char castleType) {
+        int start = (castleType == 'K' || castleType == 'Q') ? 4 : 60;
+        int end = (castleType == 'K' || castleType == 'k') ? start + 2 : start - 2;
+        return start | (end << TO_SHIFT) | (CASTLING << TYPE_SHIFT);
+    }
+
+    public static int getStart(int move) {
+        return move & 0x3F;
+    }
+
+    public static int getEnd(int move) {
+        return (move >>> TO_SHIFT) & 0x3F;
+    }
+
+    public static int getType(int move) {
+        return (move >>> TYPE_SHIFT) & 0x3;
+    }
+
+    public static boolean getIsCapture(int move) {
+        return (move & CAPTURE_FLAG) != 0;
+    }
+
+    /**
+     * @return the code of the promotion piece: 0, 1, 2, 3 for Q, R, B, N
+     */
+    public static int getPromotionCode(int move) {
+        return (move >>> PROMOTION_SHIFT) & 0x3;
+    }
+
+    /**
+     * Requires: move is a promotion
+     *
+     * @return QRBN for white, qrbn for black
+     */
+    public static char getPromotionType(int move) {
+        assert getType(move) == PROMOTION;
+        // White promotes on rank 8
+        return getEnd(move) >= 56 ? WHITE_PROMOTIONS[getPromotionCode(move)]
+                : BLACK_PROMOTIONS[getPromotionCode(move)];
+    }
+
+    /**
+     * Requires: move is castling
+     *
+     * @return K: white castles kingside, Q: white castles queenside, k/q for black
+     */
+    public static char getCastleType(int move) {
+        assert getType(move) == CASTLING;
+        return switch (getEnd(move)) {
+            case 6 -> 'K';
+            case 2 -> 'Q';
+            case 62 -> 'k';
+            case 58 -> 'q';
+            default -> throw new IllegalStateException("Not a castling move: " + toString(move));
+        };
+    }
+
+    /**
+     * Adapter from the Move object to the packed form.
+     */
+    public static int fromMove(Move move) {
+        int start = move.getStartRow() * 8 + move.getStartCol();
+        int end = move.getEndRow() * 8 + move.getEndCol();
+        return switch (move.moveType) {
+            case REGULAR -> regular(start, end, move.getIsCapture());
+            case CASTLING -> castling(move.getCastleType());
+            case EN_PASSANT -> enPassant(start, end);
+            case PROMOTION -> promotion(start, end, "QRBN".indexOf(Character.toUpperCase(move.getPromotionType())),
+                    move.getIsCapture());
+        };
+    }
+
+    /**
+     * Adapter from the packed form to the Move object.
+     */
+    public static Move toMove(int move) {
+        int start = getStart(move);
+        int end = getEnd(move);
+        return switch (getType(move)) {
+            case REGULAR -> new Move(start / 8, start % 8, end / 8, end % 8, false, getIsCapture(move));
+            case CASTLING -> new Move(getCastleType(move));
+            case EN_PASSANT -> new Move(start / 8, start % 8, end / 8, end % 8, true, true);
+            case PROMOTION -> new Move(start / 8, start % 8, end / 8, end % 8, getPromotionType(move),
+                    getIsCapture(move));
+            default -> throw new IllegalStateException("Unknown move type: " + getType(move));
+        };
+    }
+
+    /**
+     * @return the same representation as Move.toString()
+     */
+    public static String toString(int move) {
+        return toMove(move).toString();
+    }
+}
@@ -0,0 +1,75 @@
+package model.player;
+
+import model.board.BitmapBoard;
+import model.board.Board;
+import model.engine.LazySmpSearch;
+import model.engine.PolyglotBook;
+import model.engine.Search;
+import model.engine.TranspositionTable;
+import model.move.Move;
+import model.move.PackedMove;
+
+import java.util.Random;
+
+/**
+ * An AI that searches for the best move with alpha-beta search (see Search) within a time budget per move.
+ * The transposition table is kept between moves, since the positions searched for one move often come up
+ * again in the search for the next.
+ * With an opening book, book moves are played without searching for as long as the game is in the book.
+ */
+public class EnginePlayer extends Player {
+    public static final long DEFAULT_MOVE_TIME = 100;  // In milliseconds
+
+    private final long moveTime;
+    private final TranspositionTable table;
+    private final int threads;
+    // null if there is no opening book
+    private final PolyglotBook book;
+    private final Random random = new Random();
+    // The score of the last move played, from the perspective of this player
+    private int lastScore;
+
+    public EnginePlayer(boolean isWhite) {
+        this(isWhite, DEFAULT_MOVE_TIME, Search.DEFAULT_TABLE_SIZE_MB, 1, null);
+    }
+
+    /**
+     * @param moveTime    the time budget per move in milliseconds
+     * @param tableSizeMb the size of the transposition table in megabytes
+     * @param threads     the number of search threads (see LazySmpSearch)
+     * @param book        the opening book, or null to search from the first move
+     */
+    public EnginePlayer(boolean isWhite, long moveTime, int tableSizeMb, int threads, PolyglotBook book) {
+        super(isWhite);
+        this.moveTime = moveTime;
+        this.table = new TranspositionTable(tableSizeMb);
+        this.threads = threads;
+        this.book = book;
+    }
+
+    @Override
+    public Action play(Board board) {
+        if (book != null) {
+            Move bookMove = book.pickMove(board, random);
+            if (bookMove != null) {
+                lastScore = 0;
+                return new Action(bookMove);
+            }
+        }
+        // Search on a copy, since the search makes and undoes moves on its board
+        LazySmpSearch search = new LazySmpSearch(new BitmapBoard(board), table, threads);
+        Search.Result result = search.search(moveTime, Search.MAX_PLY - 1);
+        if (result.bestMove() == PackedMove.NONE) {
+            // The game has ended, which the game controller shouldn't let happen
+            return new Action(Action.Type.RESIGN);
+        }
+        lastScore = result.score();
+        return new Action(PackedMove.toMove(result.bestMove()));
+    }
+
+    @Override
+    public boolean considerDraw(Board board) {
+        // Accept a draw when clearly worse off, i.e. down by more than a pawn after the last move
+        return lastScore < -100;
+    }
+}
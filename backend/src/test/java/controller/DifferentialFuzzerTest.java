@@ -0,0 +1,62 @@
+package controller;
+
+import model.board.*;
+import model.move.MoveList;
+import model.move.PackedMove;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DifferentialFuzzerTest {
+
+    /**
+     * A board that can't underpromote to a knight, to check that the fuzzer finds and shrinks a divergence
+     */
+    private static class NoKnightPromotionBoard extends MailboxBoard {
+        NoKnightPromotionBoard(String fen) throws MalformedFENException, IllegalBoardException {
+            super(fen);
+        }
+
+        @Override
+        public void generateLegalMoves(MoveList legalMoves) {
+            MoveList allMoves = new MoveList();
+            super.generateLegalMoves(allMoves);
+            legalMoves.clear();
+            for (int i = 0; i < allMoves.size(); i++) {
+                int move = allMoves.get(i);
+                if (PackedMove.getType(move) != PackedMove.PROMOTION
+                        || Character.toUpperCase(PackedMove.getPromotionType(move)) != 'N') {
+                    legalMoves.add(move);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testNoDivergence() {
+        DifferentialFuzzer fuzzer = new DifferentialFuzzer(BitmapBoard::new, MailboxBoard::new, 100);
+        assertEquals(List.of(), fuzzer.run(60, 0));
+        assertTrue(fuzzer.pliesPlayed() > 0);
+    }
+
+    @Test
+    public void testShrink() {
+        DifferentialFuzzer fuzzer = new DifferentialFuzzer(BitmapBoard::new, NoKnightPromotionBoard::new, 100);
+        // Black can capture on a1 and promote after any move by white
+        String fen = "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1";
+        DifferentialFuzzer.Divergence divergence = fuzzer.playGame(fen, 0);
+        assertNotNull(divergence);
+        // Shrunk to the position where knight promotions are first available, with no moves
+        assertEquals(List.of(), divergence.moves());
+        assertTrue(divergence.fen().contains(" b "), divergence.fen());
+        assertTrue(divergence.description().startsWith("Legal moves"), divergence.description());
+
+        List<DifferentialFuzzer.Divergence> divergences = fuzzer.run(30, 0);
+        assertFalse(divergences.isEmpty());
+        for (DifferentialFuzzer.Divergence d : divergences) {
+            assertEquals(List.of(), d.moves());
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashTableTest {
+
+    @Test
+    void testGetPut() {
+        HashTable table = new HashTable(16, HashTable.Replacement.ALWAYS);
+        assertEquals(16, table.capacity());
+        assertEquals(HashTable.MISS, table.get(0, 0));
+        table.put(0, 0, 0);
+        assertEquals(0, table.get(0, 0));
+        table.put(0x3141592653589793L, 5, 119060324);
+        assertEquals(119060324, table.get(0x3141592653589793L, 5));
+        // Same key at a different depth
+        assertEquals(HashTable.MISS, table.get(0x3141592653589793L, 4));
+        table.put(-1L, HashTable.MAX_DEPTH, HashTable.MAX_VALUE);
+        assertEquals(HashTable.MAX_VALUE, table.get(-1L, HashTable.MAX_DEPTH));
+        assertEquals(3, table.hits());
+        assertEquals(2, table.misses());
+
+        table.clear();
+        assertEquals(HashTable.MISS, table.get(0, 0));
+        assertEquals(HashTable.MISS, table.get(-1L, HashTable.MAX_DEPTH));
+        assertEquals(0, table.hits());
+        assertEquals(2, table.misses());
+    }
+
+    @Test
+    void testReplacement() {
+        // 0x10 and 0x20 map to the same slot
+        HashTable always = new HashTable(16, HashTable.Replacement.ALWAYS);
+        always.put(0x10, 3, 100);
+        always.put(0x20, 1, 200);
+        assertEquals(HashTable.MISS, always.get(0x10, 3));
+        assertEquals(200, always.get(0x20, 1));
+
+        HashTable depthPreferred = new HashTable(16, HashTable.Replacement.DEPTH_PREFERRED);
+        depthPreferred.put(0x10, 3, 100);
+        depthPreferred.put(0x20, 1, 200);
+        assertEquals(100, depthPreferred.get(0x10, 3));
+        assertEquals(HashTable.MISS, depthPreferred.get(0x20, 1));
+        depthPreferred.put(0x20, 3, 300);
+        assertEquals(HashTable.MISS, depthPreferred.get(0x10, 3));
+        assertEquals(300, depthPreferred.get(0x20, 3));
+        // The same key is always updated
+        depthPreferred.put(0x20, 2, 250);
+        assertEquals(250, depthPreferred.get(0x20, 2));
+    }
+
+    @Test
+    void testCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new HashTable(0, HashTable.Replacement.ALWAYS));
+        assertThrows(IllegalArgumentException.class, () -> new HashTable(12, HashTable.Replacement.ALWAYS));
+        assertThrows(IllegalArgumentException.class, () -> new HashTable(-16, HashTable.Replacement.ALWAYS));
+        assertEquals(1, new HashTable(1, HashTable.Replacement.ALWAYS).capacity());
+    }
+}
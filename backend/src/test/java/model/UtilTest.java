@@ -32,6 +32,27 @@ class UtilTest {
         assertEquals(0x3141592653589793L, Util.setBit(0x3141592653589793L, 1));
     }
 
+    @Test
+    void testPieceIndex() {
+        assertEquals(0, Util.pieceIndex('p'));
+        assertEquals(5, Util.pieceIndex('k'));
+        assertEquals(6, Util.pieceIndex('P'));
+        assertEquals(11, Util.pieceIndex('K'));
+        for (int i = 0; i < Util.PIECE_NAMES.length; i++) {
+            assertEquals(i, Util.pieceIndex(Util.PIECE_NAMES[i]));
+        }
+        for (char pieceType : Util.WHITE_PIECE_NAMES) {
+            assertTrue(Util.pieceIndex(pieceType) >= 6);
+        }
+        for (char pieceType : Util.BLACK_PIECE_NAMES) {
+            assertTrue(Util.pieceIndex(pieceType) < 6);
+        }
+        assertThrows(IllegalArgumentException.class, () -> Util.pieceIndex('x'));
+        assertThrows(IllegalArgumentException.class, () -> Util.pieceIndex('.'));
+        assertThrows(IllegalArgumentException.class, () -> Util.pieceIndex((char) 0));
+        assertThrows(IllegalArgumentException.class, () -> Util.pieceIndex('\u00e9'));
+    }
+
     @Test
     void testClearBit() {
         assertEquals(0L, Util.clearBit(0L, 4, 2));
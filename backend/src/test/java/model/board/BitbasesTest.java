@@ -0,0 +1,209 @@
+package model.board;
+
+import model.Util;
+import model.engine.Search;
+import model.move.MoveList;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BitbasesTest {
+    private static Bitbases bitbases;
+
+    /**
+     * Generating takes a few seconds, so it's done once for all tests
+     */
+    private static synchronized Bitbases bitbases() {
+        if (bitbases == null) {
+            bitbases = Bitbases.generate();
+        }
+        return bitbases;
+    }
+
+    private int probe(String fen) throws IllegalBoardException, MalformedFENException {
+        return bitbases().probe(new BitmapBoard(fen));
+    }
+
+    /**
+     * @return a random legal board of the king and piece of the strong side against a lone king,
+     * or null if the squares don't make a legal board
+     */
+    private static Board randomBoard(Random random, char piece, boolean whiteStrong) {
+        char[] squares = new char[64];
+        int strongKing = random.nextInt(64);
+        int pieceSquare = piece == 'P' ? 8 + random.nextInt(48) : random.nextInt(64);
+        int weakKing = random.nextInt(64);
+        if (strongKing == pieceSquare || strongKing == weakKing || pieceSquare == weakKing) {
+            return null;
+        }
+        squares[strongKing] = whiteStrong ? 'K' : 'k';
+        squares[pieceSquare] = whiteStrong ? piece : Character.toLowerCase(piece);
+        squares[weakKing] = whiteStrong ? 'k' : 'K';
+        StringBuilder fen = new StringBuilder();
+        for (int row = 7; row >= 0; row--) {
+            int blanks = 0;
+            for (int col = 0; col < 8; col++) {
+                char c = squares[row * 8 + col];
+                if (c == 0) {
+                    blanks++;
+                } else {
+                    fen.append(blanks > 0 ? String.valueOf(blanks) : "").append(c);
+                    blanks = 0;
+                }
+            }
+            fen.append(blanks > 0 ? String.valueOf(blanks) : "").append(row > 0 ? "/" : "");
+        }
+        fen.append(random.nextBoolean() ? " w - - 0 1" : " b - - 0 1");
+        try {
+            Board board = new BitmapBoard(fen.toString());
+            return board.getWinner() == 'u' ? board : null;
+        } catch (IllegalBoardException | MalformedFENException e) {
+            return null;
+        }
+    }
+
+    @Test
+    public void testProbe() throws IllegalBoardException, MalformedFENException {
+        // The king in front of its pawn on the sixth rank wins, whoever is to move
+        assertEquals(Bitbases.WIN, probe("4k3/8/4K3/4P3/8/8/8/8 w - - 0 1"));
+        assertEquals(Bitbases.LOSS, probe("4k3/8/4K3/4P3/8/8/8/8 b - - 0 1"));
+        // The lone king in front of the pawn holds the draw
+        assertEquals(Bitbases.DRAW, probe("8/8/8/8/8/4k3/4P3/4K3 w - - 0 1"));
+        // Rook pawns are drawn when the lone king reaches the corner
+        assertEquals(Bitbases.DRAW, probe("7k/8/7K/7P/8/8/8/8 w - - 0 1"));
+        // The same positions with the colors swapped
+        assertEquals(Bitbases.WIN, probe("8/8/8/8/4p3/4k3/8/4K3 b - - 0 1"));
+        assertEquals(Bitbases.DRAW, probe("4k3/4p3/4K3/8/8/8/8/8 b - - 0 1"));
+        // The rook and queen win unless they are captured right away
+        assertEquals(Bitbases.LOSS, probe("8/8/8/4k3/8/8/8/R3K3 b - - 0 1"));
+        assertEquals(Bitbases.WIN, probe("8/8/8/4k3/8/8/8/R3K3 w - - 0 1"));
+        assertEquals(Bitbases.DRAW, probe("8/8/8/8/8/8/8/1kQ1K3 b - - 0 1"));
+        assertEquals(Bitbases.WIN, probe("3qk3/8/8/8/8/8/8/4K3 b - - 0 1"));
+        // Other material is not covered
+        assertEquals(Bitbases.UNKNOWN, probe("4k3/8/8/8/8/8/8/3NK3 w - - 0 1"));
+        assertEquals(Bitbases.UNKNOWN, probe("3rk3/8/8/8/8/8/8/3RK3 w - - 0 1"));
+        assertEquals(Bitbases.UNKNOWN, probe("4k3/8/8/8/8/8/4PP2/4K3 w - - 0 1"));
+        assertEquals(Bitbases.UNKNOWN, bitbases().probe(new BitmapBoard()));
+        // Both representations are probed alike
+        assertEquals(probe("8/8/8/8/8/4k3/4P3/4K3 b - - 0 1"),
+                bitbases().probe(new MailboxBoard("8/8/8/8/8/4k3/4P3/4K3 b - - 0 1")));
+    }
+
+    @Test
+    public void testConsistency() {
+        // Each result agrees with the results after every move
+        Random random = new Random(0);
+        MoveList moves = new MoveList();
+        for (char piece : new char[]{'P', 'R', 'Q'}) {
+            for (int i = 0; i < 300; i++) {
+                Board board = randomBoard(random, piece, random.nextBoolean());
+                if (board == null) {
+                    continue;
+                }
+                int result = bitbases().probe(board);
+                board.generateLegalMoves(moves);
+                int best = Bitbases.LOSS;
+                for (int j = 0; j < moves.size(); j++) {
+                    board.move(moves.get(j));
+                    int childResult = switch (board.getWinner()) {
+                        case 'd' -> Bitbases.DRAW;
+                        case 'u' -> bitbases().probe(board);
+                        // Checkmate
+                        default -> Bitbases.LOSS;
+                    };
+                    best = Math.max(best, -childResult);
+                    board.undoLastMove();
+                }
+                assertEquals(best, result, board.toFEN());
+            }
+        }
+    }
+
+    @Test
+    public void testAgainstSearch() {
+        // Mates found by a search without the bitbases are wins in the bitbases
+        Random random = new Random(1);
+        int mates = 0;
+        for (char piece : new char[]{'P', 'R', 'Q'}) {
+            for (int i = 0; i < 60; i++) {
+                Board board = randomBoard(random, piece, random.nextBoolean());
+                if (board == null) {
+                    continue;
+                }
+                int result = bitbases().probe(board);
+                int score = new Search(board).search(10000, 5).score();
+                if (Math.abs(score) >= Search.MATE - Search.MAX_PLY) {
+                    assertEquals(score > 0 ? Bitbases.WIN : Bitbases.LOSS, result, board.toFEN());
+                    mates++;
+                }
+            }
+        }
+        assertTrue(mates > 0);
+    }
+
+    @Test
+    public void testWriteAndLoad() throws IOException {
+        Path dir = Files.createTempDirectory("bitbases");
+        bitbases().write(dir);
+        Bitbases loaded = Bitbases.load(dir);
+        Random random = new Random(2);
+        for (int i = 0; i < 1000; i++) {
+            Board board = randomBoard(random, "PRQ".charAt(i % 3), random.nextBoolean());
+            if (board != null) {
+                assertEquals(bitbases().probe(board), loaded.probe(board));
+            }
+        }
+        Files.write(dir.resolve("krk.bb"), new byte[100]);
+        assertThrows(IOException.class, () -> Bitbases.load(dir));
+        try (var files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void testAdjudication() throws IllegalBoardException, MalformedFENException {
+        Board board = new BitmapBoard("8/8/8/8/8/4k3/4P3/4K3 w - - 0 1");
+        assertEquals('u', board.getWinner());
+        board.setBitbases(bitbases());
+        assertEquals('d', board.getWinner());
+
+        board = new BitmapBoard("8/8/8/8/8/5k2/6R1/K7 w - - 0 1");
+        board.setBitbases(bitbases());
+        assertEquals('u', board.getWinner());
+        // The bitbases are kept by copies, and the game ends as soon as the rook can't be saved
+        Board copy = board.clone();
+        assertTrue(copy.move(Util.moveFromSquares("g2", "g3", false, false)));
+        assertEquals('d', copy.getWinner());
+        assertEquals('u', board.getWinner());
+    }
+
+    @Test
+    public void testSearch() {
+        // With the bitbases, the search keeps the win in won positions
+        Random random = new Random(3);
+        int tested = 0;
+        while (tested < 20) {
+            Board board = randomBoard(random, 'P', true);
+            if (board == null || !board.whiteToMove()) {
+                continue;
+            }
+            board.setBitbases(bitbases());
+            if (bitbases().probe(board) != Bitbases.WIN) {
+                continue;
+            }
+            Search.Result result = new Search(board).search(10000, 3);
+            assertTrue(result.score() >= Search.KNOWN_WIN - 1000, board.toFEN());
+            board.move(result.bestMove());
+            assertTrue(board.getWinner() == 'w' || bitbases().probe(board) == Bitbases.LOSS, board.toFEN());
+            tested++;
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package model.board;
 
+import org.junit.jupiter.api.Test;
+
 class BitmapBoardTest extends BoardTest{
     @Override
     protected Board createBoard() {
@@ -10,4 +12,10 @@ class BitmapBoardTest extends BoardTest{
     protected Board createBoard(String fen) throws IllegalBoardException, MalformedFENException {
         return new BitmapBoard(fen);
     }
+
+    @Test
+    public void testOccupancy() throws IllegalBoardException, MalformedFENException {
+        // Make sure that the occupancy bitmaps stay consistent with the piece bitmaps
+        playRandomGamesAndUndo(board -> ((BitmapBoard) board).checkOccupancy());
+    }
 }
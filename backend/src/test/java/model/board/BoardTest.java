@@ -1,14 +1,18 @@
 package model.board;
 
+import controller.Perft;
 import model.Util;
 import model.board.Board;
 import model.board.IllegalBoardException;
 import model.board.MalformedFENException;
 import model.move.Move;
+import model.move.MoveList;
+import model.move.PackedMove;
 import org.junit.jupiter.api.Test;
 
 import java.io.*;
 import java.util.*;
+import java.util.function.Predicate;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -20,6 +24,37 @@ abstract class BoardTest {
 
     protected abstract Board createBoard(String fen) throws IllegalBoardException, MalformedFENException;
 
+    /**
+     * Play random games (with captures, castling, en passant, and promotions) and undo them,
+     * making sure that consistent holds for the board after every move and undo
+     */
+    protected void playRandomGamesAndUndo(Predicate<Board> consistent)
+            throws IllegalBoardException, MalformedFENException {
+        Random random = new Random(0);
+        MoveList legalMoves = new MoveList();
+        String[] fens = {
+                "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+                "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+        };
+        for (String fen : fens) {
+            for (int game = 0; game < 20; game++) {
+                Board board = createBoard(fen);
+                int plies = 0;
+                board.generateLegalMoves(legalMoves);
+                while (!legalMoves.isEmpty() && plies < 100) {
+                    assertTrue(board.move(legalMoves.get(random.nextInt(legalMoves.size()))));
+                    assertTrue(consistent.test(board), board.toString());
+                    board.generateLegalMoves(legalMoves);
+                    plies++;
+                }
+                while (board.undoLastMove()) {
+                    assertTrue(consistent.test(board), board.toString());
+                }
+                assertEquals(fen, board.toFEN());
+            }
+        }
+    }
+
     @Test
     public void testFENParser() throws IllegalBoardException, MalformedFENException {
         Board start = createBoard();
@@ -789,6 +824,15 @@ abstract class BoardTest {
         assertLegalCount("8/8/8/8/5pP1/8/3R3k/4K3 b - g3 0 1", "f4", 0);
         assertLegalCount("4k3/8/8/r4pPK/8/8/8/8 w - f6 0 2", "g5", 1);
         assertLegalCount("8/8/8/8/k2Pp2Q/8/8/4K3 b - d3 0 1", "e4", 1);
+        // Capturing en passant removes two pawns from the rank of the king
+        assertLegalCount("8/8/8/KPp4r/8/8/8/4k3 w - c6 0 1", "b5", 1);
+        assertLegalCount("8/8/8/8/1k1Pp2R/8/8/4K3 b - d3 0 1", "e4", 1);
+        assertLegalCount("8/8/8/8/1k1Pp2R/8/8/4K3 b - d3 0 1", 8);
+        // En passant captures the checking pawn, but the king is also in check from a rook
+        assertLegalCount("8/8/8/2k5/3Pp3/8/8/2R1K3 b - d3 0 1", "e4", 0);
+        assertLegalCount("8/8/8/2k5/3Pp3/8/8/2R1K3 b - d3 0 1", 6);
+        // Double check: only the king can move
+        assertLegalCount("4k3/8/5N2/8/8/8/8/4RK2 b - - 0 1", 3);
         // Others
         assertLegalCount("rnbqkbnr/pppppppp/5N2/8/8/8/PPPPPPPP/RNBQKB1R b KQkq - 0 1", 3);
         assertLegalCount("rnbqkbnr/pppp1ppp/8/8/8/8/PPPP1PPP/RNBQR1K1 b kq - 0 1", 3);
@@ -887,17 +931,48 @@ abstract class BoardTest {
         assertWinnerAfterMove("q7/8/8/4K1k1/8/8/8/8 b - - 99 80",
                 Util.moveFromSquares("a8", "e8", false, false), 'd');
         // Threefold repetition
+        // The starting position occurs for the third time after the 8th move
         boolean legal = true;
         Board board = createBoard();
-        legal &= board.move(Util.moveFromSquares("g1", "f3", false, false));
         for (int i = 0; i < 2; i++) {
+            legal &= board.move(Util.moveFromSquares("g1", "f3", false, false));
             legal &= board.move(Util.moveFromSquares("g8", "f6", false, false));
             legal &= board.move(Util.moveFromSquares("f3", "g1", false, false));
+            assertEquals('u', board.getWinner());
             legal &= board.move(Util.moveFromSquares("f6", "g8", false, false));
-            legal &= board.move(Util.moveFromSquares("g1", "f3", false, false));
         }
         assert legal;
         assertEquals('d', board.getWinner());
+        // The position has only occurred twice before the last move, and the repetitions carry over to a clone
+        assertTrue(board.undoLastMove());
+        assertEquals('u', board.getWinner());
+        Board copy = board.clone();
+        assertTrue(copy.move(Util.moveFromSquares("f6", "g8", false, false)));
+        assertEquals('d', copy.getWinner());
+        // Resetting the fifty-move counter forgets the repetitions and the fifty-move rule, but not checkmate
+        copy.resetHalfMoveClock();
+        assertEquals('u', copy.getWinner());
+        Board fifty = createBoard("8/8/8/4K1k1/8/8/7q/8 w - - 100 80");
+        fifty.resetHalfMoveClock();
+        assertEquals('u', fifty.getWinner());
+        assertEquals("8/8/8/4K1k1/8/8/7q/8 w - - 0 80", fifty.toFEN());
+        Board mate = createBoard("R3k3/8/4K3/8/8/8/8/8 b - - 100 60");
+        mate.resetHalfMoveClock();
+        assertEquals('w', mate.getWinner());
+        // Positions before a pawn move don't repeat
+        board = createBoard();
+        legal = board.move(Util.moveFromSquares("g1", "f3", false, false));
+        legal &= board.move(Util.moveFromSquares("g8", "f6", false, false));
+        legal &= board.move(Util.moveFromSquares("f3", "g1", false, false));
+        legal &= board.move(Util.moveFromSquares("f6", "g8", false, false));
+        legal &= board.move(Util.moveFromSquares("a2", "a3", false, false));
+        legal &= board.move(Util.moveFromSquares("a7", "a6", false, false));
+        legal &= board.move(Util.moveFromSquares("g1", "f3", false, false));
+        legal &= board.move(Util.moveFromSquares("g8", "f6", false, false));
+        legal &= board.move(Util.moveFromSquares("f3", "g1", false, false));
+        legal &= board.move(Util.moveFromSquares("f6", "g8", false, false));
+        assert legal;
+        assertEquals('u', board.getWinner());
 
         // Underpromotion, or stalemate
         assertWinnerAfterMove("8/6P1/7k/8/6K1/8/8/8 w - - 0 1",
@@ -917,42 +992,313 @@ abstract class BoardTest {
                 Integer.parseInt(perftStr.substring(last + 1)));
     }
 
+    private void assertSAN(String fen, Move move, String expected) throws IllegalBoardException, MalformedFENException {
+        Board board = createBoard(fen);
+        assertEquals(expected, board.toSAN(PackedMove.fromMove(move)), fen);
+        assertEquals(fen, board.toFEN());
+    }
+
+    @Test
+    public void testSAN() throws IllegalBoardException, MalformedFENException {
+        assertSAN(Util.START_POS, Util.moveFromSquares("e2", "e4", false, false), "e4");
+        assertSAN(Util.START_POS, Util.moveFromSquares("g1", "f3", false, false), "Nf3");
+        // Castling
+        assertSAN("4k3/8/8/8/8/8/8/R3K2R w KQ - 0 1", new Move('K'), "O-O");
+        assertSAN("4k3/8/8/8/8/8/8/R3K2R w KQ - 0 1", new Move('Q'), "O-O-O");
+        // Disambiguation by file, by rank, and by both
+        assertSAN("4k3/8/8/8/8/8/4K3/R6R w - - 0 1", Util.moveFromSquares("a1", "d1", false, false), "Rad1");
+        assertSAN("4k3/8/8/8/8/8/8/R3K2R w KQ - 0 1", Util.moveFromSquares("h1", "f1", false, false), "Rf1");
+        assertSAN("4k3/8/8/R7/8/8/8/R3K3 w - - 0 1", Util.moveFromSquares("a1", "a3", false, false), "R1a3");
+        assertSAN("4k3/8/8/8/8/Q7/8/Q1Q1K3 w - - 0 1", Util.moveFromSquares("a1", "b2", false, false), "Qa1b2");
+        assertSAN("4k3/8/8/8/8/Q7/8/Q1Q1K3 w - - 0 1", Util.moveFromSquares("a3", "b2", false, false), "Q3b2");
+        assertSAN("4k2r/8/8/8/8/2N3N1/8/6K1 w - - 0 1", Util.moveFromSquares("c3", "e4", false, false), "Nce4");
+        // A pinned piece can't move, so it doesn't make the move ambiguous
+        assertSAN("4k1r1/8/8/8/8/2N3N1/8/6K1 w - - 0 1", Util.moveFromSquares("c3", "e4", false, false), "Ne4");
+        // Captures, en passant, promotions, checks, and checkmates
+        assertSAN("4k3/8/8/8/8/8/8/4K2R w K - 0 1", Util.moveFromSquares("h1", "h8", false, false), "Rh8+");
+        assertSAN("3bkr2/4pp2/8/1pP5/B7/8/8/4K3 w - b6 0 2", Util.moveFromSquares("c5", "b6", true, true),
+                "cxb6#");
+        assertSAN("rnb1k2r/ppppppPp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1", new Move(6, 6, 7, 7, 'Q', true),
+                "gxh8=Q#");
+        assertSAN("rnb1k2r/ppppppPp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1", new Move(6, 6, 7, 7, 'N', true),
+                "gxh8=N");
+        assertSAN("rnbqkbnr/ppp1pppp/8/3p4/4P3/8/PPPP1PPP/RNBQKBNR w KQkq - 0 2",
+                Util.moveFromSquares("e4", "d5", false, true), "exd5");
+    }
+
+    @Test
+    public void testToPGN() throws IllegalBoardException, MalformedFENException {
+        Board board = createBoard();
+        board.move(Util.moveFromSquares("e2", "e4", false, false));
+        board.move(Util.moveFromSquares("e7", "e5", false, false));
+        board.move(Util.moveFromSquares("g1", "f3", false, false));
+        board.move(Util.moveFromSquares("b8", "c6", false, false));
+        board.move(Util.moveFromSquares("f1", "b5", false, false));
+        String fen = board.toFEN();
+        assertEquals("1. e4 e5 2. Nf3 Nc6 3. Bb5 ", board.toPGN());
+        assertEquals(List.of("e4", "e5", "Nf3", "Nc6", "Bb5"), board.getSANMoves());
+        // The board is unchanged
+        assertEquals(fen, board.toFEN());
+        board.undoLastMove();
+        assertEquals("1. e4 e5 2. Nf3 Nc6 ", board.toPGN());
+
+        // Starting from a position with black to move
+        board = createBoard("rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1");
+        board.move(Util.moveFromSquares("e7", "e5", false, false));
+        board.move(Util.moveFromSquares("g1", "f3", false, false));
+        assertEquals("1... e5 2. Nf3 ", board.toPGN());
+
+        // The result is included when the game ends
+        board = createBoard();
+        board.move(Util.moveFromSquares("f2", "f3", false, false));
+        board.move(Util.moveFromSquares("e7", "e5", false, false));
+        board.move(Util.moveFromSquares("g2", "g4", false, false));
+        board.move(Util.moveFromSquares("d8", "h4", false, false));
+        assertEquals("1. f3 e5 2. g4 Qh4# 0-1", board.toPGN());
+    }
+
+    @Test
+    public void testUndo() throws IllegalBoardException, MalformedFENException {
+        // Play long random games, then undo every move and check that each position is restored exactly
+        Random random = new Random(1);
+        String[] fens = {
+                Util.START_POS,
+                "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+        };
+        for (String fen : fens) {
+            for (int game = 0; game < 5; game++) {
+                Board board = createBoard(fen);
+                List<String> positions = new ArrayList<>();
+                List<Long> hashes = new ArrayList<>();
+                MoveList legalMoves = new MoveList();
+                // More plies than the initial capacity of the undo stack, unless the game ends first
+                for (int ply = 0; ply < 300 && board.getWinner() == 'u'; ply++) {
+                    positions.add(board.toFEN());
+                    hashes.add(board.hash());
+                    board.generateLegalMoves(legalMoves);
+                    assertTrue(board.move(legalMoves.get(random.nextInt(legalMoves.size()))));
+                }
+                while (!positions.isEmpty()) {
+                    assertTrue(board.undoLastMove());
+                    assertEquals(positions.removeLast(), board.toFEN());
+                    assertEquals((long) hashes.removeLast(), board.hash());
+                    assertEquals('u', board.getWinner());
+                }
+                assertFalse(board.undoLastMove());
+            }
+        }
+    }
+
+    @Test
+    public void testGenerateCaptures() throws IllegalBoardException, MalformedFENException {
+        // In random games, the captures must be exactly the legal moves that capture or promote
+        Random random = new Random(2);
+        String[] fens = {
+                "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+                "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+                "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+                "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+        };
+        MoveList legalMoves = new MoveList();
+        MoveList captures = new MoveList();
+        for (String fen : fens) {
+            for (int game = 0; game < 10; game++) {
+                Board board = createBoard(fen);
+                for (int ply = 0; ply < 100 && board.getWinner() == 'u'; ply++) {
+                    board.generateLegalMoves(legalMoves);
+                    board.generateCaptures(captures);
+                    Set<Integer> expected = new HashSet<>();
+                    for (int i = 0; i < legalMoves.size(); i++) {
+                        int move = legalMoves.get(i);
+                        if (PackedMove.getIsCapture(move) || PackedMove.getType(move) == PackedMove.PROMOTION) {
+                            expected.add(move);
+                        }
+                    }
+                    Set<Integer> actual = new HashSet<>();
+                    for (int i = 0; i < captures.size(); i++) {
+                        actual.add(captures.get(i));
+                    }
+                    assertEquals(expected.size(), captures.size(), board.toFEN());
+                    assertEquals(expected, actual, board.toFEN());
+                    board.move(legalMoves.get(random.nextInt(legalMoves.size())));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testClone() throws IllegalBoardException, MalformedFENException {
+        String fen = "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1";
+        Board board = createBoard(fen);
+        board.move(Util.moveFromSquares("a2", "a4", false, false));
+        String fenAfterMove = board.toFEN();
+        Board copy = board.clone();
+        assertEquals(fenAfterMove, copy.toFEN());
+        assertEquals(board.hash(), copy.hash());
+        assertEquals(board.getLegalMoves(), copy.getLegalMoves());
+
+        // Making and undoing moves on one board doesn't affect the other
+        assertTrue(copy.move(Util.moveFromSquares("b4", "a3", true, true)));
+        assertTrue(board.move(new Move('k')));
+        assertEquals("1. a4 bxa3 ", copy.clone().clone().toPGN());
+        assertTrue(copy.undoLastMove());
+        assertEquals(fenAfterMove, copy.toFEN());
+        assertTrue(copy.undoLastMove());
+        assertEquals(fen, copy.toFEN());
+        assertFalse(copy.undoLastMove());
+        assertEquals("1. a4 O-O ", board.toPGN());
+        assertTrue(board.undoLastMove());
+        assertEquals(fenAfterMove, board.toFEN());
+
+        // Copying between representations
+        Board bitmapCopy = new BitmapBoard(board);
+        Board mailboxCopy = new MailboxBoard(board);
+        for (Board other : new Board[]{bitmapCopy, mailboxCopy}) {
+            assertEquals(fenAfterMove, other.toFEN());
+            assertEquals(board.hash(), other.hash());
+            assertEquals(board.getLegalMoves(), other.getLegalMoves());
+            assertTrue(other.undoLastMove());
+            assertEquals(fen, other.toFEN());
+        }
+    }
+
+    private void assertSameHash(String fen1, String fen2) throws IllegalBoardException, MalformedFENException {
+        assertEquals(createBoard(fen1).hash(), createBoard(fen2).hash());
+    }
+
+    private void assertDifferentHash(String fen1, String fen2) throws IllegalBoardException, MalformedFENException {
+        assertNotEquals(createBoard(fen1).hash(), createBoard(fen2).hash());
+    }
+
+    @Test
+    public void testHash() throws IllegalBoardException, MalformedFENException {
+        // Clock fields are not part of the hash
+        assertSameHash(Util.START_POS, "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 12 40");
+        // Side to move, castling rights, and en passant state are part of the hash
+        assertDifferentHash(Util.START_POS, "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR b KQkq - 0 1");
+        assertDifferentHash(Util.START_POS, "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w Kkq - 0 1");
+        assertDifferentHash(Util.START_POS, "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQk - 0 1");
+        assertDifferentHash("rnbqkbnr/ppp1p1pp/8/3pPp2/8/8/PPPP1PPP/RNBQKBNR w KQkq f6 0 3",
+                "rnbqkbnr/ppp1p1pp/8/3pPp2/8/8/PPPP1PPP/RNBQKBNR w KQkq d6 0 3");
+
+        // Transpositions have the same hash
+        Board board1 = createBoard(Util.START_POS);
+        board1.move(Util.moveFromSquares("g1", "f3", false, false));
+        board1.move(Util.moveFromSquares("g8", "f6", false, false));
+        board1.move(Util.moveFromSquares("b1", "c3", false, false));
+        Board board2 = createBoard(Util.START_POS);
+        board2.move(Util.moveFromSquares("b1", "c3", false, false));
+        board2.move(Util.moveFromSquares("g8", "f6", false, false));
+        board2.move(Util.moveFromSquares("g1", "f3", false, false));
+        assertEquals(board1.hash(), board2.hash());
+
+        // The pawn hash only depends on the pawns
+        assertEquals(createBoard(Util.START_POS).pawnHash(), board1.pawnHash());
+        assertEquals(createBoard("4k3/pppppppp/8/8/8/8/PPPPPPPP/4K3 b - - 0 1").pawnHash(), board1.pawnHash());
+        assertNotEquals(createBoard("rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1").pawnHash(),
+                board1.pawnHash());
+        assertEquals(0, createBoard("4k3/8/8/8/8/8/8/4K3 w - - 0 1").pawnHash());
+        assertEquals(0x00FF000000000000L, board1.getBitmap('p'));
+        assertEquals(0x0000000000240000L, board1.getBitmap('N'));
+
+        // The incremental hash matches the hash computed from scratch, and undo restores the hash
+        String[] fens = {
+                Util.START_POS,
+                "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+                "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+                "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+        };
+        for (String fen : fens) {
+            Board board = createBoard(fen);
+            long hash = board.hash();
+            long pawnHash = board.pawnHash();
+            MoveList legalMoves = new MoveList();
+            board.generateLegalMoves(legalMoves);
+            for (int i = 0; i < legalMoves.size(); i++) {
+                board.move(legalMoves.get(i));
+                assertEquals(createBoard(board.toFEN()).hash(), board.hash(), board.toFEN());
+                assertEquals(createBoard(board.toFEN()).pawnHash(), board.pawnHash(), board.toFEN());
+                assertEquals(createBoard(board.toFEN()).pawnHash(), board.clone().pawnHash());
+                board.undoLastMove();
+                assertEquals(hash, board.hash());
+                assertEquals(pawnHash, board.pawnHash());
+            }
+        }
+    }
+
+    @Test
+    public void testStaticScore() throws IllegalBoardException, MalformedFENException {
+        // Symmetric positions are equal
+        assertEquals(0, createBoard(Util.START_POS).getStaticScore());
+        assertEquals(0, createBoard("4k3/8/8/8/8/8/8/4K3 w - - 0 1").getStaticScore());
+        // Material dominates, and the score is from white's perspective
+        assertTrue(createBoard("4k3/8/8/8/8/8/8/3QK3 b - - 0 1").getStaticScore() > 800);
+        assertTrue(createBoard("3qk3/8/8/8/8/8/8/4K3 w - - 0 1").getStaticScore() < -800);
+        // Advanced pawns and centralized knights are better
+        assertTrue(createBoard("4k3/8/4P3/8/8/8/8/4K3 w - - 0 1").getStaticScore()
+                > createBoard("4k3/8/8/8/8/8/4P3/4K3 w - - 0 1").getStaticScore());
+        assertTrue(createBoard("4k3/8/8/8/3N4/8/8/4K3 w - - 0 1").getStaticScore()
+                > createBoard("4k3/8/8/8/8/8/8/N3K3 w - - 0 1").getStaticScore());
+        // The king belongs in the corner in the middlegame and in the center in the endgame
+        assertTrue(createBoard("rnbqkbnr/pppppppp/8/8/8/5N2/PPPPBPPP/RNBQ1RK1 w kq - 0 1").getStaticScore()
+                > createBoard("rnbqkbnr/pppppppp/8/8/8/5N2/PPPPBPPP/RNBQK2R w KQkq - 0 1").getStaticScore());
+        assertTrue(createBoard("6k1/8/8/8/3K4/8/8/8 w - - 0 1").getStaticScore() > 0);
+
+        // The incremental score matches the score computed from scratch, and undo restores the score
+        String[] fens = {
+                Util.START_POS,
+                "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+                "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+                "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+        };
+        Random random = new Random(0);
+        for (String fen : fens) {
+            Board board = createBoard(fen);
+            int score = board.getStaticScore();
+            MoveList legalMoves = new MoveList();
+            board.generateLegalMoves(legalMoves);
+            for (int i = 0; i < legalMoves.size(); i++) {
+                board.move(legalMoves.get(i));
+                assertEquals(createBoard(board.toFEN()).getStaticScore(), board.getStaticScore(), board.toFEN());
+                assertEquals(createBoard(board.toFEN()).getStaticScore(), board.clone().getStaticScore());
+                board.undoLastMove();
+                assertEquals(score, board.getStaticScore());
+            }
+            // A random game from the position, then back to the start
+            int plies = 0;
+            while (plies < 40 && board.getWinner() == 'u') {
+                board.generateLegalMoves(legalMoves);
+                board.move(legalMoves.get(random.nextInt(legalMoves.size())));
+                assertEquals(createBoard(board.toFEN()).getStaticScore(), board.getStaticScore(), board.toFEN());
+                plies++;
+            }
+            for (int i = 0; i < plies; i++) {
+                board.undoLastMove();
+            }
+            assertEquals(score, board.getStaticScore());
+        }
+    }
+
     private void perft(String fen, int depth, long expected) throws IllegalBoardException, MalformedFENException {
         long startTime = System.nanoTime();
         System.out.printf("Running perft on %s, depth %d\n", fen, depth);
         Board board = createBoard(fen);
-        board.PERFT = true;
-        assertEquals(expected, countLeafPos(board, depth, new HashMap<>()));
+        // Uncached, so that a bug in the hash can't hide or mimic a bug in move generation
+        assertEquals(expected, new Perft(board, false).parallelPerft(depth));
+        assertEquals(fen, board.toFEN());
         long endTime = System.nanoTime();
         System.out.println("Time spent: " + (endTime - startTime) / 1.0e6 + " ms");
     }
 
-    /**
-     * Count the number of leaf positions starting from board
-     * Postcondition: board is unchanged
-     */
-    private long countLeafPos(Board board, int depth, HashMap<String, Long> memo) {
-//        Board copy = board.clone();
-        String key = board + " " + depth;
-        if (memo.containsKey(key)) {
-            return memo.get(key);
-        }
-        long count = 0;
-        if (depth == 0) {
-            count = 1;
-        } else if (depth == 1) {
-            // Bulk-counting
-            count = board.getLegalMoves().size();
-        } else {
-            for (Move move : board.getLegalMoves()) {
-                board.move(move);
-                count += countLeafPos(board, depth - 1, memo);
-                board.undoLastMove();
-            }
-//            assert copy.toFEN().equals(board.toFEN());
-        }
-        memo.put(key, count);
-        return count;
+    @Test
+    public void perftCached() throws IllegalBoardException, MalformedFENException {
+        // Transpositions hit the cache, and the counts stay the same
+        String fen = "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1";
+        Board board = createBoard(fen);
+        Perft perft = new Perft(board, true);
+        assertEquals(4085603, perft.parallelPerft(4));
+        assertTrue(perft.hits() > 0);
+        assertEquals(fen, board.toFEN());
     }
 
     @Test
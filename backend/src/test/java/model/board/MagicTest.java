@@ -0,0 +1,100 @@
+package model.board;
+
+import model.Util;
+import org.junit.jupiter.api.Test;
+
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MagicTest {
+
+    /**
+     * Get attacks in a specific direction by walking one square at a time.
+     * This is the reference implementation that the magic lookups are checked against.
+     */
+    private long getAttackInDir(int idx, int step, Predicate<Integer> condition, long allPieces) {
+        long attacked = 0;
+        for (int i = idx + step; condition.test(i); i += step) {
+            attacked |= (1L << i);
+            if (Util.getBit(allPieces, i)) {
+                // found blocking piece
+                return attacked;
+            }
+        }
+        return attacked;
+    }
+
+    private long walkRook(int idx, long allPieces) {
+        long attacked = 0;
+        attacked |= getAttackInDir(idx, 8, i -> i / 8 <= 7, allPieces);
+        attacked |= getAttackInDir(idx, -8, i -> i >= 0, allPieces);
+        attacked |= getAttackInDir(idx, 1, i -> i % 8 != 0, allPieces);
+        attacked |= getAttackInDir(idx, -1, i -> (i + 8) % 8 != 7, allPieces);
+        return attacked;
+    }
+
+    private long walkBishop(int idx, long allPieces) {
+        long attacked = 0;
+        attacked |= getAttackInDir(idx, 9, i -> (i % 8 != 0) && (i / 8 <= 7), allPieces);
+        attacked |= getAttackInDir(idx, -7, i -> (i % 8 != 0) && (i >= 0), allPieces);
+        attacked |= getAttackInDir(idx, -9, i -> (i % 8 != 7) && (i >= 0), allPieces);
+        attacked |= getAttackInDir(idx, 7, i -> (i % 8 != 7) && (i / 8 <= 7), allPieces);
+        return attacked;
+    }
+
+    /**
+     * @return the squares attacked by an unobstructed rook or bishop, minus the board edges
+     * that the rays end on. These are the only squares whose occupancy matters.
+     */
+    private long relevantMask(long emptyBoardAttacks, int idx) {
+        long edges = 0;
+        if (idx / 8 != 0) edges |= Util.RANK_1;
+        if (idx / 8 != 7) edges |= Util.RANK_8;
+        if (idx % 8 != 0) edges |= Util.A_FILE;
+        if (idx % 8 != 7) edges |= Util.H_FILE;
+        return emptyBoardAttacks & ~edges;
+    }
+
+    @Test
+    public void testRookAttacks() {
+        for (int idx = 0; idx < 64; idx++) {
+            long mask = relevantMask(walkRook(idx, 0), idx);
+            // Enumerate all subsets of the mask (Carry-Rippler trick)
+            long occupancy = 0;
+            do {
+                assertEquals(walkRook(idx, occupancy), Magic.rookAttacks(idx, occupancy),
+                        "Rook at " + idx + ", occupancy:\n" + Util.bitmapToString(occupancy));
+                occupancy = (occupancy - mask) & mask;
+            } while (occupancy != 0);
+        }
+    }
+
+    @Test
+    public void testBishopAttacks() {
+        for (int idx = 0; idx < 64; idx++) {
+            long mask = relevantMask(walkBishop(idx, 0), idx);
+            long occupancy = 0;
+            do {
+                assertEquals(walkBishop(idx, occupancy), Magic.bishopAttacks(idx, occupancy),
+                        "Bishop at " + idx + ", occupancy:\n" + Util.bitmapToString(occupancy));
+                occupancy = (occupancy - mask) & mask;
+            } while (occupancy != 0);
+        }
+    }
+
+    @Test
+    public void testIrrelevantOccupancy() {
+        // Pieces on the edges and on other lines should not change the result
+        long[] occupancies = {0L, -1L, Util.RANK_1 | Util.RANK_8 | Util.A_FILE | Util.H_FILE,
+                0x3141592653589793L, 0x2718281828459045L, 0xFFFF00000000FFFFL};
+        for (int idx = 0; idx < 64; idx++) {
+            for (long occupancy : occupancies) {
+                assertEquals(walkRook(idx, occupancy), Magic.rookAttacks(idx, occupancy));
+                assertEquals(walkBishop(idx, occupancy), Magic.bishopAttacks(idx, occupancy));
+                assertEquals(walkRook(idx, occupancy) | walkBishop(idx, occupancy),
+                        Magic.queenAttacks(idx, occupancy));
+            }
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package model.board;
 
+import org.junit.jupiter.api.Test;
+
 class MailboxBoardTest extends BoardTest{
     @Override
     protected Board createBoard() {
@@ -10,4 +12,10 @@ class MailboxBoardTest extends BoardTest{
     protected Board createBoard(String fen) throws IllegalBoardException, MalformedFENException {
         return new MailboxBoard(fen);
     }
+
+    @Test
+    public void testPieceLists() throws IllegalBoardException, MalformedFENException {
+        // Make sure that the piece lists stay consistent with the squares
+        playRandomGamesAndUndo(board -> ((MailboxBoard) board).checkPieceLists());
+    }
 }
@@ -0,0 +1,92 @@
+package model.engine;
+
+import model.Util;
+import model.board.BitmapBoard;
+import model.board.Board;
+import model.board.IllegalBoardException;
+import model.board.MailboxBoard;
+import model.board.MalformedFENException;
+import model.move.MoveList;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EvaluationTest {
+    private int evaluate(String fen) throws IllegalBoardException, MalformedFENException {
+        return new Evaluation().evaluate(new BitmapBoard(fen));
+    }
+
+    @Test
+    public void testSymmetry() throws IllegalBoardException, MalformedFENException {
+        assertEquals(0, evaluate(Util.START_POS));
+        // Mirrored positions have the same score for the side to move
+        assertEquals(evaluate("r1bqk2r/pp3ppp/2n2n2/2bpp3/4P3/2PP1N2/PP3PPP/RNBQKB1R w KQkq - 0 1"),
+                evaluate("rnbqkb1r/pp3ppp/2pp1n2/4p3/2BPP3/2N2N2/PP3PPP/R1BQK2R b KQkq - 0 1"));
+        // Both representations give the same score
+        String fen = "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1";
+        assertEquals(new Evaluation().evaluate(new BitmapBoard(fen)), new Evaluation().evaluate(new MailboxBoard(fen)));
+    }
+
+    @Test
+    public void testPawnStructure() throws IllegalBoardException, MalformedFENException {
+        // Doubled pawns
+        assertTrue(evaluate("4k3/8/8/8/8/4P3/3P4/4K3 w - - 0 1") > evaluate("4k3/8/8/8/8/3P4/3P4/4K3 w - - 0 1"));
+        // Isolated pawns
+        assertTrue(evaluate("4k3/p7/8/8/8/8/2PP4/4K3 w - - 0 1") > evaluate("4k3/p7/8/8/8/8/2P1P3/4K3 w - - 0 1"));
+        // Passed pawns
+        assertTrue(evaluate("4k3/p7/8/4P3/8/8/8/4K3 w - - 0 1") > evaluate("4k3/3p4/8/4P3/8/8/8/4K3 w - - 0 1"));
+        // Pawn shields
+        assertTrue(evaluate("rnbq1rk1/pppppppp/8/8/8/8/PPPPPPPP/RNBQ1RK1 w - - 0 1")
+                > evaluate("rnbq1rk1/pppppppp/8/8/8/6P1/PPPPPP1P/RNBQ1RK1 w - - 0 1"));
+        assertTrue(evaluate("rnbq1rk1/pppppppp/8/8/8/8/PPPPPPPP/RNBQ1RK1 w - - 0 1")
+                > evaluate("rnbq1rk1/pppppppp/8/8/6P1/8/PPPPPP1P/RNBQ1RK1 w - - 0 1"));
+    }
+
+    @Test
+    public void testPawnHashTable() throws IllegalBoardException, MalformedFENException {
+        assertThrows(IllegalArgumentException.class, () -> new PawnHashTable(0));
+        assertThrows(IllegalArgumentException.class, () -> new PawnHashTable(1000));
+
+        Evaluation evaluation = new Evaluation(new PawnHashTable(1 << 10));
+        PawnHashTable table = evaluation.pawnTable();
+        Board board = new BitmapBoard(Util.START_POS);
+        int score = evaluation.evaluate(board);
+        assertEquals(0, table.hits());
+        assertEquals(1, table.misses());
+        // A knight move doesn't change the pawns, so the pawn structure is found in the table
+        board.move(Util.moveFromSquares("g1", "f3", false, false));
+        evaluation.evaluate(board);
+        assertEquals(1, table.hits());
+        board.undoLastMove();
+        assertEquals(score, evaluation.evaluate(board));
+        assertEquals(2, table.hits());
+        assertEquals(2.0 / 3, table.hitRate(), 1e-9);
+
+        // Cached and fresh evaluations agree, whatever entries are replaced
+        Evaluation fresh = new Evaluation(new PawnHashTable(1));
+        Random random = new Random(0);
+        MoveList moves = new MoveList();
+        for (int ply = 0; ply < 80 && board.getWinner() == 'u'; ply++) {
+            board.generateLegalMoves(moves);
+            board.move(moves.get(random.nextInt(moves.size())));
+            assertEquals(new Evaluation().evaluate(new BitmapBoard(board.toFEN())), evaluation.evaluate(board),
+                    board.toFEN());
+            assertEquals(evaluation.evaluate(board), fresh.evaluate(board));
+        }
+
+        table.clear();
+        assertEquals(0, table.hits());
+        assertEquals(0.0, table.hitRate());
+    }
+
+    @Test
+    public void testHitRate() throws IllegalBoardException, MalformedFENException {
+        // In the middlegame, the pawns of most nodes are already in the table
+        Search search = new Search(
+                new BitmapBoard("r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1"));
+        search.search(10000, 4);
+        assertTrue(search.evaluation().pawnTable().hitRate() > 0.95, "" + search.evaluation().pawnTable().hitRate());
+    }
+}
@@ -0,0 +1,76 @@
+package model.engine;
+
+import model.board.BitmapBoard;
+import model.board.Board;
+import model.board.IllegalBoardException;
+import model.board.MalformedFENException;
+import model.move.PackedMove;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LazySmpSearchTest {
+
+    @Test
+    public void testMate() throws IllegalBoardException, MalformedFENException {
+        String fen = "6k1/8/8/8/8/8/8/RR4K1 w - - 0 1";
+        Board board = new BitmapBoard(fen);
+        Search.Result result = new LazySmpSearch(board, new TranspositionTable(4), 4).search(10000, 6);
+        assertEquals(fen, board.toFEN());
+        assertEquals(Search.MATE - 3, result.score());
+        for (int move : result.pv()) {
+            assertTrue(board.move(move));
+        }
+        assertEquals('w', board.getWinner());
+    }
+
+    @Test
+    public void testDepth() throws IllegalBoardException, MalformedFENException {
+        // The helpers store deeper results in the table, so the score may differ from a single-threaded search,
+        // but the main thread still completes every iteration up to maxDepth
+        String fen = "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1";
+        Board board = new BitmapBoard(fen);
+        Search.Result result = new LazySmpSearch(board, new TranspositionTable(4), 3).search(10000, 4);
+        assertEquals(4, result.depth());
+        assertTrue(board.getLegalMoves().contains(PackedMove.toMove(result.bestMove())));
+    }
+
+    @Test
+    public void testStop() throws InterruptedException {
+        LazySmpSearch search = new LazySmpSearch(new BitmapBoard(), new TranspositionTable(4), 4);
+        Thread stopper = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            search.stop();
+        });
+        stopper.start();
+        Search.Result result = search.search(100000, Search.MAX_PLY - 1);
+        stopper.join();
+        assertNotEquals(PackedMove.NONE, result.bestMove());
+        // The helpers are joined before search returns
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            assertFalse(thread.getName().startsWith("search-helper-"), thread.getName());
+        }
+    }
+
+    @Test
+    public void testInterrupt() {
+        // An interrupted caller still waits for every helper, and keeps its interrupt status
+        Thread.currentThread().interrupt();
+        Search.Result result = new LazySmpSearch(new BitmapBoard(), new TranspositionTable(4), 4).search(10000, 3);
+        assertTrue(Thread.interrupted());
+        assertEquals(3, result.depth());
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            assertFalse(thread.getName().startsWith("search-helper-"), thread.getName());
+        }
+    }
+
+    @Test
+    public void testThreads() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new LazySmpSearch(new BitmapBoard(), new TranspositionTable(1), 0));
+    }
+}
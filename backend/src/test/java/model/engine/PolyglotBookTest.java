@@ -0,0 +1,203 @@
+package model.engine;
+
+import model.Util;
+import model.board.BitmapBoard;
+import model.board.Board;
+import model.board.IllegalBoardException;
+import model.board.MalformedFENException;
+import model.move.Move;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PolyglotBookTest {
+    private static final PolyglotKey KEYS = PolyglotKey.DEFAULT;
+
+    /**
+     * An entry to write, with the move as a string like "e2e4", "e1h1" or "a7a8q"
+     */
+    private record Entry(String fen, String move, int weight) {
+    }
+
+    private static Path writeBook(Entry... entries) throws IOException, IllegalBoardException, MalformedFENException {
+        long[][] rows = new long[entries.length][];
+        for (int i = 0; i < entries.length; i++) {
+            Entry entry = entries[i];
+            String move = entry.move();
+            int bookMove = (move.charAt(2) - 'a') | (move.charAt(3) - '1') << 3
+                    | (move.charAt(0) - 'a') << 6 | (move.charAt(1) - '1') << 9;
+            if (move.length() == 5) {
+                bookMove |= ("nbrq".indexOf(move.charAt(4)) + 1) << 12;
+            }
+            rows[i] = new long[]{KEYS.key(new BitmapBoard(entry.fen())), bookMove, entry.weight()};
+        }
+        Arrays.sort(rows, (a, b) -> Long.compareUnsigned(a[0], b[0]));
+        ByteBuffer buffer = ByteBuffer.allocate(16 * rows.length);
+        for (long[] row : rows) {
+            buffer.putLong(row[0]).putShort((short) row[1]).putShort((short) row[2]).putInt(0);
+        }
+        Path path = Files.createTempFile("book", ".bin");
+        path.toFile().deleteOnExit();
+        Files.write(path, buffer.array());
+        return path;
+    }
+
+    @Test
+    public void testKey() throws IllegalBoardException, MalformedFENException {
+        assertThrows(IllegalArgumentException.class, () -> new PolyglotKey(new long[10]));
+        Board board = new BitmapBoard();
+        long start = KEYS.key(board);
+        board.move(Util.moveFromSquares("g1", "f3", false, false));
+        assertNotEquals(start, KEYS.key(board));
+        board.move(Util.moveFromSquares("g8", "f6", false, false));
+        board.move(Util.moveFromSquares("f3", "g1", false, false));
+        board.move(Util.moveFromSquares("f6", "g8", false, false));
+        assertEquals(start, KEYS.key(board));
+        // Castling rights and the side to move are part of the key
+        assertNotEquals(start, KEYS.key(new BitmapBoard("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w Kkq - 0 1")));
+        assertNotEquals(start, KEYS.key(new BitmapBoard("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR b KQkq - 0 1")));
+        // The en passant file is only part of the key if a pawn can capture
+        assertEquals(KEYS.key(new BitmapBoard("rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq - 0 1")),
+                KEYS.key(new BitmapBoard("rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1")));
+        assertNotEquals(KEYS.key(new BitmapBoard("rnbqkbnr/ppp1pppp/8/8/3pP3/8/PPPP1PPP/RNBQKBNR b KQkq - 0 1")),
+                KEYS.key(new BitmapBoard("rnbqkbnr/ppp1pppp/8/8/3pP3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1")));
+    }
+
+    @Test
+    public void testPublishedKey() throws IllegalBoardException, MalformedFENException {
+        // The examples of the Polyglot format: the start position and the positions after some moves
+        String[][] moves = {
+                {}, {"e2e4"}, {"e2e4", "d7d5"}, {"e2e4", "d7d5", "e4e5"}, {"e2e4", "d7d5", "e4e5", "f7f5"},
+                {"e2e4", "d7d5", "e4e5", "f7f5", "e1e2"}, {"e2e4", "d7d5", "e4e5", "f7f5", "e1e2", "e8f7"},
+                {"a2a4", "b7b5", "h2h4", "b5b4", "c2c4"}, {"a2a4", "b7b5", "h2h4", "b5b4", "c2c4", "b4c3", "a1a3"},
+        };
+        long[] expected = {
+                0x463B96181691FC9CL, 0x823C9B50FD114196L, 0x0756B94461C50FB0L, 0x662FAFB965DB29D4L,
+                0x22A48B5A8E47FF78L, 0x652A607CA3F242C1L, 0x00FDD303C946BDD9L, 0x3C8123EA7B067637L,
+                0x5C3F9B829B279560L,
+        };
+        for (int i = 0; i < moves.length; i++) {
+            Board board = new BitmapBoard();
+            for (String move : moves[i]) {
+                // Only b4c3 is a capture (en passant) in these games
+                boolean enPassant = move.equals("b4c3");
+                assertTrue(board.move(Util.moveFromSquares(move.substring(0, 2), move.substring(2), enPassant,
+                        enPassant)));
+            }
+            assertEquals(expected[i], PolyglotKey.DEFAULT.key(board), String.join(" ", moves[i]));
+        }
+    }
+
+    @Test
+    public void testLoadKey() throws IOException, IllegalBoardException, MalformedFENException {
+        long[] random = new Random(0).longs(PolyglotKey.RANDOM_COUNT).toArray();
+        List<String> lines = new ArrayList<>();
+        for (long number : random) {
+            lines.add(String.format("0x%016X,", number));
+        }
+        Path path = Files.createTempFile("random64", ".txt");
+        path.toFile().deleteOnExit();
+        Files.write(path, lines);
+        assertEquals(new PolyglotKey(random).key(new BitmapBoard()), PolyglotKey.load(path).key(new BitmapBoard()));
+        assertNotEquals(KEYS.key(new BitmapBoard()), PolyglotKey.load(path).key(new BitmapBoard()));
+
+        Files.write(path, List.of("0x1234", "not a number"));
+        assertThrows(IllegalArgumentException.class, () -> PolyglotKey.load(path));
+    }
+
+    @Test
+    public void testLookup() throws IOException, IllegalBoardException, MalformedFENException {
+        String castling = "r3k2r/pppqbppp/2npbn2/4p3/4P3/2NPBN2/PPPQBPPP/R3K2R w KQkq - 0 1";
+        String promotion = "4k3/1P6/8/8/8/8/8/4K3 w - - 0 1";
+        String enPassant = "4k3/8/8/3pP3/8/8/8/4K3 w - d6 0 1";
+        PolyglotBook book = new PolyglotBook(writeBook(
+                new Entry(Util.START_POS, "e2e4", 10),
+                new Entry(Util.START_POS, "d2d4", 5),
+                new Entry("rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq - 0 1", "c7c5", 1),
+                new Entry(castling, "e1h1", 3),
+                new Entry(castling, "e1a1", 2),
+                new Entry(promotion, "b7b8q", 1),
+                new Entry(promotion, "b7b8n", 1),
+                new Entry(enPassant, "e5d6", 1)));
+        assertEquals(8, book.size());
+
+        assertEquals(List.of(
+                new PolyglotBook.BookMove(Util.moveFromSquares("e2", "e4", false, false), 10),
+                new PolyglotBook.BookMove(Util.moveFromSquares("d2", "d4", false, false), 5)
+        ), book.lookup(new BitmapBoard()));
+        assertEquals(List.of(
+                new PolyglotBook.BookMove(new Move('K'), 3),
+                new PolyglotBook.BookMove(new Move('Q'), 2)
+        ), book.lookup(new BitmapBoard(castling)));
+        Set<Move> promotions = new HashSet<>();
+        for (PolyglotBook.BookMove move : book.lookup(new BitmapBoard(promotion))) {
+            promotions.add(move.move());
+        }
+        assertEquals(Set.of(Util.moveFromSquares("b7", "b8", 'Q', false), Util.moveFromSquares("b7", "b8", 'N', false)),
+                promotions);
+        assertEquals(Util.moveFromSquares("e5", "d6", true, true),
+                book.lookup(new BitmapBoard(enPassant)).getFirst().move());
+        // Positions that aren't in the book
+        assertEquals(List.of(), book.lookup(new BitmapBoard("4k3/8/8/8/8/8/8/4K3 w - - 0 1")));
+
+        // Book moves are legal moves
+        Board board = new BitmapBoard(castling);
+        assertTrue(board.move(book.lookup(board).getFirst().move()));
+    }
+
+    @Test
+    public void testIllegalMoves() throws IOException, IllegalBoardException, MalformedFENException {
+        // Moves that a corrupted book may hold: a pawn moving three squares, a knight moving like a bishop,
+        // a move of the other side, and moves that leave the king in check
+        String check = "4k3/8/8/8/8/8/8/4K2r w - - 0 1";
+        PolyglotBook book = new PolyglotBook(writeBook(
+                new Entry(Util.START_POS, "e2e5", 10),
+                new Entry(Util.START_POS, "g1e3", 5),
+                new Entry(Util.START_POS, "e7e5", 5),
+                new Entry(Util.START_POS, "g1f3", 1),
+                new Entry(check, "e1f1", 1),
+                new Entry(check, "e1d1", 1)));
+        assertEquals(List.of(new PolyglotBook.BookMove(Util.moveFromSquares("g1", "f3", false, false), 1)),
+                book.lookup(new BitmapBoard()));
+        assertEquals(Util.moveFromSquares("g1", "f3", false, false), book.pickMove(new BitmapBoard(), new Random(0)));
+        // No legal move is left, so the player has to search
+        assertEquals(List.of(), book.lookup(new BitmapBoard(check)));
+        assertNull(book.pickMove(new BitmapBoard(check), new Random(0)));
+    }
+
+    @Test
+    public void testPickMove() throws IOException, IllegalBoardException, MalformedFENException {
+        PolyglotBook book = new PolyglotBook(writeBook(
+                new Entry(Util.START_POS, "e2e4", 3),
+                new Entry(Util.START_POS, "d2d4", 1),
+                new Entry(Util.START_POS, "g1f3", 0),
+                new Entry("4k3/8/8/8/8/8/8/4K3 w - - 0 1", "e1e2", 0)));
+        Random random = new Random(0);
+        Map<Move, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            counts.merge(book.pickMove(new BitmapBoard(), random), 1, Integer::sum);
+        }
+        // About three times as many e4 as d4, and never a move of weight 0
+        assertEquals(2, counts.size());
+        int e4 = counts.get(Util.moveFromSquares("e2", "e4", false, false));
+        assertTrue(e4 > 700 && e4 < 800, "" + e4);
+        assertNull(book.pickMove(new BitmapBoard("4k3/8/8/8/8/8/8/4K3 w - - 0 1"), random));
+        assertNull(book.pickMove(new BitmapBoard("4k3/8/8/8/8/8/8/3K4 w - - 0 1"), random));
+    }
+
+    @Test
+    public void testMalformedBook() throws IOException {
+        Path path = Files.createTempFile("book", ".bin");
+        path.toFile().deleteOnExit();
+        Files.write(path, new byte[20]);
+        assertThrows(IOException.class, () -> new PolyglotBook(path));
+        Files.write(path, new byte[0]);
+        assertEquals(0, new PolyglotBook(path).size());
+    }
+}
@@ -0,0 +1,111 @@
+package model.engine;
+
+import model.Util;
+import model.board.BitmapBoard;
+import model.board.Board;
+import model.board.IllegalBoardException;
+import model.board.MalformedFENException;
+import model.move.PackedMove;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SearchTest {
+    private Search.Result search(String fen, int maxDepth) throws IllegalBoardException, MalformedFENException {
+        Board board = new BitmapBoard(fen);
+        Search.Result result = new Search(board).search(10000, maxDepth);
+        assertEquals(fen, board.toFEN());
+        return result;
+    }
+
+    @Test
+    public void testMate() throws IllegalBoardException, MalformedFENException {
+        Search.Result result = search("6k1/5ppp/8/8/8/8/8/R5K1 w - - 0 1", 4);
+        assertEquals("a1-a8", PackedMove.toString(result.bestMove()));
+        assertEquals(Search.MATE - 1, result.score());
+        // The search stops as soon as a mate is found
+        assertEquals(1, result.depth());
+
+        result = search("6k1/8/8/8/8/8/8/RR4K1 w - - 0 1", 6);
+        assertEquals(Search.MATE - 3, result.score());
+        assertEquals(3, result.pv().length);
+        // Playing the PV mates
+        Board board = new BitmapBoard("6k1/8/8/8/8/8/8/RR4K1 w - - 0 1");
+        for (int move : result.pv()) {
+            assertTrue(board.move(move));
+        }
+        assertEquals('w', board.getWinner());
+    }
+
+    @Test
+    public void testMaterial() throws IllegalBoardException, MalformedFENException {
+        Search.Result result = search("4k3/8/8/3q4/8/8/3R4/4K3 w - - 0 1", 3);
+        assertEquals("d2xd5", PackedMove.toString(result.bestMove()));
+        assertTrue(result.score() > 0);
+        // Black to move keeps the queen away from the rook
+        result = search("4k3/8/8/3q4/8/8/3R4/4K3 b - - 0 1", 3);
+        assertTrue(result.score() > 0);
+    }
+
+    @Test
+    public void testQuiescence() throws IllegalBoardException, MalformedFENException {
+        // At depth 1, Qxe5 wins a pawn unless the recapture dxe5 is seen
+        Search.Result result = search("4k3/8/3p4/4p3/8/8/4Q3/4K3 w - - 0 1", 1);
+        assertNotEquals("e2xe5", PackedMove.toString(result.bestMove()));
+        // Queen against two pawns, without winning either
+        assertTrue(result.score() > 600 && result.score() < 800, "" + result.score());
+        // But an undefended pawn is taken
+        result = search("4k3/8/8/4p3/8/8/4Q3/4K3 w - - 0 1", 1);
+        assertEquals("e2xe5", PackedMove.toString(result.bestMove()));
+    }
+
+    @Test
+    public void testTranspositionTable() throws IllegalBoardException, MalformedFENException {
+        String fen = "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1";
+        TranspositionTable table = new TranspositionTable(1);
+        Search.Result first = new Search(new BitmapBoard(fen), table).search(10000, 4);
+        assertTrue(table.hitRate() > 0);
+        // Searching again with the filled table gives the same score, with fewer nodes
+        Search.Result second = new Search(new BitmapBoard(fen), table).search(10000, 4);
+        assertEquals(first.score(), second.score());
+        assertTrue(second.nodes() < first.nodes());
+    }
+
+    @Test
+    public void testGameOver() throws IllegalBoardException, MalformedFENException {
+        // Stalemate
+        Search.Result result = search("7k/5Q2/6K1/8/8/8/8/8 b - - 0 1", 3);
+        assertEquals(PackedMove.NONE, result.bestMove());
+        assertEquals(0, result.score());
+    }
+
+    @Test
+    public void testTimeLimit() {
+        Board board = new BitmapBoard();
+        long startTime = System.nanoTime();
+        Search.Result result = new Search(board).search(100, Search.MAX_PLY - 1);
+        long elapsed = (System.nanoTime() - startTime) / 1_000_000;
+        assertEquals(Util.START_POS, board.toFEN());
+        assertTrue(result.depth() >= 1);
+        assertNotEquals(PackedMove.NONE, result.bestMove());
+        assertTrue(elapsed < 1000, "Search took " + elapsed + " ms");
+    }
+
+    @Test
+    public void testStop() throws InterruptedException {
+        Search search = new Search(new BitmapBoard());
+        Thread stopper = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            search.stop();
+        });
+        stopper.start();
+        Search.Result result = search.search(100000, Search.MAX_PLY - 1);
+        stopper.join();
+        assertNotEquals(PackedMove.NONE, result.bestMove());
+        assertTrue(result.depth() < Search.MAX_PLY - 1);
+    }
+}
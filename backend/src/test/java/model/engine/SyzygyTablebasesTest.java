@@ -0,0 +1,488 @@
+package model.engine;
+
+import model.Util;
+import model.board.BitmapBoard;
+import model.board.Bitbases;
+import model.board.Board;
+import model.board.IllegalBoardException;
+import model.board.MalformedFENException;
+import model.move.MoveList;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Real Syzygy files can't be bundled, so these tests write KRvK and KPvK tables in the Syzygy layout, with
+ * the values of the bitbases and of a mate search below, coded with fixed-length codes instead of compressed.
+ * The indices of the boards come from SyzygyTable itself, so the tests check that the layout is read back,
+ * that mirrored boards share an index only if they have the same value, and the searches of the probes.
+ * testKnownLayout checks the sizes and some indices against values of the encoding of the published files.
+ */
+class SyzygyTablebasesTest {
+    // 64 * 64 * 64 squares times 2 sides to move, indexed as in Bitbases
+    private static final int SIZE = 1 << 19;
+    private static final int[] KRK_PIECES = {SyzygyTable.pieceCode('K'), SyzygyTable.pieceCode('R'),
+            SyzygyTable.pieceCode('k')};
+    private static final int[] KPK_PIECES = {SyzygyTable.pieceCode('P'), SyzygyTable.pieceCode('K'),
+            SyzygyTable.pieceCode('k')};
+    // Symbols of the blocks written by writeTable
+    private static final int BLOCK_SIZE_SHIFT = 6;
+    private static final int SPAN_SHIFT = 10;
+
+    private static Bitbases bitbases;
+    private static int[] mateDistances;
+    private static Path dir;
+
+    private static synchronized Bitbases bitbases() {
+        if (bitbases == null) {
+            bitbases = Bitbases.generate();
+        }
+        return bitbases;
+    }
+
+    /**
+     * Generating the tables takes a few seconds, so it's done once for all tests
+     */
+    private static synchronized Path tables() throws IOException {
+        if (dir == null) {
+            dir = Files.createTempDirectory("syzygy");
+            dir.toFile().deleteOnExit();
+            int[] distances = mateDistances();
+            writeTable(dir.resolve("KRvK.rtbw"), "KRvK", false, KRK_PIECES, 0, 'R', index -> {
+                if (distances[index] < 0) {
+                    return SyzygyTablebases.DRAW + 2;
+                }
+                return ((index & 1) == 0 ? SyzygyTablebases.WIN : SyzygyTablebases.LOSS) + 2;
+            });
+            // The DTZ table stores white to move, in moves
+            writeTable(dir.resolve("KRvK.rtbz"), "KRvK", true, KRK_PIECES, 0, 'R',
+                    index -> Math.max(0, (distances[index] - 1) / 2));
+            writeTable(dir.resolve("KPvK.rtbw"), "KPvK", false, KPK_PIECES, 0, 'P', index ->
+                    2 * bitbases().probe(board(index, 'P', false)) + 2);
+        }
+        return dir;
+    }
+
+    private static int index(int whiteKing, int piece, int blackKing, boolean whiteToMove) {
+        return ((whiteKing * 64 + piece) * 64 + blackKing) * 2 + (whiteToMove ? 0 : 1);
+    }
+
+    /**
+     * @param mirrored whether to mirror the board vertically and swap the colors
+     * @return the board with a white king, a white piece and a black king at index, or null if it's illegal
+     */
+    private static Board board(int index, char piece, boolean mirrored) {
+        boolean whiteToMove = (index & 1) == 0;
+        int blackKing = (index >>> 1) & 63;
+        int pieceSquare = (index >>> 7) & 63;
+        int whiteKing = index >>> 13;
+        if (whiteKing == pieceSquare || whiteKing == blackKing || pieceSquare == blackKing) {
+            return null;
+        }
+        char[] squares = new char[64];
+        int flip = mirrored ? 56 : 0;
+        squares[whiteKing ^ flip] = mirrored ? 'k' : 'K';
+        squares[pieceSquare ^ flip] = mirrored ? Character.toLowerCase(piece) : piece;
+        squares[blackKing ^ flip] = mirrored ? 'K' : 'k';
+        StringBuilder fen = new StringBuilder();
+        for (int row = 7; row >= 0; row--) {
+            int blanks = 0;
+            for (int col = 0; col < 8; col++) {
+                char c = squares[row * 8 + col];
+                if (c == 0) {
+                    blanks++;
+                } else {
+                    fen.append(blanks > 0 ? String.valueOf(blanks) : "").append(c);
+                    blanks = 0;
+                }
+            }
+            fen.append(blanks > 0 ? String.valueOf(blanks) : "").append(row > 0 ? "/" : "");
+        }
+        fen.append(whiteToMove != mirrored ? " w - - 0 1" : " b - - 0 1");
+        try {
+            return new BitmapBoard(fen.toString());
+        } catch (IllegalBoardException | MalformedFENException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the number of plies to checkmate the black king with best play in KRvK by index, -1 if drawn
+     */
+    private static synchronized int[] mateDistances() {
+        if (mateDistances != null) {
+            return mateDistances;
+        }
+        // children[index] lists the indices after each move, -1 if the rook is captured
+        int[][] children = new int[SIZE][];
+        int[] distances = new int[SIZE];
+        Arrays.fill(distances, -1);
+        IntStream.range(0, SIZE).parallel().forEach(index -> {
+            Board board = board(index, 'R', false);
+            if (board == null) {
+                return;
+            }
+            if (board.getWinner() == 'w') {
+                distances[index] = 0;
+            }
+            MoveList moves = new MoveList();
+            board.generateLegalMoves(moves);
+            children[index] = new int[moves.size()];
+            for (int i = 0; i < moves.size(); i++) {
+                board.move(moves.get(i));
+                children[index][i] = board.getPieceCount('R') == 0 ? -1
+                        : index(Util.getLS1BIdx(board.getBitmap('K')), Util.getLS1BIdx(board.getBitmap('R')),
+                        Util.getLS1BIdx(board.getBitmap('k')), board.whiteToMove());
+                board.undoLastMove();
+            }
+        });
+        for (int plies = 1; ; plies++) {
+            int[] last = distances.clone();
+            int ply = plies;
+            IntStream.range(0, SIZE).parallel().forEach(index -> {
+                if (last[index] >= 0 || children[index] == null || children[index].length == 0) {
+                    return;
+                }
+                boolean whiteToMove = (index & 1) == 0;
+                boolean won = !whiteToMove;
+                for (int child : children[index]) {
+                    boolean childWon = child >= 0 && last[child] >= 0;
+                    won = whiteToMove ? won || childWon && last[child] == ply - 1 : won && childWon;
+                }
+                if (won) {
+                    distances[index] = ply;
+                }
+            });
+            if (Arrays.equals(last, distances)) {
+                break;
+            }
+        }
+        mateDistances = distances;
+        return distances;
+    }
+
+    /**
+     * Write a table of the material with white as the stronger side, whose values are given by the index of
+     * the boards (see index), or 0 for indices that no board has
+     *
+     * @param pieces the codes of the pieces in the order of the table, with the leading pawns first
+     */
+    private static void writeTable(Path path, String name, boolean dtz, int[] pieces, int sequenceFlags,
+                                   char piece, IntUnaryOperator valueOf) throws IOException {
+        boolean hasPawns = name.contains("P");
+        int files = hasPawns ? 4 : 1;
+        int sides = dtz ? 1 : 2;
+        // A table of single values gives the indices of the boards
+        SyzygyTable layout = layout(name, dtz, pieces);
+        int[][][] values = new int[sides][files][];
+        for (int side = 0; side < sides; side++) {
+            for (int file = 0; file < files; file++) {
+                values[side][file] = new int[(int) layout.size(side, file)];
+                Arrays.fill(values[side][file], -1);
+            }
+        }
+        int maxValue = 1;
+        for (int index = 0; index < SIZE; index++) {
+            Board board = board(index, piece, false);
+            if (board == null) {
+                continue;
+            }
+            SyzygyTable.Location location = layout.locate(board, false);
+            if (location == null) {
+                continue;
+            }
+            int value = valueOf.applyAsInt(index);
+            int[] sequence = values[location.side()][location.file()];
+            int stored = sequence[(int) location.index()];
+            assertTrue(stored == -1 || stored == value, board.toFEN());
+            sequence[(int) location.index()] = value;
+            maxValue = Math.max(maxValue, value);
+        }
+
+        Output out = header(name, dtz, pieces);
+        int bits = 32 - Integer.numberOfLeadingZeros(maxValue);
+        int blockSize = 1 << BLOCK_SIZE_SHIFT;
+        // Leave room for the 64 bits that the decoder reads ahead
+        int symbolsPerBlock = (blockSize * 8 - 64) / bits;
+        for (int file = 0; file < files; file++) {
+            for (int side = 0; side < sides; side++) {
+                int numBlocks = (values[side][file].length + symbolsPerBlock - 1) / symbolsPerBlock;
+                out.u8(sequenceFlags).u8(BLOCK_SIZE_SHIFT).u8(SPAN_SHIFT).u8(0).u32(numBlocks);
+                // Every symbol is a value with a code of the same length
+                out.u8(bits).u8(bits).u16(0).u16(maxValue + 1);
+                for (int value = 0; value <= maxValue; value++) {
+                    out.u8(value & 0xFF).u8(0xF0 | value >>> 8).u8(0xFF);
+                }
+                out.align(2);
+            }
+        }
+        int span = 1 << SPAN_SHIFT;
+        for (int file = 0; file < files; file++) {
+            for (int side = 0; side < sides; side++) {
+                int size = values[side][file].length;
+                int numBlocks = (size + symbolsPerBlock - 1) / symbolsPerBlock;
+                for (long middle = span / 2; middle - span / 2 < size; middle += span) {
+                    int block = (int) Math.min(middle / symbolsPerBlock, numBlocks - 1);
+                    out.u32(block).u16((int) (middle - (long) block * symbolsPerBlock));
+                }
+            }
+        }
+        for (int file = 0; file < files; file++) {
+            for (int side = 0; side < sides; side++) {
+                int size = values[side][file].length;
+                for (int start = 0; start < size; start += symbolsPerBlock) {
+                    out.u16(Math.min(symbolsPerBlock, size - start) - 1);
+                }
+            }
+        }
+        for (int file = 0; file < files; file++) {
+            for (int side = 0; side < sides; side++) {
+                out.align(64);
+                int[] sequence = values[side][file];
+                for (int start = 0; start < sequence.length; start += symbolsPerBlock) {
+                    byte[] block = new byte[blockSize];
+                    for (int i = 0; i < symbolsPerBlock && start + i < sequence.length; i++) {
+                        int value = Math.max(0, sequence[start + i]);
+                        for (int bit = 0; bit < bits; bit++) {
+                            if ((value >>> (bits - 1 - bit) & 1) != 0) {
+                                int position = i * bits + bit;
+                                block[position / 8] |= (byte) (0x80 >>> position % 8);
+                            }
+                        }
+                    }
+                    out.bytes.write(block, 0, block.length);
+                }
+            }
+        }
+        Files.write(path, out.finish());
+        path.toFile().deleteOnExit();
+    }
+
+    /**
+     * @return a table of the material where every sequence holds the same value
+     */
+    private static byte[] singleValueTable(String name, boolean dtz, int[] pieces, int... sideValues) {
+        Output out = header(name, dtz, pieces);
+        int files = name.contains("P") ? 4 : 1;
+        int sides = dtz ? 1 : 2;
+        for (int file = 0; file < files; file++) {
+            for (int side = 0; side < sides; side++) {
+                out.u8(128).u8(sideValues[Math.min(side, sideValues.length - 1)]);
+            }
+        }
+        return out.finish();
+    }
+
+    /**
+     * @return a table of the material whose layout can be read, but whose values are all 0
+     */
+    private static SyzygyTable layout(String name, boolean dtz, int[] pieces) {
+        return new SyzygyTable(name, dtz, ByteBuffer.wrap(singleValueTable(name, dtz, pieces, 0)));
+    }
+
+    private static Output header(String name, boolean dtz, int[] pieces) {
+        Output out = new Output();
+        out.bytes.writeBytes(dtz ? SyzygyTable.DTZ_MAGIC : SyzygyTable.WDL_MAGIC);
+        boolean hasPawns = name.contains("P");
+        // The materials of these tests aren't symmetric
+        out.u8(1 | (hasPawns ? 2 : 0));
+        for (int file = 0; file < (hasPawns ? 4 : 1); file++) {
+            out.u8(0);
+            for (int code : pieces) {
+                out.u8(code | code << 4);
+            }
+        }
+        out.align(2);
+        return out;
+    }
+
+    private static class Output {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        Output u8(int value) {
+            bytes.write(value);
+            return this;
+        }
+
+        Output u16(int value) {
+            return u8(value & 0xFF).u8(value >>> 8 & 0xFF);
+        }
+
+        Output u32(int value) {
+            return u16(value & 0xFFFF).u16(value >>> 16);
+        }
+
+        void align(int alignment) {
+            while (bytes.size() % alignment != 0) {
+                u8(0);
+            }
+        }
+
+        /**
+         * @return the bytes, padded to 16 more than a multiple of 64 like the files of the tablebases
+         */
+        byte[] finish() {
+            do {
+                u8(0);
+            } while (bytes.size() % 64 != 16);
+            return bytes.toByteArray();
+        }
+    }
+
+    @Test
+    public void testKnownLayout() throws IllegalBoardException, MalformedFENException {
+        // Sizes of the sequences of the published files: three unique pieces take 31332 indices, and a lone
+        // pawn takes the 6 rows of its file times the 63 and 62 squares left for the kings
+        SyzygyTable krk = layout("KRvK", false, KRK_PIECES);
+        assertEquals(31332, krk.size(0, 0));
+        assertEquals(31332, krk.size(1, 0));
+        assertEquals(31332, layout("KRvK", true, KRK_PIECES).size(0, 0));
+        SyzygyTable kpk = layout("KPvK", false, KPK_PIECES);
+        for (int file = 0; file < 4; file++) {
+            assertEquals(23436, kpk.size(0, file));
+            assertEquals(23436, kpk.size(1, file));
+        }
+
+        // Indices worked out by hand from the encoding of the published files. With the king on c1 (1 in the
+        // a1-d1-d4 triangle), the rook on a8 and the black king on h1, the index is (1 * 63 + 55) * 62 + 6.
+        assertEquals(new SyzygyTable.Location(0, 0, 7322),
+                krk.locate(new BitmapBoard("R7/8/8/8/8/8/8/2K4k w - - 0 1"), false));
+        assertEquals(new SyzygyTable.Location(1, 0, 7322),
+                krk.locate(new BitmapBoard("R7/8/8/8/8/8/8/2K4k b - - 0 1"), false));
+        // The same board with the colors swapped, which flips it vertically, and mirrored left to right
+        assertEquals(new SyzygyTable.Location(0, 0, 7322),
+                krk.locate(new BitmapBoard("7r/8/8/8/8/8/8/K4k2 b - - 0 1"), true));
+        // The pawn on a2 is the first of its file, the king on c1 is square 2 and the black king on h8 is
+        // square 61 of those left, so the index is 2 * 6 + 61 * 6 * 63
+        assertEquals(new SyzygyTable.Location(0, 0, 23070),
+                kpk.locate(new BitmapBoard("7k/8/8/8/8/8/P7/2K5 w - - 0 1"), false));
+        assertEquals(new SyzygyTable.Location(0, 0, 23070),
+                kpk.locate(new BitmapBoard("k7/8/8/8/8/8/7P/5K2 w - - 0 1"), false));
+    }
+
+    @Test
+    public void testWdl() throws IOException {
+        SyzygyTablebases tablebases = new SyzygyTablebases(tables());
+        assertEquals(3, tablebases.maxPieces());
+        assertEquals(2, tablebases.wdlCount());
+        assertEquals(1, tablebases.dtzCount());
+        Random random = new Random(0);
+        int tested = 0;
+        while (tested < 2000) {
+            char piece = random.nextBoolean() ? 'R' : 'P';
+            Board board = board(random.nextInt(SIZE), piece, random.nextBoolean());
+            if (board == null || board.getWinner() != 'u') {
+                continue;
+            }
+            // Results agree with the bitbases whichever side is stronger
+            assertEquals(2 * bitbases().probe(board), tablebases.probeWdl((BitmapBoard) board), board.toFEN());
+            tested++;
+        }
+    }
+
+    @Test
+    public void testDtz() throws IOException, IllegalBoardException, MalformedFENException {
+        SyzygyTablebases tablebases = new SyzygyTablebases(tables());
+        Random random = new Random(1);
+        int tested = 0;
+        int maxDistance = 0;
+        while (tested < 500) {
+            int index = random.nextInt(SIZE);
+            boolean mirrored = random.nextBoolean();
+            Board board = board(index, 'R', mirrored);
+            if (board == null || board.getWinner() != 'u') {
+                continue;
+            }
+            // Without pawns, the distance to zeroing is the distance to mate, which the table of white to move
+            // stores exactly since it's an odd number of plies. Black to move is found by searching a ply.
+            int distance = mateDistances()[index];
+            int expected = distance < 0 ? 0 : (index & 1) == 0 ? distance : -distance;
+            assertEquals(expected, tablebases.probeDtz((BitmapBoard) board), board.toFEN());
+            maxDistance = Math.max(maxDistance, distance);
+            tested++;
+        }
+        assertTrue(maxDistance > 20);
+        // Mate in one and the checkmated king
+        assertEquals(1, tablebases.probeDtz(new BitmapBoard("k7/8/1K6/8/8/8/8/7R w - - 0 1")));
+        // The tables don't know the moves before the board, so a drawn game by the fifty-move rule
+        // or by repetition is probed as if the counter had just been reset
+        BitmapBoard fifty = new BitmapBoard("k7/8/1K6/8/8/8/8/7R w - - 100 80");
+        assertEquals('d', fifty.getWinner());
+        assertEquals(1, tablebases.probeDtz(fifty));
+        assertEquals(SyzygyTablebases.WIN, tablebases.probeWdl(fifty));
+        assertEquals("k7/8/1K6/8/8/8/8/7R w - - 100 80", fifty.toFEN());
+        assertEquals(-1, tablebases.probeDtz(new BitmapBoard("R1k5/8/2K5/8/8/8/8/8 b - - 0 1")));
+        // The rook is lost
+        assertEquals(0, tablebases.probeDtz(new BitmapBoard("8/8/8/8/8/8/1k6/1R2K3 b - - 0 1")));
+        // There is no DTZ table of KPvK
+        assertEquals(SyzygyTablebases.UNKNOWN, tablebases.probeDtz(new BitmapBoard("4k3/8/4K3/4P3/8/8/8/8 w - - 0 1")));
+    }
+
+    @Test
+    public void testCaptures() throws IOException, IllegalBoardException, MalformedFENException {
+        // A table that stores a win for white to move and a loss for black to move, even where the rook is lost
+        Path dir = Files.createTempDirectory("syzygy");
+        Path path = dir.resolve("KRvK.rtbw");
+        Files.write(path, singleValueTable("KRvK", false, KRK_PIECES,
+                SyzygyTablebases.WIN + 2, SyzygyTablebases.LOSS + 2));
+        SyzygyTablebases tablebases = new SyzygyTablebases(dir);
+        assertEquals(SyzygyTablebases.LOSS, tablebases.probeWdl(new BitmapBoard("8/8/8/4k3/8/8/8/R3K3 b - - 0 1")));
+        // Capturing the rook draws, which the table is never asked about
+        assertEquals(SyzygyTablebases.DRAW, tablebases.probeWdl(new BitmapBoard("8/8/8/8/8/8/1k6/1R2K3 b - - 0 1")));
+        assertEquals(SyzygyTablebases.DRAW, tablebases.probeWdl(new BitmapBoard("8/8/8/8/8/8/1K6/1r2k3 w - - 0 1")));
+        assertEquals(SyzygyTablebases.LOSS, tablebases.probeWdl(new BitmapBoard("8/8/8/8/8/8/8/1r2k1K1 w - - 0 1")));
+        // Two kings are a draw without a table, and other material isn't covered
+        assertEquals(SyzygyTablebases.DRAW, tablebases.probeWdl(new BitmapBoard("8/8/8/4k3/8/8/8/4K3 w - - 0 1")));
+        assertEquals(SyzygyTablebases.UNKNOWN, tablebases.probeWdl(new BitmapBoard("8/8/8/4k3/8/8/8/1Q2K3 w - - 0 1")));
+        assertEquals(SyzygyTablebases.UNKNOWN, tablebases.probeWdl(new BitmapBoard("8/8/8/4k3/8/8/8/RR2K3 w - - 0 1")));
+        assertEquals(SyzygyTablebases.UNKNOWN, tablebases.probeWdl(new BitmapBoard("4k3/8/8/8/8/8/8/R3K3 w Q - 0 1")));
+        assertEquals(SyzygyTablebases.UNKNOWN, tablebases.probeWdl(new BitmapBoard()));
+        Files.delete(path);
+        Files.delete(dir);
+    }
+
+    @Test
+    public void testMalformedTables() throws IOException {
+        Path dir = Files.createTempDirectory("syzygy");
+        Path path = dir.resolve("KRvK.rtbw");
+        // Other files are ignored
+        Files.write(dir.resolve("readme.txt"), new byte[5]);
+        assertEquals(0, new SyzygyTablebases(dir).maxPieces());
+        byte[] table = singleValueTable("KRvK", false, KRK_PIECES, 2);
+        Files.write(path, Arrays.copyOf(table, table.length + 1));
+        assertThrows(IOException.class, () -> new SyzygyTablebases(dir));
+        // A WDL table with the name of a DTZ table
+        Files.delete(path);
+        Files.write(dir.resolve("KRvK.rtbz"), table);
+        assertThrows(IOException.class, () -> new SyzygyTablebases(dir));
+        try (var files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void testConcurrentProbes() throws IOException {
+        SyzygyTablebases tablebases = new SyzygyTablebases(tables());
+        BitmapBoard[] boards = new Random(2).ints(0, SIZE).mapToObj(index -> board(index, 'P', index % 3 == 0))
+                .filter(board -> board != null && board.getWinner() == 'u').limit(500)
+                .map(board -> (BitmapBoard) board).toArray(BitmapBoard[]::new);
+        int[] expected = Arrays.stream(boards).mapToInt(tablebases::probeWdl).toArray();
+        assertTrue(Arrays.stream(expected).noneMatch(wdl -> wdl == SyzygyTablebases.UNKNOWN));
+        for (int round = 0; round < 4; round++) {
+            assertArrayEquals(expected, Arrays.stream(boards).parallel().mapToInt(tablebases::probeWdl).toArray());
+        }
+    }
+}
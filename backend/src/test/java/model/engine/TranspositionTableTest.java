@@ -0,0 +1,108 @@
+package model.engine;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TranspositionTableTest {
+
+    @Test
+    public void testStoreProbe() {
+        TranspositionTable table = new TranspositionTable(1);
+        assertEquals(1 << 16, table.capacity());
+        long key = 0x3141592653589793L;
+        assertEquals(TranspositionTable.MISS, table.probe(key));
+        table.store(key, 0x1ABCD, -(Search.MATE - 5), 12, TranspositionTable.LOWER_BOUND);
+        long data = table.probe(key);
+        assertEquals(0x1ABCD, TranspositionTable.getMove(data));
+        assertEquals(-(Search.MATE - 5), TranspositionTable.getScore(data));
+        assertEquals(12, TranspositionTable.getDepth(data));
+        assertEquals(TranspositionTable.LOWER_BOUND, TranspositionTable.getBound(data));
+
+        table.store(key, 0, Search.MATE, TranspositionTable.MAX_DEPTH, TranspositionTable.EXACT);
+        data = table.probe(key);
+        assertEquals(0, TranspositionTable.getMove(data));
+        assertEquals(Search.MATE, TranspositionTable.getScore(data));
+        assertEquals(TranspositionTable.MAX_DEPTH, TranspositionTable.getDepth(data));
+        assertEquals(TranspositionTable.EXACT, TranspositionTable.getBound(data));
+        assertEquals(2.0 / 3, table.hitRate(), 1e-9);
+
+        table.clear();
+        assertEquals(TranspositionTable.MISS, table.probe(key));
+        assertEquals(0.0, table.hitRate());
+    }
+
+    @Test
+    public void testReplacement() {
+        TranspositionTable table = new TranspositionTable(1);
+        // Same slot, different keys
+        long key1 = 0x10000L, key2 = 0x20000L;
+        table.store(key1, 0, 10, 5, TranspositionTable.EXACT);
+        // A shallower entry for another position doesn't replace a deeper one from the same search
+        table.store(key2, 0, 20, 3, TranspositionTable.EXACT);
+        assertEquals(10, TranspositionTable.getScore(table.probe(key1)));
+        assertEquals(TranspositionTable.MISS, table.probe(key2));
+        assertEquals(0.5, table.collisionRate(), 1e-9);
+        // But it does replace one from an earlier search
+        table.newSearch();
+        table.store(key2, 0, 20, 3, TranspositionTable.EXACT);
+        assertEquals(TranspositionTable.MISS, table.probe(key1));
+        assertEquals(20, TranspositionTable.getScore(table.probe(key2)));
+        // The same position is always replaced
+        table.store(key2, 0, 30, 1, TranspositionTable.UPPER_BOUND);
+        assertEquals(30, TranspositionTable.getScore(table.probe(key2)));
+    }
+
+    @Test
+    public void testHashfull() {
+        TranspositionTable table = new TranspositionTable(1);
+        assertEquals(0, table.hashfull());
+        for (long key = 0; key < 500; key++) {
+            table.store(key, 0, 0, 1, TranspositionTable.EXACT);
+        }
+        assertEquals(500, table.hashfull());
+        table.newSearch();
+        assertEquals(0, table.hashfull());
+    }
+
+    @Test
+    public void testSize() {
+        assertThrows(IllegalArgumentException.class, () -> new TranspositionTable(0));
+        assertThrows(IllegalArgumentException.class, () -> new TranspositionTable(TranspositionTable.MAX_SIZE_MB + 1));
+        // Rounded down to a power of two
+        assertEquals(1 << 17, new TranspositionTable(3).capacity());
+    }
+
+    @Test
+    public void testConcurrentWrites() throws InterruptedException {
+        // Threads write entries whose data is derived from the key into a small table,
+        // so that they keep overwriting each other; every hit must still be consistent with its key
+        TranspositionTable table = new TranspositionTable(1);
+        AtomicBoolean consistent = new AtomicBoolean(true);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            long seed = t;
+            threads[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < 200000; i++) {
+                    long key = random.nextLong() & 0xFFFFFFL;
+                    long data = table.probe(key);
+                    if (data != TranspositionTable.MISS
+                            && TranspositionTable.getScore(data) != (int) (key % 1000)) {
+                        consistent.set(false);
+                    }
+                    table.store(key, 0, (int) (key % 1000), (int) (key % 64), TranspositionTable.EXACT);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(consistent.get());
+        assertTrue(table.hitRate() > 0);
+    }
+}
@@ -0,0 +1,83 @@
+package model.move;
+
+import model.Util;
+import model.board.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PackedMoveTest {
+
+    private void assertRoundTrip(Move move) {
+        int packed = PackedMove.fromMove(move);
+        assertNotEquals(PackedMove.NONE, packed);
+        assertEquals(move, PackedMove.toMove(packed));
+        assertEquals(move.toString(), PackedMove.toString(packed));
+    }
+
+    @Test
+    void testFields() {
+        int move = PackedMove.regular(12, 28, false);
+        assertEquals(12, PackedMove.getStart(move));
+        assertEquals(28, PackedMove.getEnd(move));
+        assertEquals(PackedMove.REGULAR, PackedMove.getType(move));
+        assertFalse(PackedMove.getIsCapture(move));
+
+        move = PackedMove.enPassant(36, 43);
+        assertEquals(PackedMove.EN_PASSANT, PackedMove.getType(move));
+        assertTrue(PackedMove.getIsCapture(move));
+
+        move = PackedMove.promotion(52, 61, 3, true);
+        assertEquals(PackedMove.PROMOTION, PackedMove.getType(move));
+        assertEquals('N', PackedMove.getPromotionType(move));
+        assertTrue(PackedMove.getIsCapture(move));
+        move = PackedMove.promotion(9, 1, 1, false);
+        assertEquals('r', PackedMove.getPromotionType(move));
+        assertFalse(PackedMove.getIsCapture(move));
+
+        for (char castleType : "KQkq".toCharArray()) {
+            move = PackedMove.castling(castleType);
+            assertEquals(PackedMove.CASTLING, PackedMove.getType(move));
+            assertEquals(castleType, PackedMove.getCastleType(move));
+        }
+    }
+
+    @Test
+    void testRoundTrip() {
+        assertRoundTrip(Util.moveFromSquares("e2", "e4", false, false));
+        assertRoundTrip(Util.moveFromSquares("h8", "a1", false, true));
+        assertRoundTrip(Util.moveFromSquares("c5", "b6", true, true));
+        assertRoundTrip(Util.moveFromSquares("g7", "h8", 'Q', true));
+        assertRoundTrip(Util.moveFromSquares("b2", "b1", 'n', false));
+        for (char castleType : "KQkq".toCharArray()) {
+            assertRoundTrip(new Move(castleType));
+        }
+    }
+
+    @Test
+    void testGeneratedMoves() throws IllegalBoardException, MalformedFENException {
+        String[] fens = {
+                Util.START_POS,
+                "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+                "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+                "rn1q1bkr/ppp3pp/8/3pP3/2B5/8/8/4K3 w - d6 0 2",
+        };
+        for (String fen : fens) {
+            Board board = new BitmapBoard(fen);
+            MoveList legalMoves = new MoveList();
+            board.generateLegalMoves(legalMoves);
+            Set<Move> moveSet = legalMoves.toMoveSet();
+            assertEquals(legalMoves.size(), moveSet.size(), fen);
+            for (int i = 0; i < legalMoves.size(); i++) {
+                assertRoundTrip(PackedMove.toMove(legalMoves.get(i)));
+                assertEquals(legalMoves.get(i), PackedMove.fromMove(PackedMove.toMove(legalMoves.get(i))));
+            }
+            // Mailbox and bitmap boards agree on the packed moves
+            MoveList mailboxMoves = new MoveList();
+            new MailboxBoard(fen).generateLegalMoves(mailboxMoves);
+            assertEquals(moveSet, mailboxMoves.toMoveSet(), fen);
+        }
+    }
+}